@@ -3,9 +3,14 @@ package colgatedb;
 import colgatedb.page.Page;
 import colgatedb.page.PageId;
 import colgatedb.page.PageMaker;
+import colgatedb.page.SlottedPage;
+import colgatedb.transactions.DeadlockPolicy;
+import colgatedb.transactions.PageVersions;
 import colgatedb.transactions.Permissions;
 import colgatedb.transactions.TransactionAbortedException;
 import colgatedb.transactions.TransactionId;
+import colgatedb.transactions.VersionStore;
+import colgatedb.tuple.RecordId;
 
 /**
  * ColgateDB
@@ -38,6 +43,31 @@ public interface AccessManager {
      */
     void releaseLock(TransactionId tid, PageId pid);
 
+    /**
+     * @see colgatedb.transactions.LockManager#acquireLock(TransactionId, RecordId, Permissions)
+     */
+    void acquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException;
+
+    /**
+     * @see colgatedb.transactions.LockManager#holdsLock(TransactionId, RecordId, Permissions)
+     */
+    boolean holdsLock(TransactionId tid, RecordId rid, Permissions perm);
+
+    /**
+     * @see colgatedb.transactions.LockManager#tryAcquireLock(TransactionId, RecordId, Permissions)
+     */
+    boolean tryAcquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException;
+
+    /**
+     * @see colgatedb.transactions.LockManager#releaseLock(TransactionId, RecordId)
+     */
+    void releaseLock(TransactionId tid, RecordId rid);
+
+    /**
+     * @see colgatedb.transactions.LockManager#acquireTableLock(TransactionId, int, Permissions)
+     */
+    void acquireTableLock(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException;
+
     /**
      * Pins the page and keeps track of the number of times each transaction has pinned this page.
      * @see BufferManager#pinPage(PageId, PageMaker)
@@ -50,11 +80,27 @@ public interface AccessManager {
      */
     void unpinPage(TransactionId tid, Page page, boolean isDirty);
 
+    /**
+     * Logs a change tid has made to one slot of a pinned page, so that undo puts back only that slot.
+     * Called with the page's monitor held, right after the change; the page must still be unpinned as
+     * dirty, but its image is not logged again.
+     * @param before the slot's content before the change, null if it was empty
+     * @see colgatedb.logging.LogFile#logSlotWrite(TransactionId, SlottedPage, int, byte[])
+     */
+    void logSlotChange(TransactionId tid, SlottedPage page, int slotno, byte[] before);
+
     /**
      * @see BufferManager#allocatePage(PageId)
      */
     void allocatePage(PageId pid);
 
+    /**
+     * Passes an access-pattern hint on to the buffer manager.  The default does nothing.
+     * @see BufferManager#hintSequential(PageId, int, PageMaker)
+     */
+    default void hintSequential(PageId start, int endPageNo, PageMaker pageMaker) {
+    }
+
     /**
      * Complete the commit of a transaction.
      * @see AccessManager#transactionComplete(TransactionId, boolean)
@@ -75,4 +121,69 @@ public interface AccessManager {
      * @param force true if force policy is desired, false otherwise
      */
     void setForce(boolean force);
+
+    /**
+     * Passes the deadlock policy on to the lock manager.  The default does nothing.
+     * @see colgatedb.transactions.LockManager#setDeadlockPolicy(DeadlockPolicy)
+     */
+    default void setDeadlockPolicy(DeadlockPolicy policy) {
+    }
+
+    /**
+     * Passes the lock escalation threshold on to the lock manager.  The default does nothing.
+     * @see colgatedb.transactions.LockManager#setEscalationThreshold(int)
+     */
+    default void setEscalationThreshold(int threshold) {
+    }
+
+    /**
+     * Turns snapshot reads on or off.  The default does nothing.
+     * @see VersionStore
+     */
+    default void setMultiVersion(boolean enabled) {
+    }
+
+    /**
+     * @return the store of old tuple versions that scans read their snapshots from, or null if scans
+     *         lock the pages they read
+     */
+    default VersionStore getVersionStore() {
+        return null;
+    }
+
+    /**
+     * Makes tid an optimistic transaction: it reads pages without locking them and must be validated
+     * before it commits.  The default does nothing, leaving tid to lock its reads.
+     * @see colgatedb.transactions.PageVersions
+     */
+    default void beginOptimistic(TransactionId tid) {
+    }
+
+    default boolean isOptimistic(TransactionId tid) {
+        return false;
+    }
+
+    /**
+     * @return true if optimistic tid may commit, i.e., none of the pages it read has been changed by
+     *         another transaction since
+     */
+    default boolean validate(TransactionId tid) {
+        return true;
+    }
+
+    /**
+     * Buffers a write of optimistic tid until it commits.  The default applies it right away.
+     * @see #applyWrites(TransactionId)
+     */
+    default void bufferWrite(TransactionId tid, PageVersions.BufferedWrite write) throws TransactionAbortedException {
+        write.apply();
+    }
+
+    /**
+     * Applies the writes optimistic tid has buffered, in order.  The default does nothing.
+     * @throws TransactionAbortedException if tid fails validation before one of them; the ones already
+     *         applied are undone when tid aborts
+     */
+    default void applyWrites(TransactionId tid) throws TransactionAbortedException {
+    }
 }
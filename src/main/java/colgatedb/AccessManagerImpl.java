@@ -3,10 +3,13 @@ package colgatedb;
 import colgatedb.page.Page;
 import colgatedb.page.PageId;
 import colgatedb.page.PageMaker;
+import colgatedb.page.SlottedPage;
 import colgatedb.transactions.*;
+import colgatedb.tuple.RecordId;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ColgateDB
@@ -29,6 +32,12 @@ public class AccessManagerImpl implements AccessManager {
     private final BufferManager bm;
     private final LockManager lm;
     private Map<PageId, pinEntry> pinMap;
+    private Map<TransactionId, Set<PageId>> tidPages;  // pages each running txn has pinned at some point
+    private volatile VersionStore versions;             // null unless scans read snapshots
+    private final PageVersions pageVersions = new PageVersions();
+    // pages each running txn has logged slot changes to; not guarded by this, since writers log under the
+    // page's monitor, which is taken after this one
+    private final Map<TransactionId, Set<PageId>> slotPages = new ConcurrentHashMap<>();
 
 
     /**
@@ -40,11 +49,19 @@ public class AccessManagerImpl implements AccessManager {
         //bm.evictDirty(false); --allow steal
         this.lm = new LockManagerImpl();
         this.pinMap = new HashMap<>();
+        this.tidPages = new HashMap<>();
     }
 
     @Override
     public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        if (perm == Permissions.READ_ONLY && pageVersions.isOptimistic(tid)) {
+            pageVersions.recordRead(tid, pid);
+            return;
+        }
         lm.acquireLock(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            pageVersions.recordWrite(tid, pid);
+        }
     }
 
     @Override
@@ -56,7 +73,43 @@ public class AccessManagerImpl implements AccessManager {
     public void releaseLock(TransactionId tid, PageId pid) {
         if(!pinMap.containsKey(pid) || !pinMap.get(pid).isPinnedBy(tid)){
             lm.releaseLock(tid, pid);
+            pageVersions.releaseWrite(tid, pid);
+        }
+    }
+
+    @Override
+    public void acquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException {
+        if (perm == Permissions.READ_ONLY && pageVersions.isOptimistic(tid)) {
+            pageVersions.recordRead(tid, rid.getPageId());
+            return;
+        }
+        lm.acquireLock(tid, rid, perm);
+    }
+
+    @Override
+    public boolean holdsLock(TransactionId tid, RecordId rid, Permissions perm) {
+        return lm.holdsLock(tid, rid, perm);
+    }
+
+    @Override
+    public boolean tryAcquireLock(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        if (perm == Permissions.READ_ONLY && pageVersions.isOptimistic(tid)) {
+            pageVersions.recordRead(tid, rid.getPageId());
+            return true;
         }
+        return lm.tryAcquireLock(tid, rid, perm);
+    }
+
+    @Override
+    public void releaseLock(TransactionId tid, RecordId rid) {
+        lm.releaseLock(tid, rid);
+    }
+
+    @Override
+    public void acquireTableLock(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        lm.acquireTableLock(tid, tableId, perm);
     }
 
     @Override
@@ -65,6 +118,7 @@ public class AccessManagerImpl implements AccessManager {
         synchronized (this) {
             pinMap.putIfAbsent(pid, new pinEntry(pid));
             pinMap.get(pid).pinUpdate(tid);
+            tidPages.computeIfAbsent(tid, t -> new HashSet<>()).add(pid);
             page = bm.pinPage(pid, pageMaker);
         }
         return page;
@@ -75,16 +129,28 @@ public class AccessManagerImpl implements AccessManager {
         synchronized (this) {
             PageId pid = page.getId();
             pinMap.get(pid).unpinUpdate(tid, isDirty);
-            bm.unpinPage(pid, isDirty);
+            // log before unpinning: once the page is unpinned and dirty it may be written out (e.g., by
+            // a BackgroundPageWriter), and the update record must already be in the log by then
             if(isDirty) {
-                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                Set<PageId> logged = slotPages.get(tid);
+                if (logged == null || !logged.contains(pid)) {
+                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                }
                 if(force){
                     Database.getLogFile().force();
                 }
             }
+            bm.unpinPage(pid, isDirty);
         }
     }
 
+    @Override
+    public void logSlotChange(TransactionId tid, SlottedPage page, int slotno, byte[] before) {
+        pageVersions.recordWrite(tid, page.getId());
+        slotPages.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(page.getId());
+        Database.getLogFile().logSlotWrite(tid, page, slotno, before);
+    }
+
     @Override
     public void  allocatePage(PageId pid) {
         synchronized (this) {
@@ -92,6 +158,11 @@ public class AccessManagerImpl implements AccessManager {
         }
     }
 
+    @Override
+    public void hintSequential(PageId start, int endPageNo, PageMaker pageMaker) {
+        bm.hintSequential(start, endPageNo, pageMaker);
+    }
+
     @Override
     public void transactionComplete(TransactionId tid) {
         transactionComplete(tid, true);
@@ -102,24 +173,61 @@ public class AccessManagerImpl implements AccessManager {
         if(force) {
             Database.getLogFile().force();
         }
-        for(PageId pid: pinMap.keySet()){
-            pinEntry entry = pinMap.get(pid);
-            int pinCount = entry.tidCountMap.get(tid);
-            if (pinMap.get(pid).removeTid(tid)) { //if page is dirtied by this transaction
-                if (commit) {
+        // only visit the pages this transaction touched, not every page in pinMap
+        Set<PageId> pages;
+        synchronized (this) {
+            pages = tidPages.remove(tid);
+        }
+        Set<PageId> slotLogged = slotPages.remove(tid);
+        if (pages != null) {
+            for (PageId pid : pages) {
+                completePage(tid, pid, commit, slotLogged != null && slotLogged.contains(pid));
+            }
+        }
+        // after completePage, so that an aborted transaction's pages are restored before it ends
+        VersionStore versions = this.versions;
+        if (versions != null) {
+            versions.transactionComplete(tid, commit);
+        }
+        pageVersions.transactionComplete(tid);
+        lm.releaseAllLocks(tid);
+    }
+
+    /**
+     * Releases tid's remaining pins on pid and flushes (commit) or discards (abort) the page if tid
+     * dirtied it.  Without the force policy a committed page is left dirty in the buffer pool, to be
+     * written by eviction or a checkpoint; the commit record in the log makes the change durable.
+     * A page tid changed slot by slot is not discarded on abort: rollback has already put back its
+     * slots, and the page may hold other transactions' changes.
+     * The page's pinEntry is dropped once no running transaction has pinned it.
+     */
+    private synchronized void completePage(TransactionId tid, PageId pid, boolean commit, boolean slotLogged) {
+        pinEntry entry = pinMap.get(pid);
+        int pinCount = entry.tidCountMap.get(tid);
+        boolean dirtied = entry.removeTid(tid);
+        // with steal, a page the transaction no longer has pinned may already have been written and evicted
+        if (dirtied && bm.inBufferPool(pid)) {
+            if (commit) {
+                if (force) {
                     bm.flushPage(pid);
-                    bm.getPage(pid).setBeforeImage();
                 }
-                else {
-                    bm.discardPage(pid);
+                Page page = bm.getPage(pid);
+                synchronized (page) {   // other writers may be changing slots of the page
+                    page.setBeforeImage();
                 }
             }
-            for(int i = 0; i < pinCount; i++){
-                bm.unpinPage(pid, false);
+            else if (!slotLogged) {
+                bm.discardPage(pid);
             }
         }
-        for(PageId pid: lm.getPagesForTid(tid)){
-            lm.releaseLock(tid, pid);
+        if (dirtied && !commit && !slotLogged) {
+            Database.getCatalog().pageRestored(pid);
+        }
+        for(int i = 0; i < pinCount; i++){
+            bm.unpinPage(pid, false);
+        }
+        if (entry.tidCountMap.isEmpty()) {
+            pinMap.remove(pid);
         }
     }
 
@@ -168,4 +276,55 @@ public class AccessManagerImpl implements AccessManager {
         this.force = force;
     }
 
+    @Override
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        lm.setDeadlockPolicy(policy);
+    }
+
+    @Override
+    public void setEscalationThreshold(int threshold) {
+        lm.setEscalationThreshold(threshold);
+    }
+
+    @Override
+    public void setMultiVersion(boolean enabled) {
+        versions = enabled ? new VersionStore() : null;
+    }
+
+    @Override
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    @Override
+    public void beginOptimistic(TransactionId tid) {
+        pageVersions.beginOptimistic(tid);
+    }
+
+    @Override
+    public boolean isOptimistic(TransactionId tid) {
+        return pageVersions.isOptimistic(tid);
+    }
+
+    @Override
+    public boolean validate(TransactionId tid) {
+        return pageVersions.validate(tid);
+    }
+
+    @Override
+    public void bufferWrite(TransactionId tid, PageVersions.BufferedWrite write) {
+        pageVersions.bufferWrite(tid, write);
+    }
+
+    @Override
+    public void applyWrites(TransactionId tid) throws TransactionAbortedException {
+        for (PageVersions.BufferedWrite write : pageVersions.takeWrites(tid)) {
+            write.apply();
+        }
+    }
+
+    public PageVersions getPageVersions() {
+        return pageVersions;
+    }
+
 }
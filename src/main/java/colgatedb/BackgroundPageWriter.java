@@ -0,0 +1,205 @@
+package colgatedb;
+
+import colgatedb.logging.LogFile;
+import colgatedb.page.PageId;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * BackgroundPageWriter is a daemon thread that writes out dirty, unpinned pages near the cold end of a
+ * {@link BufferManagerImpl}'s replacement order, so that when a pin needs to evict a page it almost
+ * always finds a clean victim and does not have to wait on a write.
+ * <p>
+ * Each round the writer looks at the coldest cleanRatio fraction of the pool, sorts the dirty pages it
+ * finds by (tableid, pageno) so that writes to the same file are close together, and writes up to
+ * writesPerSecond * interval of them.
+ * <p>
+ * The writer only does anything while the buffer manager allows dirty pages to be evicted
+ * ({@link BufferManager#evictDirty(boolean)}): writing an uncommitted page early is exactly a steal,
+ * and is only safe when the log can undo it.  For the same reason the log is forced before each batch
+ * of writes (write-ahead logging).
+ * <p>
+ * A round that fails (e.g., a write error) is counted and its exception kept, see
+ * {@link #getFailures()}; the writer carries on with the next round.  The thread is never interrupted,
+ * since an interrupt during a write would close the table file's channel.
+ */
+public class BackgroundPageWriter implements Runnable {
+
+    public static final double DEFAULT_CLEAN_RATIO = 0.25;
+    public static final int DEFAULT_WRITES_PER_SECOND = 200;
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+
+    private static final Comparator<PageId> FILE_ORDER =
+            Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::pageNumber);
+
+    private final BufferManagerImpl bm;
+    private final LogFile logFile;        // forced before pages are written; null if there is no log
+    private final long intervalMillis;
+    private volatile double cleanRatio;
+    private volatile int writesPerSecond;
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+    private Thread thread;
+    private volatile boolean running = false;
+    private final Object sleep = new Object();   // run() waits on it between rounds; shutdown() wakes it
+
+    /**
+     * Creates a writer with the default clean ratio and write rate.  Call {@link #start()} to start it.
+     * @param bm the buffer manager to clean
+     * @param logFile the log to force before writing pages, or null if there is none
+     */
+    public BackgroundPageWriter(BufferManagerImpl bm, LogFile logFile) {
+        this(bm, logFile, DEFAULT_CLEAN_RATIO, DEFAULT_WRITES_PER_SECOND, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param bm the buffer manager to clean
+     * @param logFile the log to force before writing pages, or null if there is none
+     * @param cleanRatio fraction of the pool, counted from the cold end, that the writer tries to keep clean
+     * @param writesPerSecond maximum number of pages written per second
+     * @param intervalMillis how long the writer sleeps between rounds
+     */
+    public BackgroundPageWriter(BufferManagerImpl bm, LogFile logFile, double cleanRatio,
+                                int writesPerSecond, long intervalMillis) {
+        this.bm = bm;
+        this.logFile = logFile;
+        this.intervalMillis = intervalMillis;
+        setCleanRatio(cleanRatio);
+        setWritesPerSecond(writesPerSecond);
+    }
+
+    public void setCleanRatio(double cleanRatio) {
+        if (cleanRatio < 0 || cleanRatio > 1) {
+            throw new IllegalArgumentException("clean ratio must be between 0 and 1: " + cleanRatio);
+        }
+        this.cleanRatio = cleanRatio;
+    }
+
+    public void setWritesPerSecond(int writesPerSecond) {
+        if (writesPerSecond <= 0) {
+            throw new IllegalArgumentException("write rate must be positive: " + writesPerSecond);
+        }
+        this.writesPerSecond = writesPerSecond;
+    }
+
+    /**
+     * @return total number of pages this writer has written
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * @return number of rounds that failed with an exception
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the exception thrown by the last round that failed, or null if none has
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "background-page-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer and waits for the current round to finish.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        synchronized (sleep) {
+            running = false;
+            sleep.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long budget = Math.max(1, writesPerSecond * intervalMillis / 1000);
+            try {
+                cleanOnce((int) Math.min(Integer.MAX_VALUE, budget));
+            } catch (RuntimeException e) {
+                lastFailure = e;
+                failures.incrementAndGet();
+            }
+            synchronized (sleep) {
+                if (running) {
+                    try {
+                        sleep.wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        // nobody interrupts this thread; the loop condition decides whether to stop
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Does one round of cleaning.
+     * @param maxWrites the most pages to write this round
+     * @return the number of pages written
+     */
+    public int cleanOnce(int maxWrites) {
+        if (!bm.isEvictDirtyAllowed()) {
+            return 0;
+        }
+        int depth = (int) Math.ceil(cleanRatio * bm.getCapacity());
+        List<PageId> dirty = bm.getColdDirtyPages(depth);
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        if (dirty.size() > maxWrites) {
+            dirty = dirty.subList(0, maxWrites);   // the coldest ones are the most urgent
+        }
+        dirty.sort(FILE_ORDER);
+        if (logFile != null) {
+            logFile.force();
+        }
+        int written = 0;
+        for (PageId pid : dirty) {
+            if (bm.cleanPage(pid)) {
+                written++;
+            }
+        }
+        pagesWritten.addAndGet(written);
+        return written;
+    }
+}
@@ -72,6 +72,17 @@ public interface BufferManager {
      */
     boolean isDirty(PageId pid);
 
+    /**
+     * Hint that the pages of start's table from start up to (but not including) page number endPageNo
+     * are about to be pinned in order, e.g., by a sequential scan.  An implementation may use this to
+     * read pages ahead of time.  The default does nothing.
+     * @param start the first page the caller will pin
+     * @param endPageNo one past the last page number the caller will pin
+     * @param pageMaker used to create Page objects for pages read from disk
+     */
+    default void hintSequential(PageId start, int endPageNo, PageMaker pageMaker) {
+    }
+
     /* ----- the remaining methods should be used with caution ----- */
     /*
        Other components of ColgateDB require additional control over the
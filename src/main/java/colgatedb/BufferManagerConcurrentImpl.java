@@ -0,0 +1,359 @@
+package colgatedb;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * A BufferManager for many concurrent threads.  Unlike {@link BufferManagerImpl} and
+ * {@link BufferManagerClockImpl}, no method holds a buffer-wide lock, and disk I/O never happens
+ * while another thread could be blocked on a lock it needs for a cache hit.
+ * <p>
+ * Design:
+ * <ul>
+ *     <li>The page table is a ConcurrentHashMap from PageId to Frame.  A hit is a map lookup plus a
+ *     CAS on the frame's pin count.</li>
+ *     <li>On a miss, the thread that installs a new Frame in the table does the read; any other thread
+ *     pinning the same page finds that Frame and waits on its load latch, so concurrent misses on one
+ *     page cause a single {@link DiskManager#readPage}.  Misses on different pages read in parallel.</li>
+ *     <li>Frames live in a fixed array of slots.  Free slots come from a queue; when there are none, a
+ *     clock hand (an AtomicInteger) sweeps the slots.  A victim is claimed by CASing its pin count
+ *     from 0 to -1, after which no one can pin it.  A dirty victim is written out before it leaves the
+ *     page table, and threads that want it wait until it is gone and then read it back in.  If the write
+ *     fails, the victim stays in the table, still dirty, and can be pinned again.</li>
+ * </ul>
+ */
+public class BufferManagerConcurrentImpl implements BufferManager {
+
+    private static final int EVICTED = -1;   // pin count of a frame that has been claimed for eviction
+
+    private final int numPages;
+    private final DiskManager dm;
+    private final ConcurrentHashMap<PageId, Frame> table;
+    private final AtomicReferenceArray<Frame> slots;
+    private final ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockHand = new AtomicInteger();
+    private volatile boolean allowEvictDirty = false;
+
+    /**
+     * Construct a new buffer manager.
+     * @param numPages maximum size of the buffer pool
+     * @param dm the disk manager to call to read/write pages; must be safe to call from several threads
+     */
+    public BufferManagerConcurrentImpl(int numPages, DiskManager dm) {
+        this.numPages = numPages;
+        this.dm = dm;
+        this.table = new ConcurrentHashMap<>(numPages);
+        this.slots = new AtomicReferenceArray<>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    @Override
+    public Page pinPage(PageId pid, PageMaker pageMaker) {
+        while (true) {
+            Frame frame = table.get(pid);
+            if (frame != null) {
+                if (frame.tryPin()) {
+                    frame.awaitLoaded();
+                    if (frame.loadError != null) {
+                        throw frame.loadError;
+                    }
+                    frame.refBit = true;
+                    return frame.page;
+                }
+                // frame is on its way out; once it is written and gone we can read the page back in
+                frame.awaitGoneOrRestored();
+                continue;
+            }
+            Frame newFrame = new Frame(pid);
+            if (table.putIfAbsent(pid, newFrame) != null) {
+                continue;   // someone else is loading it, go wait on their frame
+            }
+            load(newFrame, pageMaker);
+            return newFrame.page;
+        }
+    }
+
+    @Override
+    public void unpinPage(PageId pid, boolean isDirty) {
+        Frame frame = table.get(pid);
+        if (frame == null || !frame.isLoaded()) {
+            throw new BufferManagerException("page " + pid + " is not in Buffer Manager!");
+        }
+        if (isDirty) {
+            frame.dirty = true;   // set before the pin is dropped so an evictor sees it
+        }
+        while (true) {
+            int pins = frame.pinCount.get();
+            if (pins <= 0) {
+                throw new BufferManagerException("This page already has pin count = 0!");
+            }
+            if (frame.pinCount.compareAndSet(pins, pins - 1)) {
+                break;
+            }
+        }
+        frame.refBit = true;
+    }
+
+    @Override
+    public void flushPage(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame != null && frame.isLoaded()) {
+            frame.flush();
+        }
+    }
+
+    @Override
+    public void flushAllPages() {
+        for (Frame frame : table.values()) {
+            if (frame.isLoaded()) {
+                frame.flush();
+            }
+        }
+    }
+
+    @Override
+    public void evictDirty(boolean allowEvictDirty) {
+        this.allowEvictDirty = allowEvictDirty;
+    }
+
+    @Override
+    public void allocatePage(PageId pid) {
+        dm.allocatePage(pid);
+    }
+
+    @Override
+    public boolean isDirty(PageId pid) {
+        Frame frame = table.get(pid);
+        return frame != null && frame.isLoaded() && frame.dirty;
+    }
+
+    @Override
+    public boolean inBufferPool(PageId pid) {
+        Frame frame = table.get(pid);
+        return frame != null && frame.isLoaded() && frame.pinCount.get() != EVICTED;
+    }
+
+    @Override
+    public Page getPage(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame == null || !frame.isLoaded() || frame.pinCount.get() == EVICTED) {
+            throw new BufferManagerException("Page not in Buffer!");
+        }
+        return frame.page;
+    }
+
+    @Override
+    public void discardPage(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame == null || !frame.isLoaded()) {
+            return;
+        }
+        frame.dirty = false;   // the modifications are being thrown away
+        if (frame.pinCount.getAndSet(EVICTED) == EVICTED) {
+            return;   // an evictor claimed it first and will remove it
+        }
+        releaseSlot(frame);
+        table.remove(pid, frame);
+        frame.markGone();
+    }
+
+    /**
+     * Reads the page into a frame that this thread has just installed in the page table.  Other
+     * threads pinning the page are waiting on the frame's load latch.
+     */
+    private void load(Frame frame, PageMaker pageMaker) {
+        try {
+            frame.slot = claimSlot(frame);
+            frame.page = dm.readPage(frame.pid, pageMaker);
+        } catch (RuntimeException e) {
+            frame.loadError = e;
+            frame.pinCount.set(EVICTED);
+            releaseSlot(frame);
+            table.remove(frame.pid, frame);
+            frame.markGone();
+            throw e;
+        } finally {
+            frame.loaded.countDown();
+        }
+    }
+
+    /**
+     * Finds a slot for the frame, evicting another page if there is no free slot.
+     * @return the slot index, which now holds the frame
+     * @throws BufferManagerException if every page is pinned (or dirty, if dirty pages may not be evicted)
+     */
+    private int claimSlot(Frame frame) {
+        Integer free = freeSlots.poll();
+        if (free != null) {
+            slots.set(free, frame);
+            return free;
+        }
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * numPages; i++) {
+            int slot = Math.floorMod(clockHand.getAndIncrement(), numPages);
+            Frame victim = slots.get(slot);
+            if (victim == null || !victim.isLoaded() || victim.loadError != null) {
+                continue;
+            }
+            if (victim.refBit) {
+                victim.refBit = false;
+                continue;
+            }
+            if (victim.pinCount.get() != 0 || (!allowEvictDirty && victim.dirty)) {
+                continue;
+            }
+            if (!victim.pinCount.compareAndSet(0, EVICTED)) {
+                continue;
+            }
+            // the victim is ours: nobody can pin it, but it stays in the table until it is on disk
+            try {
+                victim.flush();
+            } catch (RuntimeException e) {
+                victim.restore();   // still dirty, so it must stay in the pool
+                throw e;
+            }
+            table.remove(victim.pid, victim);
+            victim.markGone();
+            slots.set(slot, frame);
+            return slot;
+        }
+        free = freeSlots.poll();   // a page may have been discarded during the sweep
+        if (free != null) {
+            slots.set(free, frame);
+            return free;
+        }
+        throw new BufferManagerException("No Page To Evict!");
+    }
+
+    private void releaseSlot(Frame frame) {
+        int slot = frame.slot;
+        if (slot >= 0 && slots.compareAndSet(slot, frame, null)) {
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * A frame holds one page and its state.  The pin count is -1 once the frame has been claimed for
+     * eviction or discarded.
+     */
+    private class Frame {
+        private final PageId pid;
+        private final AtomicInteger pinCount = new AtomicInteger(1);  // the loading thread's pin
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private boolean gone = false;   // true once the frame has left the page table, guarded by this
+        private volatile Page page;
+        private volatile RuntimeException loadError;
+        private volatile boolean dirty = false;
+        private volatile boolean refBit = true;
+        private volatile int slot = -1;
+
+        private Frame(PageId pid) {
+            this.pid = pid;
+        }
+
+        private boolean tryPin() {
+            while (true) {
+                int pins = pinCount.get();
+                if (pins == EVICTED) {
+                    return false;
+                }
+                if (pinCount.compareAndSet(pins, pins + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isLoaded() {
+            return loaded.getCount() == 0 && loadError == null;
+        }
+
+        /**
+         * Writes the page if it is dirty.  The flag is cleared before the write so that a concurrent
+         * unpin that dirties the page again is not lost.
+         */
+        private synchronized void flush() {
+            if (dirty) {
+                dirty = false;
+                try {
+                    dm.writePage(page);
+                } catch (RuntimeException e) {
+                    dirty = true;
+                    throw e;
+                }
+            }
+        }
+
+        private void awaitLoaded() {
+            awaitQuietly(loaded);
+        }
+
+        private synchronized void markGone() {
+            gone = true;
+            notifyAll();
+        }
+
+        /**
+         * Gives back a frame claimed for eviction, whose page could not be written.
+         */
+        private synchronized void restore() {
+            pinCount.set(0);
+            notifyAll();
+        }
+
+        /**
+         * Waits until a frame claimed for eviction or discarded has left the page table, or is restored.
+         */
+        private synchronized void awaitGoneOrRestored() {
+            boolean interrupted = false;
+            while (!gone && pinCount.get() == EVICTED) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void awaitQuietly(CountDownLatch latch) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
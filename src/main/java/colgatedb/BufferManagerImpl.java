@@ -3,10 +3,16 @@ package colgatedb;
 import colgatedb.page.Page;
 import colgatedb.page.PageId;
 import colgatedb.page.PageMaker;
+import colgatedb.page.SimplePageId;
 
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ColgateDB
@@ -29,67 +35,92 @@ BufferManagerImpl implements BufferManager {
     private int capacity;
     private int occupancy = 0;
     /**
-     * The buffer pool contains a HashMap and a LinkedList (queue).
-     * A FrameNode only exists if there is a Page in its Frame.
-     * A FrameNode is in the queue only if the pinCount of its frame is 0.
+     * The buffer pool maps each resident page to its Frame.  Which unpinned page to evict is left to
+     * the ReplacementPolicy, which is told about every load, hit, last unpin and removal.
      */
-    private HashMap<PageId, FrameNode> map;
-    /**
-     * When a Page is Unpinned, if its pinCount = 0, its FrameNode is added to the tail of the queue,
-     * i.e., the "mru" end.
-     * If the page is clean, the clean pointers are also updated.
-     *
-     * Note that it is a single queue for all qualified FrameNodes,
-     * rather than one for dirty nodes and one for clean ones.
-     *
-     * see implementation of inner class FrameNode.
-     */
-    private FrameNode lru = null; //head of the queue, points to least recently used FrameNode
-    private FrameNode mru = null; //tail of the queue, points to most recently used FrameNode
-    private FrameNode cleanLru = null; //"clean head" of the queue
-    private FrameNode cleanMru = null; //"clean tail" of the queue
+    private HashMap<PageId, Frame> map;
+    private final ReplacementPolicy policy;
 
     private boolean allowEvictDirty;
 
     private DiskManager dm;
+
+    // hit-ratio counters, see getHitRatio()
+    private long hits = 0;
+    private long misses = 0;
+
     /**
-     * Construct a new buffer manager.
+     * Read-ahead: after SEQUENTIAL_THRESHOLD consecutive page numbers are pinned on a table (or after a
+     * hintSequential), the next readAheadPages pages are read by a background thread into free frames.
+     * Pages being read are in loadingPages (mapped to true if they were discarded meanwhile) and count
+     * against the pool's capacity.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+    private int readAheadPages = 0;      // 0 means read-ahead is off
+    private ThreadPoolExecutor prefetcher;
+    private final HashMap<PageId, Boolean> loadingPages = new HashMap<>();
+    private final HashMap<Integer, ScanState> scans = new HashMap<>();
+    private long prefetched = 0;
+
+    // pages cleanPage is writing without holding the lock; they are not evicted, discarded or flushed meanwhile
+    private final Set<PageId> writing = new HashSet<>();
+
+    /**
+     * Construct a new buffer manager that uses LRU replacement.
      * @param numPages maximum size of the buffer pool
      * @param dm the disk manager to call to read/write pages
      */
     public BufferManagerImpl(int numPages, DiskManager dm) {
+        this(numPages, dm, new LruReplacementPolicy());
+    }
+
+    /**
+     * Construct a new buffer manager.
+     * @param numPages maximum size of the buffer pool
+     * @param dm the disk manager to call to read/write pages
+     * @param policy decides which page to evict when the pool is full
+     */
+    public BufferManagerImpl(int numPages, DiskManager dm, ReplacementPolicy policy) {
        this.capacity = numPages;
        this.dm = dm;
-       this.map =  map = new HashMap<>(numPages);
+       this.map = new HashMap<>(numPages);
+       this.policy = policy;
     }
 
     /**
-     * O(1), since eviction takes constant time.
      * @param pid pid of desired page
      * @param pageMaker used to create Page object if it must be read from disk
      * @return
      */
     @Override
     public synchronized Page pinPage(PageId pid, PageMaker pageMaker) {
-        FrameNode node = null;
-        if(inBufferPool(pid)){
-            node = map.get(pid);
-            if(isPinCountZero(node)) //can't evict after pinned, remove from queue.
-                removeFromQueue(node); //O(1), see javadoc.
-            incrementPinCount(node);
-        }
-        else{
-            node = new FrameNode(dm.readPage(pid, pageMaker));
-            if(isFull())
-                evictPage(); //O(1), see javadoc.
-            map.put(pid, node);
+        while (true) {
+            Frame frame = map.get(pid);
+            if(frame != null){
+                hits++;
+                policy.pageAccessed(pid);
+                frame.pinCount++;
+                noteAccess(pid, pageMaker);
+                return frame.page;
+            }
+            if(loadingPages.containsKey(pid) || (isFull() && !evictPage())) {
+                // either the page is on its way in, or every frame is pinned, being prefetched or being cleaned
+                if(loadingPages.isEmpty() && writing.isEmpty())
+                    throw new BufferManagerException("No Page To Evict!");
+                waitForPrefetch();
+                continue;
+            }
+            misses++;
+            frame = new Frame(dm.readPage(pid, pageMaker));
+            map.put(pid, frame);
             occupancy++;
+            policy.pageLoaded(pid);
+            noteAccess(pid, pageMaker);
+            return frame.page;
         }
-        return node.frame.page;
     }
 
     /**
-     * O(1).
      * @param pid pid of page to unpin
      * @param isDirty whether or not the user of this page dirtied it
      */
@@ -98,72 +129,56 @@ BufferManagerImpl implements BufferManager {
         if(!inBufferPool(pid))
             throw new BufferManagerException("Page Doesn't Present!");
 
-        FrameNode node = map.get(pid);
+        Frame frame = map.get(pid);
 
-        if(isPinCountZero(node))
+        if(frame.pinCount == 0)
             throw new BufferManagerException("Page is not pinned!");
 
-        decrementPinCount(node);
+        frame.pinCount--;
 
-        if(isDirty && !node.frame.isDirty)
-            node.frame.isDirty = true;
+        if(isDirty && !frame.isDirty)
+            frame.isDirty = true;
 
-        if(isPinCountZero(node)) //candidate for eviction, add to queue.
-            addToQueue(node); //O(1)
+        if(frame.pinCount == 0)
+            policy.pageUnpinned(pid);
     }
 
     /**
      * Evict page when buffer pool is full and a new page needs to be inserted.
-     * If allowEvictDirty, flush (if dirty) and evict the head of queue.
-     * Otherwise, evict the clean head of queue.
-     *
-     * O(1), since getting the head/clean head is O(1),
-     * and removing and flushing are both O(1).
+     * The policy picks among unpinned pages; unless allowEvictDirty, only clean ones qualify.
+     * A dirty victim is flushed before it is removed.
+     * @return false if there is no page that can be evicted
      */
-    private void evictPage() {
-        Page page = null;
-        FrameNode nodeToEvict = null;
-        if(!allowEvictDirty) {
-            if(cleanLru == null)
-                throw new BufferManagerException("No Page To Evict!");
-            nodeToEvict = cleanLru;
-        }
-        else {
-            if (lru == null)
-                throw new BufferManagerException("No Page To Evict!");
-            nodeToEvict = lru;
-            flushPage(nodeToEvict.pid); //takes O(1), see comments in implementation.
-        }
-        discardPage(nodeToEvict.pid); //wraps removeNodeFromQueue() is called, which takes O(1).
+    private boolean evictPage() {
+        PageId victim = policy.chooseVictim(pid -> {
+            Frame frame = map.get(pid);
+            return frame.pinCount == 0 && (allowEvictDirty || !frame.isDirty) && !writing.contains(pid);
+        });
+        if(victim == null)
+            return false;
+        flushPage(victim);
+        discardPage(victim);
+        return true;
     }
 
     @Override
     public synchronized void flushPage(PageId pid) {
+        awaitWrite(pid);
         if(!inBufferPool(pid))
             throw new BufferManagerException("Page Doesn't Present!");
-        FrameNode node = map.get(pid);
-        if(isDirty(pid)) {
-            dm.writePage(node.frame.page);
-            node.frame.isDirty = false;
-            /*
-             If the page flushed has pinCount = 0, move it to the tail of the queue.
-             It will break the rule that the the queue is ordered by reference time,
-             but removing and adding are constant time.
-             Otherwise, it will be linear time to update the clean pointers,
-             since we do not know if this node is before or after the clean head.
-             */
-            if (isPinCountZero(node)) {
-                removeFromQueue(node); //O(1). see javadoc.
-                addToQueue(node); //O(1). see javadoc.
-            }
+        Frame frame = map.get(pid);
+        if(frame.isDirty) {
+            dm.writePage(frame.page);
+            frame.isDirty = false;
         }
     }
 
     @Override
     public synchronized void flushAllPages() {
-        Set<PageId> pids = map.keySet();
-        for (PageId pid: pids){
-            flushPage(pid);
+        for (PageId pid: new ArrayList<>(map.keySet())){
+            awaitWrite(pid);   // may let other threads in, so the page may be gone afterwards
+            if(inBufferPool(pid))
+                flushPage(pid);
         }
     }
 
@@ -181,7 +196,7 @@ BufferManagerImpl implements BufferManager {
     public synchronized boolean isDirty(PageId pid) {
         if(!inBufferPool(pid))
             return false;
-        return map.get(pid).frame.isDirty;
+        return map.get(pid).isDirty;
     }
 
     @Override
@@ -193,110 +208,311 @@ BufferManagerImpl implements BufferManager {
     public synchronized Page getPage(PageId pid) {
         if(!inBufferPool(pid))
             throw new BufferManagerException("Page doesn't Present!");
-        return map.get(pid).frame.page;
+        return map.get(pid).page;
     }
 
     @Override
     public synchronized void discardPage(PageId pid) {
+        awaitWrite(pid);
+        if(loadingPages.containsKey(pid))
+            loadingPages.put(pid, true);  // a prefetch is reading a copy that may now be stale; drop it
         if(!inBufferPool(pid))
             return;
-        FrameNode node = map.get(pid);
-        removeFromQueue(node);
         map.remove(pid);
+        policy.pageRemoved(pid);
         occupancy--;
     }
 
-    private boolean isFull() {
-        return this.occupancy == this.capacity;
+    /**
+     * @return maximum number of pages in the pool
+     */
+    public int getCapacity() {
+        return capacity;
     }
 
     /**
-     * Remove given node from queue.
-     * O(1), since no iteration needed.
-     * @param node node to be removed.
+     * @return true if dirty pages are candidates for eviction
+     * @see #evictDirty(boolean)
      */
-    private void removeFromQueue(FrameNode node) {
-        if(!node.frame.isDirty) {
-            if (node.cleanPrev != null)
-                node.cleanPrev.next = node.cleanNext;
-            if (node.cleanNext != null)
-                node.cleanNext.prev = node.cleanPrev;
-            if(node == cleanLru)
-                cleanLru = node.cleanNext;
-            if(node == cleanMru)
-                cleanMru = node.cleanPrev;
+    public synchronized boolean isEvictDirtyAllowed() {
+        return allowEvictDirty;
+    }
+
+    /**
+     * Looks at the coldest unpinned pages, in the order the policy would evict them, and returns the
+     * dirty ones: the pages an eviction would have to write out.  Used by {@link BackgroundPageWriter}.
+     * @param depth how many of the coldest unpinned pages to look at
+     * @return the dirty pages among them, coldest first
+     */
+    public synchronized List<PageId> getColdDirtyPages(int depth) {
+        List<PageId> dirty = new ArrayList<>();
+        for (PageId pid : policy.coldest(pid -> map.get(pid).pinCount == 0, depth)) {
+            if (map.get(pid).isDirty) {
+                dirty.add(pid);
+            }
         }
-        if(node.prev != null)
-            node.prev.next = node.next;
-        if(node.next != null)
-            node.next.prev = node.prev;
-        if(node == lru)
-            lru = node.next;
-        if(node == mru)
-            mru = node.prev;
+        return dirty;
     }
 
     /**
-     * Add node to queue.
-     * O(1), since no iteration through the queue is needed.
-     * @param node node to be added.
+     * Writes the page to disk if it is still in the pool, unpinned and dirty.  Unlike flushPage, a page
+     * that is pinned (and so may be in the middle of being modified) or gone is silently skipped.
+     * <p>
+     * The page is copied under the lock and written without it, so pins and hits on other pages (and
+     * on this one) do not wait for the write.  Until the write is done the page is not evicted,
+     * discarded or flushed.
+     * @param pid pid of page to clean
+     * @return true if the page was written
      */
-    private void addToQueue(FrameNode node){
-        if(mru == null)
-            mru = node;
-        else {
-            mru.next = node;
-            node.prev = mru;
-            mru = mru.next;
+    public boolean cleanPage(PageId pid) {
+        Page copy;
+        synchronized (this) {
+            Frame frame = map.get(pid);
+            if (frame == null || frame.pinCount != 0 || !frame.isDirty || writing.contains(pid)) {
+                return false;
+            }
+            copy = new PageCopy(frame.page);
+            frame.isDirty = false;   // cleared first, so that a pin that dirties the page meanwhile is not lost
+            writing.add(pid);
         }
-        if(lru == null)
-            lru = node;
-        if(!node.frame.isDirty) {
-            if(cleanMru == null)
-                cleanMru = node;
-            else {
-                cleanMru.next = node;
-                node.prev = cleanMru;
-                cleanMru = cleanMru.next;
+        boolean written = false;
+        try {
+            dm.writePage(copy);
+            written = true;
+        } finally {
+            synchronized (this) {
+                writing.remove(pid);
+                Frame frame = map.get(pid);
+                if (!written && frame != null) {
+                    frame.isDirty = true;
+                }
+                notifyAll();
             }
-            if(cleanLru == null)
-                cleanLru = node;
         }
+        return true;
+    }
+
+    // waits until cleanPage has finished writing pid; the caller holds the lock
+    private void awaitWrite(PageId pid) {
+        boolean interrupted = false;
+        while (writing.contains(pid)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of pins satisfied from the pool since creation or the last resetStats()
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of pins that had to read from disk since creation or the last resetStats()
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return fraction of pins that were hits, or 0 if there have been no pins
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        prefetched = 0;
+    }
+
+    /**
+     * Turns read-ahead on or off.
+     * @param numPages how many pages past the last pinned one to prefetch; 0 turns read-ahead off
+     */
+    public synchronized void setReadAhead(int numPages) {
+        if(numPages < 0)
+            throw new IllegalArgumentException("read-ahead must be non-negative: " + numPages);
+        this.readAheadPages = numPages;
+        if(numPages > 0 && prefetcher == null) {
+            prefetcher = new ThreadPoolExecutor(2, 2, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "buffer-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+            prefetcher.allowCoreThreadTimeOut(true);
+        }
+        scans.clear();
     }
 
-    private boolean isPinCountZero(FrameNode node) {
-        return node.frame.pinCount == 0;
+    public synchronized int getReadAhead() {
+        return readAheadPages;
+    }
+
+    /**
+     * @return number of pages read in by read-ahead since creation or the last resetStats()
+     */
+    public synchronized long getPrefetchCount() {
+        return prefetched;
+    }
+
+    /**
+     * Starts prefetching the pages from start up to endPageNo if read-ahead is on.
+     */
+    @Override
+    public synchronized void hintSequential(PageId start, int endPageNo, PageMaker pageMaker) {
+        if(readAheadPages == 0)
+            return;
+        ScanState scan = new ScanState(start.pageNumber() - 1, pageMaker);
+        scan.runLength = SEQUENTIAL_THRESHOLD;
+        scan.end = endPageNo;
+        scans.put(start.getTableId(), scan);
+        schedulePrefetch(start.getTableId(), scan);
     }
 
-    private void incrementPinCount(FrameNode node) {
-        node.frame.pinCount++;
+    /**
+     * Tracks runs of consecutive page numbers per table and prefetches ahead of sequential runs.
+     */
+    private void noteAccess(PageId pid, PageMaker pageMaker) {
+        if(readAheadPages == 0)
+            return;
+        int pageNo = pid.pageNumber();
+        ScanState scan = scans.get(pid.getTableId());
+        if(scan == null || (pageNo != scan.lastPageNo + 1 && pageNo != scan.lastPageNo)) {
+            scan = new ScanState(pageNo, pageMaker);
+            scans.put(pid.getTableId(), scan);
+        } else if(pageNo == scan.lastPageNo + 1) {
+            scan.lastPageNo = pageNo;
+            scan.runLength++;
+            scan.pageMaker = pageMaker;
+        }
+        if(scan.runLength >= SEQUENTIAL_THRESHOLD)
+            schedulePrefetch(pid.getTableId(), scan);
     }
 
-    private void decrementPinCount(FrameNode node) {
-        node.frame.pinCount--;
+    /**
+     * Queues reads for the pages after scan.lastPageNo that are not in the pool, stopping when there
+     * are no free frames.  Prefetching never evicts.
+     */
+    private void schedulePrefetch(int tableId, ScanState scan) {
+        int from = Math.max(scan.nextToPrefetch, scan.lastPageNo + 1);
+        int to = (int) Math.min((long) scan.lastPageNo + 1 + readAheadPages, scan.end);
+        int pageNo = from;
+        for (; pageNo < to && !isFull(); pageNo++) {
+            PageId pid = new SimplePageId(tableId, pageNo);
+            if(map.containsKey(pid) || loadingPages.containsKey(pid))
+                continue;
+            loadingPages.put(pid, false);
+            PageMaker pageMaker = scan.pageMaker;
+            prefetcher.execute(() -> prefetch(pid, pageMaker));
+        }
+        scan.nextToPrefetch = pageNo;
     }
 
     /**
-     * A FrameNode contains a frame and four pointers. It uses the pid of the page in its frame as a key.
-     * The "next" of a FrameNode is inserted after itself.
-     * The "prev" of a FrameNode is inserted before itself.
-     * If the page in FrameNode is clean, its cleanPrev and cleanNext pointers
-     * will point to the prev and next clean nodes in the queue, if present.
+     * Runs on a prefetch thread: reads the page without holding the buffer manager's lock, then
+     * installs it unpinned unless it was discarded in the meantime.
      */
-    private class FrameNode {
-        private PageId pid;
-        private Frame frame;
-        private FrameNode prev = null;
-        private FrameNode next = null;
-        private FrameNode cleanPrev = null;
-        private FrameNode cleanNext = null;
-
-        private FrameNode(Page page){
-            this.pid = page.getId();
-            this.frame = new Frame(page);
+    private void prefetch(PageId pid, PageMaker pageMaker) {
+        Page page = null;
+        try {
+            page = dm.readPage(pid, pageMaker);
+        } catch (RuntimeException e) {
+            // e.g., read past the end of the file; it is only a guess, so drop it
+        }
+        synchronized (this) {
+            boolean discarded = loadingPages.remove(pid);
+            if(page != null && !discarded && !map.containsKey(pid)) {
+                Frame frame = new Frame(page);
+                frame.pinCount = 0;
+                map.put(pid, frame);
+                occupancy++;
+                policy.pageLoaded(pid);
+                policy.pageUnpinned(pid);
+                prefetched++;
+            }
+            notifyAll();
         }
     }
 
+    private void waitForPrefetch() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BufferManagerException("Interrupted while waiting for a page to be read");
+        }
+    }
+
+    private boolean isFull() {
+        return this.occupancy + loadingPages.size() >= this.capacity;
+    }
+
+    /**
+     * Where a run of sequential pins on one table has got to.
+     */
+    private static class ScanState {
+        private int lastPageNo;
+        private int runLength = 1;
+        private int nextToPrefetch;
+        private int end = Integer.MAX_VALUE;   // exclusive; only known from a hint
+        private PageMaker pageMaker;
+
+        private ScanState(int lastPageNo, PageMaker pageMaker) {
+            this.lastPageNo = lastPageNo;
+            this.nextToPrefetch = lastPageNo + 1;
+            this.pageMaker = pageMaker;
+        }
+    }
+
+    /**
+     * A copy of a page's bytes and LSN, which is all a DiskManager needs to write it.
+     */
+    private static class PageCopy implements Page {
+        private final PageId pid;
+        private final byte[] data;
+        private final long pageLSN;
+
+        private PageCopy(Page page) {
+            pid = page.getId();
+            pageLSN = page.getPageLSN();
+            data = page.getPageData();
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            return data;
+        }
+
+        @Override
+        public long getPageLSN() {
+            return pageLSN;
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
     /**
      * A frame holds one page and maintains state about that page.  You are encouraged to use this
@@ -314,4 +530,4 @@ BufferManagerImpl implements BufferManager {
         }
     }
 
-}
\ No newline at end of file
+}
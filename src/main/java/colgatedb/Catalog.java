@@ -2,6 +2,7 @@ package colgatedb;
 
 import colgatedb.dbfile.DbFile;
 import colgatedb.dbfile.HeapFile;
+import colgatedb.page.PageId;
 import colgatedb.tuple.TupleDesc;
 import colgatedb.tuple.Type;
 
@@ -62,6 +63,10 @@ public class Catalog {
             throw new CatalogException("Invalid file object.");
         }
         int id = table.getId();
+        TableInfo old = id2info.get(id);
+        if (old != null && old.table != table) {
+            old.table.close();
+        }
         TableInfo info = new TableInfo(name);
         info.file = dataFile;
         info.table = table;
@@ -124,9 +129,23 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Called when changes to a page are undone; tells the page's table, if it is in the catalog.
+     * @see DbFile#pageRestored(PageId)
+     */
+    public void pageRestored(PageId pid) {
+        TableInfo info = id2info.get(pid.getTableId());
+        if (info != null) {
+            info.table.pageRestored(pid);
+        }
+    }
+
+    /**
+     * Delete all tables from the catalog, closing their files
      */
     public void clear() {
+        for (TableInfo info : id2info.values()) {
+            info.table.close();
+        }
         id2info.clear();
         name2id.clear();
     }
@@ -222,7 +241,8 @@ public class Catalog {
     public static HeapFile addHeapFile(String name, TupleDesc td, String primaryKey, File dataFile) {
         int tableid = tableIdForFile(dataFile);
         Database.getDiskManager().addFileEntry(tableid, dataFile.getAbsolutePath());
-        HeapFile hf = new HeapFile(td, Database.getPageSize(), tableid, Database.getDiskManager().getNumPages(tableid));
+        HeapFile hf = new HeapFile(td, Database.getPageSize(), tableid, Database.getDiskManager().getNumPages(tableid),
+                dataFile);
         Database.getCatalog().addTable(name, hf, primaryKey, dataFile);
         return hf;
     }
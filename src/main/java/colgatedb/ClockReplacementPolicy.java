@@ -0,0 +1,114 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * CLOCK (second-chance) replacement, as in {@link BufferManagerClockImpl}: pages sit on a circular
+ * list with a reference bit that is set on every access.  The hand sweeps the list, clearing set bits,
+ * and evicts the first evictable page whose bit is already clear.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> ring = new ArrayList<>();   // null entries are free positions
+    private final ArrayList<Boolean> refBits = new ArrayList<>();
+    private final HashMap<PageId, Integer> positions = new HashMap<>();
+    private final ArrayList<Integer> freePositions = new ArrayList<>();
+    private int hand = 0;
+
+    @Override
+    public void pageLoaded(PageId pid) {
+        int pos;
+        if (freePositions.isEmpty()) {
+            pos = ring.size();
+            ring.add(pid);
+            refBits.add(true);
+        } else {
+            pos = freePositions.remove(freePositions.size() - 1);
+            ring.set(pos, pid);
+            refBits.set(pos, true);
+        }
+        positions.put(pid, pos);
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Integer pos = positions.get(pid);
+        if (pos != null) {
+            refBits.set(pos, true);
+        }
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        Integer pos = positions.remove(pid);
+        if (pos != null) {
+            ring.set(pos, null);
+            refBits.set(pos, false);
+            freePositions.add(pos);
+        }
+    }
+
+    @Override
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = ring.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int pos = hand;
+            hand = (hand + 1) % n;
+            PageId pid = ring.get(pos);
+            if (pid == null || !evictable.test(pid)) {
+                continue;
+            }
+            if (refBits.get(pos)) {
+                refBits.set(pos, false);
+            } else {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pages are listed in the order the hand will reach them, those with a clear reference bit first.
+     */
+    @Override
+    public List<PageId> coldest(Predicate<PageId> filter, int max) {
+        List<PageId> unreferenced = new ArrayList<>();
+        List<PageId> referenced = new ArrayList<>();
+        int n = ring.size();
+        for (int i = 0; i < n && unreferenced.size() < max; i++) {
+            int pos = (hand + i) % n;
+            PageId pid = ring.get(pos);
+            if (pid != null && filter.test(pid)) {
+                (refBits.get(pos) ? referenced : unreferenced).add(pid);
+            }
+        }
+        for (PageId pid : referenced) {
+            if (unreferenced.size() >= max) {
+                break;
+            }
+            unreferenced.add(pid);
+        }
+        return unreferenced;
+    }
+}
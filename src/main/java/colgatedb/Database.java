@@ -1,6 +1,7 @@
 package colgatedb;
 
 import colgatedb.logging.LogFile;
+import colgatedb.transactions.DeadlockPolicy;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
@@ -38,10 +39,15 @@ public class Database {
     // default settings
     private static final int DEFAULT_PAGE_SIZE = 4096;
     private static final int DEFAULT_POOL_SIZE = 10;   // number of pages in buffer pool
+    private static final int DEFAULT_READ_AHEAD = 0;   // pages prefetched ahead of sequential scans, 0 = off
+    private static final DeadlockPolicy DEFAULT_DEADLOCK_POLICY = DeadlockPolicy.WAITS_FOR_GRAPH;
 
     // actual settings
     private static int pageSize = DEFAULT_PAGE_SIZE;
     private static int poolSize = DEFAULT_POOL_SIZE;
+    private static int readAheadPages = DEFAULT_READ_AHEAD;
+    private static DeadlockPolicy deadlockPolicy = DEFAULT_DEADLOCK_POLICY;
+    private static boolean multiVersion = false;
 
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
@@ -58,13 +64,15 @@ public class Database {
     private Database() {
         _diskManager = new DiskManagerImpl(pageSize);
         _catalog = new Catalog(pageSize, _diskManager);
-        _bufferManager = new BufferManagerImpl(poolSize, _diskManager);
+        _bufferManager = newBufferManager(poolSize, _diskManager);
 
         AccessManager tmpAM = null;
         try {
             Class<?> logFileClass = Class.forName("colgatedb.AccessManagerImpl");
             Constructor<?> constructor = logFileClass.getDeclaredConstructors()[0];
             tmpAM = (AccessManager) constructor.newInstance(_bufferManager);
+            tmpAM.setDeadlockPolicy(deadlockPolicy);
+            tmpAM.setMultiVersion(multiVersion);
         } catch (ClassNotFoundException | InvocationTargetException |
                 IllegalAccessException | InstantiationException e) {
             System.err.println("Warning: unable to initialize access manager");
@@ -83,6 +91,12 @@ public class Database {
         _logfile = tmpLF;
     }
 
+    private static BufferManager newBufferManager(int numPages, DiskManager dm) {
+        BufferManagerImpl bm = new BufferManagerImpl(numPages, dm);
+        bm.setReadAhead(readAheadPages);
+        return bm;
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -116,13 +130,14 @@ public class Database {
 
     // ----------------- methods below are primarily used for testing ------------------------
     public static AccessManager resetBufferPool(int numPages) {
-        _instance.get()._bufferManager = new BufferManagerImpl(numPages,
-                _instance.get()._diskManager);
+        _instance.get()._bufferManager = newBufferManager(numPages, _instance.get()._diskManager);
         _instance.get()._accessManager = null;
         try {
             Class<?> logFileClass = Class.forName("colgatedb.AccessManagerImpl");
             Constructor<?> constructor = logFileClass.getDeclaredConstructors()[0];
             _instance.get()._accessManager = (AccessManager) constructor.newInstance(_instance.get()._bufferManager);
+            _instance.get()._accessManager.setDeadlockPolicy(deadlockPolicy);
+            _instance.get()._accessManager.setMultiVersion(multiVersion);
         } catch (ClassNotFoundException | InvocationTargetException |
                 IllegalAccessException | InstantiationException e) {
             System.err.println("Warning: unable to initialize log file");
@@ -133,21 +148,66 @@ public class Database {
         return resetBufferPool(poolSize);
     }
 
+    // replaces the instance with a fresh one, closing the old one's table files
+    private static void restart() {
+        Database old = _instance.getAndSet(new Database());
+        old._catalog.clear();
+    }
+
     // reset the database, used for unit tests only.
     public static void reset() {
         pageSize = DEFAULT_PAGE_SIZE;
         poolSize = DEFAULT_POOL_SIZE;
-        _instance.set(new Database());
+        readAheadPages = DEFAULT_READ_AHEAD;
+        deadlockPolicy = DEFAULT_DEADLOCK_POLICY;
+        multiVersion = false;
+        restart();
     }
 
     public static void setPageSize(int pageSize) {
         Database.pageSize = pageSize;
-        _instance.set(new Database());
+        restart();
     }
 
     public static void setBufferPoolSize(int numPages) {
         poolSize = numPages;
-        _instance.set(new Database());
+        restart();
+    }
+
+    /**
+     * Sets how many pages the buffer manager prefetches ahead of sequential scans (0 turns read-ahead off).
+     * Like the other settings, this creates a fresh database instance.
+     */
+    public static void setReadAheadPages(int numPages) {
+        readAheadPages = numPages;
+        restart();
+    }
+
+    /**
+     * Sets how the lock manager handles deadlocks.  Like the other settings, this creates a fresh
+     * database instance.
+     */
+    public static void setDeadlockPolicy(DeadlockPolicy policy) {
+        deadlockPolicy = policy;
+        restart();
+    }
+
+    public static DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * Turns snapshot reads on or off: with them on, scans read a snapshot of the database without
+     * locking.  Like the other settings, this creates a fresh database instance.
+     * @see colgatedb.transactions.VersionStore
+     */
+    public static void setMultiVersion(boolean enabled) {
+        multiVersion = enabled;
+        restart();
+    }
+
+    public static boolean isMultiVersion() {
+        return multiVersion;
     }
 
     // -- new: added on 12/1/16
@@ -51,4 +51,13 @@ public interface DiskManager {
      * @param page to write to disk.
      */
     void writePage(Page page);
+
+    /**
+     * @param pid the page
+     * @return the page LSN saved with the page on disk (see {@link Page#getPageLSN()}), or
+     * {@link Page#NO_LSN} if this disk manager does not save page LSNs or none has been saved
+     */
+    default long getPageLSN(PageId pid) {
+        return Page.NO_LSN;
+    }
 }
\ No newline at end of file
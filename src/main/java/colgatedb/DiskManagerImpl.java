@@ -6,9 +6,19 @@ import colgatedb.page.PageMaker;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * ColgateDB
@@ -38,113 +48,498 @@ import java.util.Map;
  * tableid and OS file.  This is the responsibility of the {@link Catalog}.  Whenever
  * a DiskManagerImpl instance is created, the creator is responsible for calling
  * {@link #addFileEntry(int, String)} to update the DiskManager's local mapping.
+ * <p>
+ * Each registered file is kept open as a single {@link FileChannel} for as long as the
+ * entry exists.  All I/O uses positional reads and writes, so concurrent readers never
+ * share a seek pointer, and the number of pages in each file is cached in memory rather
+ * than obtained by asking the OS for the file length.  Call {@link #close()} to release
+ * the handles.  A FileChannel is closed for every thread when one thread using it is interrupted,
+ * so a channel closed that way is reopened and the operation retried.
+ * <p>
+ * In memory-mapped mode (see {@link #DiskManagerImpl(int, int)}) reads do not copy page data
+ * at all: each file is mapped with {@link FileChannel#map} in fixed-size segments, and
+ * {@link #readPage(PageId, PageMaker)} hands the PageMaker a read-only slice of the mapping via
+ * {@link PageMaker#makePage(PageId, ByteBuffer)}.  Writes still go through the channel; the OS
+ * keeps the mapping coherent with them.  When {@link #allocatePage(PageId)} grows a file past the
+ * end of its last mapped segment, that segment is remapped on the next read.
+ * <p>
+ * The page LSN of each page written (see {@link Page#getPageLSN()}) is kept in a sidecar file next to
+ * the table file, with {@link #LSN_FILE_SUFFIX} appended to its name, and is restored on the page when it is
+ * read back.  The LSN is written after the page, so after a crash it is never newer than the page.
+ * The sidecar is read once, on the first LSN lookup for its table, and is then kept in memory, so
+ * reads of pages do not go to the sidecar; this assumes no other DiskManager writes it meanwhile.
+ * <p>
+ * Operators that spill to disk get temporary files from {@link #createTempFile()}.  Their contents do not
+ * need to survive a crash, so their pages are written without the write-ahead rule, page LSNs or
+ * synchronous I/O.
  */
 public class DiskManagerImpl implements DiskManager {
 
-    private static final String MODE = "rws";
+    public static final int DEFAULT_SEGMENT_PAGES = 256;
+    public static final String LSN_FILE_SUFFIX = ".lsn";
+    private static final int FIRST_TEMP_ID = Integer.MIN_VALUE;   // far from the ids of real tables
+
     private final int pageSize;
-    Map<Integer, String> filenames = new HashMap<Integer, String>(); // local mapping from tableid to OS filename
+    private final int segmentPages;  // pages per mapped segment, 0 if reads are not memory-mapped
+    Map<Integer, String> filenames = new ConcurrentHashMap<>(); // local mapping from tableid to OS filename
+    private final Map<Integer, FileEntry> channels = new ConcurrentHashMap<>();  // open handle for each tableid
+    private final AtomicInteger nextTempId = new AtomicInteger(FIRST_TEMP_ID);
 
     public DiskManagerImpl(int pageSize) {
+        this(pageSize, 0);
+    }
+
+    /**
+     * Creates a DiskManager whose reads are served from memory-mapped segments of the table files.
+     * @param pageSize the size of a page in bytes
+     * @param segmentPages the number of pages in each mapped segment; 0 disables memory-mapping
+     */
+    public DiskManagerImpl(int pageSize, int segmentPages) {
+        if (segmentPages < 0) {
+            throw new DiskManagerException("segmentPages must not be negative: " + segmentPages);
+        }
         this.pageSize = pageSize;
+        this.segmentPages = segmentPages;
+    }
+
+    /**
+     * @return true if this DiskManager reads pages through memory-mapped segments
+     */
+    public boolean isMemoryMapped() {
+        return segmentPages > 0;
     }
 
     /**
      * Add entry in map between tableid and corresponding OS file.  This
      * method should be called when the database is first being brought "online."
+     * If the tableid already has an entry, its old handle is closed and the file is reopened.
      * @param tableid
      * @param filename
      */
     public void addFileEntry(int tableid, String filename) {
         filenames.put(tableid, filename);
-        File file = new File(filename);
-        // check if file already exists
-        if (!file.isFile()) {
-            try {
-                RandomAccessFile dataFile = new RandomAccessFile(file, MODE);
-                dataFile.close();
-            } catch (IOException e) {
-                throw new DiskManagerException(e);
-            }
+        FileEntry old = channels.put(tableid, new FileEntry(new File(filename), false));
+        if (old != null) {
+            old.close();
         }
     }
 
-    public int getNumPages(int tableid) {
-        File file = new File(filenames.get(tableid));
-        long length = file.length();
-        if (length % pageSize != 0) {
-            throw new DiskManagerException("Invalid Length");
+    /**
+     * Creates an empty temporary file, for an operator to spill to.  Its pages are allocated, written
+     * and read like any other, under the returned table id.
+     * @return the table id of the new file
+     */
+    public int createTempFile() {
+        File file;
+        try {
+            file = File.createTempFile("colgatedb", ".tmp");
+        } catch (IOException e) {
+            throw new DiskManagerException(e);
+        }
+        file.deleteOnExit();
+        int tableid = nextTempId.getAndIncrement();
+        filenames.put(tableid, file.getPath());
+        channels.put(tableid, new FileEntry(file, true));
+        return tableid;
+    }
+
+    /**
+     * Closes and deletes a file made by {@link #createTempFile()}.
+     * @param tableid the table id of the file
+     */
+    public void deleteTempFile(int tableid) {
+        FileEntry entry = channels.get(tableid);
+        if (entry == null || !entry.temporary) {
+            throw new DiskManagerException("No temporary file with table id " + tableid);
         }
-        return (int) (length / pageSize);
+        channels.remove(tableid);
+        entry.close();
+        new File(filenames.remove(tableid)).delete();
+    }
+
+    public int getNumPages(int tableid) {
+        return lookupEntry(tableid).getNumPages();
     }
 
     public void allocatePage(PageId pid) {
+        FileEntry entry = lookupEntry(pid.getTableId());
         // check that page being allocated is next page in file
         int pagenoRequested = pid.pageNumber();
-        int numPages = getNumPages(pid.getTableId());
-        if (pagenoRequested < numPages) {
-            throw new DiskManagerException("Attempting to allocate a page that already exists!" +
-            " You requested that page " + pagenoRequested + " be allocated but file has " + numPages + "pages.");
-        } else if (pagenoRequested > numPages) {
-            throw new DiskManagerException("Attempting to allocate pageno = " + pagenoRequested +
-                    " but file currently has only " + numPages + " pages.");
+        synchronized (entry) {
+            int numPages = entry.numPages;
+            if (pagenoRequested > numPages) {
+                // another DiskManager may have grown the file since we last looked
+                numPages = entry.refreshNumPages();
+            }
+            if (pagenoRequested < numPages) {
+                throw new DiskManagerException("Attempting to allocate a page that already exists!" +
+                " You requested that page " + pagenoRequested + " be allocated but file has " + numPages + "pages.");
+            } else if (pagenoRequested > numPages) {
+                throw new DiskManagerException("Attempting to allocate pageno = " + pagenoRequested +
+                        " but file currently has only " + numPages + " pages.");
+            }
+            entry.write(pagenoRequested, ByteBuffer.wrap(new byte[pageSize]));
+            entry.numPages = numPages + 1;
+            // the segment holding the new page, if mapped, is now too short and is remapped lazily
         }
-        byte[] emptyBytes = new byte[pageSize];
-        writePageData(pid, emptyBytes);
     }
 
     public Page readPage(PageId pid, PageMaker pageMaker) {
-        byte[] bytes = readPageData(pid);
-        return pageMaker.makePage(pid, bytes);
+        Page page;
+        if (isMemoryMapped()) {
+            page = pageMaker.makePage(pid, readMappedPageData(pid));
+        } else {
+            byte[] bytes = readPageData(pid);
+            page = pageMaker.makePage(pid, bytes);
+        }
+        long lsn = getPageLSN(pid);
+        if (lsn != Page.NO_LSN) {
+            page.setPageLSN(lsn);
+        }
+        return page;
     }
 
     public void writePage(Page page) {
         PageId pid = page.getId();
-        byte[] pageData = page.getPageData();
+        if (lookupEntry(pid.getTableId()).temporary) {
+            writePageData(pid, page.getPageData());
+            return;
+        }
+        long lsn;
+        byte[] pageData;
+        // writers hold the page's monitor while they change a slot and log it, so under it the LSN is
+        // the one of the last change in the data
+        synchronized (page) {
+            lsn = page.getPageLSN();
+            pageData = page.getPageData();
+        }
+        // write-ahead: the page may hold uncommitted changes (steal), so the records that can undo them
+        // must be durable first; a page without an LSN can only be assumed to need the whole log
+        Database.getLogFile().forceTo(lsn);
         writePageData(pid, pageData);
+        if (lsn != Page.NO_LSN) {
+            lookupEntry(pid.getTableId()).writeLSN(pid.pageNumber(), lsn);
+        }
+        Database.getLogFile().pageWritten(pid, lsn);
+    }
+
+    @Override
+    public long getPageLSN(PageId pid) {
+        return lookupEntry(pid.getTableId()).readLSN(pid.pageNumber());
+    }
+
+    /**
+     * Closes every open file handle.  Entries are forgotten, so {@link #addFileEntry(int, String)}
+     * must be called again before this DiskManager is used.
+     */
+    public void close() {
+        for (FileEntry entry : channels.values()) {
+            entry.close();
+        }
+        channels.clear();
+        filenames.clear();
     }
 
     private void writePageData(PageId pid, byte[] pageData) {
         if (pageData.length != pageSize) {
             throw new DiskManagerException("page size is invalid! Got " + pageData.length + " bytes, expected " + pageSize);
         }
-        File file = lookupFile(pid);
-        try {
-            RandomAccessFile dataFile = new RandomAccessFile(file, MODE);
-            int offset = pid.pageNumber() * pageSize;
-            if (offset > dataFile.length()) {
-                throw new RuntimeException("Writing a page beyond end of file");
-            }
-            dataFile.seek(offset);
-            dataFile.write(pageData);
-            dataFile.close();
-        } catch (IOException e) {
-            throw new DiskManagerException(e);
+        FileEntry entry = lookupEntry(pid.getTableId());
+        if (pid.pageNumber() >= entry.numPages && pid.pageNumber() >= entry.refreshNumPages()) {
+            throw new DiskManagerException("Writing a page beyond end of file");
         }
+        entry.write(pid.pageNumber(), ByteBuffer.wrap(pageData));
     }
 
-    private byte[] readPageData(PageId pid) {
-        File file = lookupFile(pid);
-        try {
-            RandomAccessFile dataFile = new RandomAccessFile(file, MODE);
-            if (dataFile.length() < pageSize * pid.pageNumber() + pageSize) {
-                throw new DiskManagerException("Attempting to read beyond end of file!");
-            }
-            dataFile.seek(pageSize * pid.pageNumber());
-            byte[] data = new byte[pageSize];
-            dataFile.read(data);
-            dataFile.close();
-            return data;
-        } catch (IOException e) {
-            throw new DiskManagerException(e);
+    /**
+     * Reads a page's bytes without making a page of them, for callers that only patch and rewrite
+     * them (recovery applying a logged delta, for instance).
+     * @param pid the page to read
+     * @return a copy of the page's bytes
+     */
+    public byte[] readPageData(PageId pid) {
+        FileEntry entry = lookupEntry(pid.getTableId());
+        if (pid.pageNumber() >= entry.numPages && pid.pageNumber() >= entry.refreshNumPages()) {
+            throw new DiskManagerException("Attempting to read beyond end of file!");
+        }
+        byte[] data = new byte[pageSize];
+        entry.read(pid.pageNumber(), ByteBuffer.wrap(data));
+        return data;
+    }
+
+    private ByteBuffer readMappedPageData(PageId pid) {
+        FileEntry entry = lookupEntry(pid.getTableId());
+        if (pid.pageNumber() >= entry.numPages && pid.pageNumber() >= entry.refreshNumPages()) {
+            throw new DiskManagerException("Attempting to read beyond end of file!");
         }
+        return entry.slice(pid.pageNumber());
     }
 
-    private File lookupFile(PageId pid) {
-        if (!filenames.containsKey(pid.getTableId())) {
+    private FileEntry lookupEntry(int tableid) {
+        FileEntry entry = channels.get(tableid);
+        if (entry == null) {
             throw new DiskManagerException("No record of this table id!");
         }
-        return new File(filenames.get(pid.getTableId()));
+        return entry;
+    }
+
+    /**
+     * An open table file.  The channel is opened with {@link StandardOpenOption#SYNC}, which gives the
+     * same durability guarantees as the "rws" mode that was previously used for each I/O.
+     */
+    private class FileEntry {
+        private final SharedChannel channel;
+        private volatile int numPages;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();  // only used in mapped mode
+        private final File lsnFile;
+        private SharedChannel lsnChannel;    // opened on first use, guarded by lsnFile
+        private volatile AtomicLongArray lsns;   // the sidecar's contents, loaded on first use; grown under lsnFile
+        private final boolean temporary;     // made by createTempFile
+
+        private FileEntry(File file, boolean temporary) {
+            lsnFile = new File(file.getPath() + LSN_FILE_SUFFIX);
+            this.temporary = temporary;
+            try {
+                if (temporary) {
+                    channel = new SharedChannel(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } else {
+                    channel = new SharedChannel(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.SYNC);
+                }
+            } catch (IOException e) {
+                throw new DiskManagerException(e);
+            }
+            refreshNumPages();
+        }
+
+        private int getNumPages() {
+            return numPages;
+        }
+
+        /**
+         * Re-reads the page count from the file length.  Only needed when the file may have been
+         * extended by someone other than this DiskManager.
+         */
+        private synchronized int refreshNumPages() {
+            long length;
+            try {
+                length = channel.apply(FileChannel::size);
+            } catch (IOException e) {
+                throw new DiskManagerException(e);
+            }
+            if (length % pageSize != 0) {
+                throw new DiskManagerException("Invalid Length");
+            }
+            numPages = (int) (length / pageSize);
+            return numPages;
+        }
+
+        /**
+         * Returns a read-only view of the given page, mapping (or remapping) its segment if the
+         * current mapping does not cover the page.  Segments are only mapped up to the end of
+         * the file, so a segment that was mapped before the file grew has to be remapped.
+         */
+        private synchronized ByteBuffer slice(int pageno) {
+            int segno = pageno / segmentPages;
+            int offset = (pageno % segmentPages) * pageSize;
+            while (segments.size() <= segno) {
+                segments.add(null);
+            }
+            MappedByteBuffer segment = segments.get(segno);
+            if (segment == null || segment.capacity() < offset + pageSize) {
+                long start = (long) segno * segmentPages * pageSize;
+                int pagesInSegment = Math.min(segmentPages, numPages - segno * segmentPages);
+                try {
+                    segment = channel.apply(ch ->
+                            ch.map(FileChannel.MapMode.READ_ONLY, start, (long) pagesInSegment * pageSize));
+                } catch (IOException e) {
+                    throw new DiskManagerException(e);
+                }
+                segments.set(segno, segment);
+            }
+            ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.limit(offset + pageSize);
+            return view.slice();
+        }
+
+        private void read(int pageno, ByteBuffer dst) {
+            long position = (long) pageno * pageSize;
+            try {
+                while (dst.hasRemaining()) {
+                    int n = channel.apply(ch -> ch.read(dst, position + dst.position()));
+                    if (n < 0) {
+                        throw new DiskManagerException("Attempting to read beyond end of file!");
+                    }
+                }
+            } catch (IOException e) {
+                throw new DiskManagerException(e);
+            }
+        }
+
+        private void write(int pageno, ByteBuffer src) {
+            long position = (long) pageno * pageSize;
+            try {
+                while (src.hasRemaining()) {
+                    channel.apply(ch -> ch.write(src, position + src.position()));
+                }
+            } catch (IOException e) {
+                throw new DiskManagerException(e);
+            }
+        }
+
+        /**
+         * Returns the LSN channel, opening (but not creating) it if needed.
+         * @return the channel, or null if there is no LSN file and create is false
+         */
+        private SharedChannel lsnChannel(boolean create) throws IOException {
+            if (lsnChannel == null && (create || lsnFile.exists())) {
+                // not SYNC: if a crash loses an LSN write, the stale LSN only makes recovery redo more
+                lsnChannel = new SharedChannel(lsnFile.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return lsnChannel;
+        }
+
+        private long readLSN(int pageno) {
+            AtomicLongArray cached = lsns;
+            if (cached == null) {
+                cached = loadLSNs();
+            }
+            long lsn = pageno < cached.length() ? cached.get(pageno) : 0;   // past the end: never written
+            return lsn == 0 ? Page.NO_LSN : lsn;   // 0 is a hole in the file, never a real LSN
+        }
+
+        // reads the whole sidecar into lsns, unless that has been done already
+        private AtomicLongArray loadLSNs() {
+            synchronized (lsnFile) {
+                if (lsns != null) {
+                    return lsns;
+                }
+                try {
+                    SharedChannel channel = lsnChannel(false);
+                    long size = channel == null ? 0 : channel.apply(FileChannel::size);
+                    ByteBuffer buf = ByteBuffer.allocate((int) (size / Long.BYTES * Long.BYTES));
+                    while (buf.hasRemaining()) {
+                        if (channel.apply(ch -> ch.read(buf, buf.position())) < 0) {
+                            break;
+                        }
+                    }
+                    AtomicLongArray loaded = new AtomicLongArray(buf.position() / Long.BYTES);
+                    for (int i = 0; i < loaded.length(); i++) {
+                        loaded.set(i, buf.getLong(i * Long.BYTES));
+                    }
+                    lsns = loaded;
+                    return loaded;
+                } catch (IOException e) {
+                    throw new DiskManagerException(e);
+                }
+            }
+        }
+
+        private void writeLSN(int pageno, long lsn) {
+            synchronized (lsnFile) {
+                AtomicLongArray cached = loadLSNs();
+                try {
+                    ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+                    buf.putLong(0, lsn);
+                    long position = (long) pageno * Long.BYTES;
+                    SharedChannel channel = lsnChannel(true);
+                    while (buf.hasRemaining()) {
+                        channel.apply(ch -> ch.write(buf, position + buf.position()));
+                    }
+                } catch (IOException e) {
+                    throw new DiskManagerException(e);
+                }
+                if (pageno >= cached.length()) {
+                    AtomicLongArray grown = new AtomicLongArray(Math.max(pageno + 1, 2 * cached.length()));
+                    for (int i = 0; i < cached.length(); i++) {
+                        grown.set(i, cached.get(i));
+                    }
+                    grown.set(pageno, lsn);
+                    lsns = grown;
+                } else {
+                    cached.set(pageno, lsn);
+                }
+            }
+        }
+
+        private void close() {
+            synchronized (this) {
+                segments.clear();  // mappings are released once they become unreachable
+            }
+            try {
+                channel.close();
+                synchronized (lsnFile) {
+                    if (lsnChannel != null) {
+                        lsnChannel.close();
+                        lsnChannel = null;
+                    }
+                }
+            } catch (IOException e) {
+                throw new DiskManagerException(e);
+            }
+        }
+    }
+
+    /**
+     * An operation on a FileChannel.
+     */
+    private interface ChannelOperation<T> {
+        T apply(FileChannel channel) throws IOException;
     }
 
+    /**
+     * A FileChannel shared by all threads, which survives interrupts.  FileChannel is interruptible:
+     * interrupting a thread in the middle of an operation closes the channel, for every thread using it.
+     * When an operation finds the channel closed, and {@link #close()} was not called, the channel is
+     * reopened and the operation retried.  The interrupted thread keeps its interrupt status.
+     */
+    private static class SharedChannel {
+        private final Path path;
+        private final OpenOption[] options;
+        private volatile FileChannel channel;
+        private boolean closed = false;   // guarded by this
+
+        private SharedChannel(Path path, OpenOption... options) throws IOException {
+            this.path = path;
+            this.options = options;
+            channel = FileChannel.open(path, options);
+        }
+
+        private <T> T apply(ChannelOperation<T> op) throws IOException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    FileChannel current = channel;
+                    try {
+                        return op.apply(current);
+                    } catch (ClosedChannelException e) {
+                        // the interrupt status must be cleared to retry, or the retry is interrupted too
+                        interrupted |= Thread.interrupted();
+                        reopen(current);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // replaces the failed channel, unless another thread already has
+        private synchronized void reopen(FileChannel failed) throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (channel == failed) {
+                channel = FileChannel.open(path, options);
+            }
+        }
+
+        private synchronized void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
 }
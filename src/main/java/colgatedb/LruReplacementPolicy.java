@@ -0,0 +1,83 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Least-recently-used replacement: evicts the evictable page that was unpinned longest ago.
+ * <p>
+ * Only unpinned pages are queued, in the order they were unpinned, so the victim is the head of the
+ * queue unless it is dirty and dirty pages may not be evicted.
+ * <p>
+ * A single sequential scan larger than the pool flushes every other page out, so this policy
+ * is not scan-resistant; see {@link TwoQueueReplacementPolicy}.
+ */
+public class LruReplacementPolicy implements ReplacementPolicy {
+
+    // unpinned pages, least to most recently unpinned
+    private final LinkedHashSet<PageId> queue = new LinkedHashSet<>();
+
+    @Override
+    public void pageLoaded(PageId pid) {
+        // pinned; it is queued when it is unpinned
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        queue.remove(pid);   // pinned again, so not a candidate until it is unpinned
+    }
+
+    @Override
+    public void pageUnpinned(PageId pid) {
+        queue.remove(pid);
+        queue.add(pid);
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        queue.remove(pid);
+    }
+
+    @Override
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<PageId> coldest(Predicate<PageId> filter, int max) {
+        List<PageId> pids = new ArrayList<>();
+        for (PageId pid : queue) {
+            if (pids.size() >= max) {
+                break;
+            }
+            if (filter.test(pid)) {
+                pids.add(pid);
+            }
+        }
+        return pids;
+    }
+}
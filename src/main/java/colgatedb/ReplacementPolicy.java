@@ -0,0 +1,79 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * A ReplacementPolicy decides which page a buffer manager evicts.  The buffer manager tells the
+ * policy about every page it loads, every cache hit, every last unpin, and every page that leaves the
+ * pool; the policy keeps whatever bookkeeping it needs and, when asked, names a victim.
+ * <p>
+ * The buffer manager owns pin counts and dirty bits, so it passes a predicate to
+ * {@link #chooseVictim(Predicate)} saying which pages may be evicted right now.
+ * <p>
+ * Implementations need not be thread-safe: the buffer manager calls them while holding its own lock.
+ *
+ * @see BufferManagerImpl
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page is read into the pool (a miss).
+     * @param pid the page that was loaded
+     */
+    void pageLoaded(PageId pid);
+
+    /**
+     * Called when a page already in the pool is pinned again (a hit).
+     * @param pid the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when the last pin on a page is released, or a page is loaded without being pinned.
+     * @param pid the page that is no longer pinned
+     */
+    default void pageUnpinned(PageId pid) {
+    }
+
+    /**
+     * Called when a page leaves the pool, either because it was evicted or discarded.
+     * @param pid the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page that should be evicted next.  The victim stays in the policy until
+     * {@link #pageRemoved(PageId)} is called for it.
+     * @param evictable says whether a given page may be evicted right now (e.g., it is not pinned)
+     * @return the page to evict, or null if no page in the pool satisfies evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Lists pages in roughly the order this policy would evict them, without changing any state.
+     * Used by the background writer to find dirty pages that are about to become victims.
+     * @param filter only pages satisfying filter are listed
+     * @param max the maximum number of pages to list
+     * @return up to max pages, coldest first
+     */
+    List<PageId> coldest(Predicate<PageId> filter, int max);
+
+}
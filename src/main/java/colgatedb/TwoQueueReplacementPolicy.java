@@ -0,0 +1,146 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Scan-resistant 2Q replacement (the "full" version of Johnson and Shasha's 2Q).
+ * <p>
+ * Pages live in one of two queues:
+ * <ul>
+ *     <li>A1in, a FIFO that every newly loaded page enters.  Hits while a page is in A1in are ignored,
+ *     since they are usually correlated references from the same query.</li>
+ *     <li>Am, an LRU queue of pages that have proven hot.</li>
+ * </ul>
+ * A third queue, A1out, remembers only the ids of pages recently evicted from A1in.  A page that is
+ * loaded again while its id is still in A1out was re-referenced after a delay, so it goes straight into
+ * Am.  A sequential scan therefore only cycles through A1in and never pushes hot pages out of Am.
+ * <p>
+ * Victims come from A1in while it holds more than its share of the pool, otherwise from the cold end
+ * of Am.  If the preferred queue has no evictable page the other one is tried.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * Default size of A1in as a fraction of the pool, as recommended in the 2Q paper.
+     */
+    public static final double DEFAULT_IN_FRACTION = 0.25;
+
+    /**
+     * Default number of ids remembered in A1out as a fraction of the pool, as recommended in the 2Q paper.
+     */
+    public static final double DEFAULT_OUT_FRACTION = 0.5;
+
+    private final int maxIn;
+    private final int maxOut;
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();   // FIFO, oldest first
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();  // ghost ids, oldest first
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();     // LRU, least recent first
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this(capacity, DEFAULT_IN_FRACTION, DEFAULT_OUT_FRACTION);
+    }
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     * @param inFraction the share of the pool A1in may hold before it is preferred for eviction
+     * @param outFraction the number of evicted ids to remember, as a fraction of capacity
+     */
+    public TwoQueueReplacementPolicy(int capacity, double inFraction, double outFraction) {
+        this.maxIn = Math.max(1, (int) (capacity * inFraction));
+        this.maxOut = Math.max(1, (int) (capacity * outFraction));
+    }
+
+    @Override
+    public void pageLoaded(PageId pid) {
+        if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+        // a hit in A1in is a correlated reference and does not promote the page
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        LinkedHashSet<PageId> first = a1in.size() > maxIn || am.isEmpty() ? a1in : am;
+        LinkedHashSet<PageId> second = first == a1in ? am : a1in;
+        PageId victim = firstEvictable(first, evictable);
+        return victim != null ? victim : firstEvictable(second, evictable);
+    }
+
+    /**
+     * Pages are listed from the queue chooseVictim would try first, then the other one.
+     */
+    @Override
+    public List<PageId> coldest(Predicate<PageId> filter, int max) {
+        LinkedHashSet<PageId> first = a1in.size() > maxIn || am.isEmpty() ? a1in : am;
+        LinkedHashSet<PageId> second = first == a1in ? am : a1in;
+        List<PageId> pids = new ArrayList<>();
+        for (LinkedHashSet<PageId> queue : Arrays.asList(first, second)) {
+            for (PageId pid : queue) {
+                if (pids.size() >= max) {
+                    return pids;
+                }
+                if (filter.test(pid)) {
+                    pids.add(pid);
+                }
+            }
+        }
+        return pids;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -3,6 +3,7 @@ package colgatedb.dbfile;
 import colgatedb.BufferManager;
 import colgatedb.DbException;
 import colgatedb.DiskManagerException;
+import colgatedb.page.PageId;
 import colgatedb.transactions.TransactionAbortedException;
 import colgatedb.transactions.TransactionId;
 import colgatedb.tuple.Tuple;
@@ -83,4 +84,19 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Called when a transaction's changes to a page of this file are undone (on abort, rollback or
+     * recovery), so that the file can forget anything it learned from them.
+     *
+     * @param pid the page whose changes were undone
+     */
+    default void pageRestored(PageId pid) {
+    }
+
+    /**
+     * Releases any resources, such as open files, held by this DbFile.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,160 @@
+package colgatedb.dbfile;
+
+import colgatedb.DbException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * FreeSpaceMap keeps one bit per page of a HeapFile recording whether the page is known to be full.
+ * HeapFile consults it before inserting so that it can go straight to a page that has room instead
+ * of pinning every page from the start of the file.
+ * <p>
+ * The map is only a hint: the caller must still check the page itself under a lock.  A page wrongly
+ * marked as having room costs one extra pin (after which the caller should mark it full); a page
+ * wrongly marked as full only wastes its free slots, so HeapFile clears a page's bit whenever changes
+ * to the page are undone.  Pages the map has never seen are treated as having room, so a missing or
+ * short map file is always safe.
+ * <p>
+ * When backed by a file, the bitmap is stored one bit per page, LSB-first within each byte (the same
+ * order as the SlottedPage header), and the affected byte is rewritten whenever a bit changes.  The
+ * file is not forced to disk; losing an update just makes the hint less accurate.
+ */
+public class FreeSpaceMap {
+
+    /**
+     * Suffix appended to a data file's name to get the name of its free-space map file.
+     */
+    public static final String FILE_SUFFIX = ".fsm";
+
+    private final BitSet full;
+    private final File file;       // null if the map is not persisted
+    private FileChannel channel;   // opened on the first write
+
+    /**
+     * Creates an in-memory map in which every page is assumed to have room.
+     */
+    public FreeSpaceMap() {
+        this.full = new BitSet();
+        this.file = null;
+    }
+
+    /**
+     * Creates a map backed by the given file, loading any bits already stored there.  The file is
+     * created the first time a page is marked full.
+     * @param file the map file, usually the data file's name plus {@link #FILE_SUFFIX}
+     * @throws DbException if the file exists but cannot be read
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        if (!file.exists()) {
+            this.full = new BitSet();
+            return;
+        }
+        try {
+            this.full = BitSet.valueOf(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            throw new DbException("Unable to read free space map " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param file a heap file's data file
+     * @return the free-space map file that goes with it
+     */
+    public static File fileFor(File file) {
+        return new File(file.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * @param from the first page number to consider
+     * @param numPages the number of pages in the file
+     * @return the first page at or after from that is not known to be full, or -1 if there is none
+     */
+    public synchronized int nextPageWithRoom(int from, int numPages) {
+        int pageno = full.nextClearBit(from);
+        return pageno < numPages ? pageno : -1;
+    }
+
+    /**
+     * @return true if the page is known to be full
+     */
+    public synchronized boolean isFull(int pageno) {
+        return full.get(pageno);
+    }
+
+    /**
+     * Records that the page has no empty slots.
+     */
+    public synchronized void markFull(int pageno) {
+        if (!full.get(pageno)) {
+            full.set(pageno);
+            persist(pageno);
+        }
+    }
+
+    /**
+     * Records that the page has at least one empty slot.
+     */
+    public synchronized void markHasRoom(int pageno) {
+        if (full.get(pageno)) {
+            full.clear(pageno);
+            persist(pageno);
+        }
+    }
+
+    /**
+     * Closes the map file, if any.
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+                channel = null;
+            } catch (IOException e) {
+                throw new DbException("Unable to close free space map: " + e.getMessage());
+            }
+        }
+    }
+
+    private void persist(int pageno) {
+        if (file == null) {
+            return;
+        }
+        int byteNum = pageno / 8;
+        int b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (full.get(byteNum * 8 + i)) {
+                b |= 1 << i;
+            }
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) b}), byteNum);
+        } catch (IOException e) {
+            throw new DbException("Unable to update free space map: " + e.getMessage());
+        }
+    }
+}
@@ -8,11 +8,15 @@ import colgatedb.page.*;
 import colgatedb.transactions.Permissions;
 import colgatedb.transactions.TransactionAbortedException;
 import colgatedb.transactions.TransactionId;
+import colgatedb.transactions.VersionStore;
 import colgatedb.tuple.RecordId;
 import colgatedb.tuple.Tuple;
 import colgatedb.tuple.TupleDesc;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -36,6 +40,15 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with SlottedPage. The format of SlottedPages is described in the javadocs
  * for SlottedPage.
+ * <p>
+ * A writer locks each record it inserts or deletes, and holds the page's monitor only while it changes
+ * the slot and logs the change.  The change is logged and undone slot by slot, so many writers can
+ * share a page, each undoing only its own records.  Readers lock each record they look at, under an
+ * intention lock on the table.  Gaps are not locked, so a scan can see phantoms.
+ * <p>
+ * An optimistic transaction's inserts and deletes are buffered until it commits, so nobody else (not
+ * even its own scans) sees them before.  When applied, each one validates the transaction again under
+ * the page's latch, just before the change.
  *
  * @see SlottedPage
  */
@@ -47,6 +60,7 @@ public class HeapFile implements DbFile {
     private int tableId;
     private int numPages;
     private final AccessManager am;
+    private final FreeSpaceMap freeSpace;
 
     /**
      * Creates a heap file.
@@ -56,12 +70,30 @@ public class HeapFile implements DbFile {
      * @param numPages size of this heapfile (i.e., number of pages already stored on disk)
      */
     public HeapFile(TupleDesc td, int pageSize, int tableid, int numPages) {
+        this(td, pageSize, tableid, numPages, new FreeSpaceMap());
+    }
+
+    /**
+     * Creates a heap file whose free-space map is persisted in a file alongside the data file.
+     * @param td the schema for records stored in this heapfile
+     * @param pageSize the size in bytes of pages stored on disk (needed for PageMaker)
+     * @param tableid the unique id for this table (needed to create appropriate page ids)
+     * @param numPages size of this heapfile (i.e., number of pages already stored on disk)
+     * @param dataFile the file holding this heapfile's pages
+     * @see FreeSpaceMap#fileFor(File)
+     */
+    public HeapFile(TupleDesc td, int pageSize, int tableid, int numPages, File dataFile) {
+        this(td, pageSize, tableid, numPages, new FreeSpaceMap(FreeSpaceMap.fileFor(dataFile)));
+    }
+
+    private HeapFile(TupleDesc td, int pageSize, int tableid, int numPages, FreeSpaceMap freeSpace) {
         this.tableId = tableid;
         this.td = td;
         this.pageSize = pageSize;
         this.numPages = numPages;
         this.pageMaker = new SlottedPageMaker(td, pageSize);
         this.am = Database.getAccessManager();
+        this.freeSpace = freeSpace;
     }
 
     /**
@@ -81,41 +113,106 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Inserts t, or for an optimistic transaction buffers the insert; t's RecordId is then set when the
+     * transaction commits.
+     */
     @Override
     public void insertTuple(TransactionId tid, Tuple t) throws TransactionAbortedException {
-        PageId pid = null;
-        SlottedPage page = null;
-        boolean foundPage = false;
-        if(numPages > 0) {
-            for(int i = 0; i < numPages; i++) { //find a page that has empty slots
-                pid = new SimplePageId(tableId, i);
-                am.acquireLock(tid, pid, Permissions.READ_ONLY);
-                page = (SlottedPage) am.pinPage(tid, pid, pageMaker);
-                if (page.getNumEmptySlots() != 0) {
-                    foundPage = true;
-                    break;
-                }
-                else {
-                    am.unpinPage(tid, page, false);
-                    am.releaseLock(tid, pid);
-                }
+        if (am.isOptimistic(tid)) {
+            am.bufferWrite(tid, () -> insert(tid, t));
+            return;
+        }
+        insert(tid, t);
+    }
+
+    private void insert(TransactionId tid, Tuple t) throws TransactionAbortedException {
+        // the free-space map is only a hint, so each candidate is checked under its latch
+        int pageNo = freeSpace.nextPageWithRoom(0, numPages);
+        while (pageNo >= 0) {
+            if (insertIntoPage(tid, new SimplePageId(tableId, pageNo), t)) {
+                return;
             }
+            pageNo = freeSpace.nextPageWithRoom(pageNo + 1, numPages);
         }
-        if (!foundPage) { //if there's no page or all pages are full, allocate new page
+        while (true) {   // no page has a free slot we can lock, so allocate one (others may fill it first)
+            PageId pid;
             synchronized (this) {
                 pid = new SimplePageId(tableId, numPages++);
                 am.allocatePage(pid);
-                am.acquireLock(tid, pid, Permissions.READ_ONLY);
-                page = (SlottedPage) am.pinPage(tid, pid, pageMaker);
+            }
+            if (insertIntoPage(tid, pid, t)) {
+                return;
             }
         }
-        page.insertTuple(t);
-        am.unpinPage(tid, page, true);
     }
 
+    /**
+     * Inserts t into an empty slot of the page whose record lock tid gets without waiting: a slot that
+     * another writer has locked may be empty only until that writer aborts.
+     * @return false if the page has no such slot
+     */
+    private boolean insertIntoPage(TransactionId tid, PageId pid, Tuple t) throws TransactionAbortedException {
+        SlottedPage page = (SlottedPage) am.pinPage(tid, pid, pageMaker);
+        VersionStore versions = am.getVersionStore();
+        boolean inserted = false;
+        boolean full;
+        int slotno = -1;
+        while (true) {
+            synchronized (page) {
+                slotno = nextEmptySlot(page, slotno + 1);
+            }
+            if (slotno < 0) {
+                break;
+            }
+            RecordId rid = new RecordId(pid, slotno);
+            boolean alreadyLocked = am.holdsLock(tid, rid, Permissions.READ_ONLY);
+            if (!am.tryAcquireLock(tid, rid, Permissions.READ_WRITE)) {
+                continue;
+            }
+            synchronized (page) {
+                if (page.isSlotEmpty(slotno)) {   // a delete may have been undone since we looked
+                    checkValid(tid);
+                    if (versions != null) {
+                        versions.insertTuple(tid, page, slotno, t);
+                    } else {
+                        page.insertTuple(slotno, t);
+                    }
+                    am.logSlotChange(tid, page, slotno, null);
+                    inserted = true;
+                }
+            }
+            if (inserted) {
+                break;
+            }
+            if (!alreadyLocked) {
+                am.releaseLock(tid, rid);
+            }
+        }
+        synchronized (page) {
+            full = page.getNumEmptySlots() == 0;
+        }
+        if (full) {
+            freeSpace.markFull(pid.pageNumber());
+        }
+        am.unpinPage(tid, page, inserted);
+        return inserted;
+    }
 
+    // the first empty slot of the page at or after slot from, or -1 if there is none
+    private static int nextEmptySlot(SlottedPage page, int from) {
+        for (int slotno = from; slotno < page.getNumSlots(); slotno++) {
+            if (page.isSlotEmpty(slotno)) {
+                return slotno;
+            }
+        }
+        return -1;
+    }
 
-
+    /**
+     * Deletes t, or for an optimistic transaction buffers the delete; t's RecordId is then cleared when
+     * the transaction commits.
+     */
     @Override
     public void deleteTuple(TransactionId tid, Tuple t) throws TransactionAbortedException {
         PageId tuplePid = t.getRecordId().getPageId();
@@ -124,13 +221,59 @@ public class HeapFile implements DbFile {
                 || tuplePid.pageNumber() < 0) {
             throw new DbException("Tuple " + t + "is not in files");
         }
-        am.acquireLock(tid, tuplePid, Permissions.READ_WRITE);
+        if (am.isOptimistic(tid)) {
+            checkValid(tid);   // no use buffering the delete of a tuple that has already changed
+            am.bufferWrite(tid, () -> delete(tid, t));
+            return;
+        }
+        delete(tid, t);
+    }
+
+    private void delete(TransactionId tid, Tuple t) throws TransactionAbortedException {
+        PageId tuplePid = t.getRecordId().getPageId();
+        am.acquireLock(tid, t.getRecordId(), Permissions.READ_WRITE);
         SlottedPage page = (SlottedPage)am.pinPage(tid, tuplePid, pageMaker);
-        page.deleteTuple(t);
+        int slotno = t.getRecordId().tupleno();
+        VersionStore versions = am.getVersionStore();
+        synchronized (page) {
+            checkValid(tid);   // t may have been changed since it was read
+            byte[] before = page.getSlotData(slotno);
+            if (versions != null) {
+                versions.deleteTuple(tid, page, t);
+            } else {
+                page.deleteTuple(t);
+            }
+            am.logSlotChange(tid, page, slotno, before);
+        }
+        freeSpace.markHasRoom(tuplePid.pageNumber());
         am.unpinPage(tid, page, true);
         t.setRecordId(null);
     }
 
+    /**
+     * Validates optimistic tid; a writer calls it under the latch of the page it is about to change, so
+     * that the page cannot change between the check and the write.
+     * @throws TransactionAbortedException if tid is optimistic and no longer valid
+     */
+    private void checkValid(TransactionId tid) throws TransactionAbortedException {
+        if (am.isOptimistic(tid) && !am.validate(tid)) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * The undone change may have been the insert that filled the page, so the page may have room again.
+     */
+    @Override
+    public void pageRestored(PageId pid) {
+        freeSpace.markHasRoom(pid.pageNumber());
+    }
+
+    @Override
+    public void close() {
+        freeSpace.close();
+    }
+
     @Override
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid);
@@ -144,6 +287,8 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple> pageIterator;
         private boolean isOpen;
         private TransactionId tid;
+        private VersionStore versions;   // set if this scan reads a snapshot instead of locking pages
+        private boolean optimistic;      // set if this scan's pages are validated at commit instead of locked
 
         public HeapFileIterator(TransactionId tid) {
             this.tid = tid;
@@ -152,39 +297,70 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws TransactionAbortedException {
+            pageIterator = null;
+            versions = am.getVersionStore();
+            if (versions != null) {
+                versions.takeSnapshot(tid);
+            }
+            optimistic = am.isOptimistic(tid);
             if (currPageNo < numPages) {
                 SimplePageId pid = new SimplePageId(tableId, currPageNo);
-                am.acquireLock(tid, pid, Permissions.READ_ONLY);
-                Page page = am.pinPage(tid, pid, pageMaker);
-                pageIterator = ((SlottedPage) page).iterator();
-                am.unpinPage(tid, page,false);
+                am.hintSequential(pid, numPages, pageMaker);  // we will visit every page in order
+                pageIterator = readPage(pid);
             }
             isOpen = true;
         }
 
         /**
-         * @return the page number of the next page that has empty slots. if all slots are full, return numPages.
+         * @return an iterator over the tuples on the page: the ones in tid's snapshot if there is one,
+         *         otherwise the ones on the page, after locking them (or, for an optimistic transaction,
+         *         noting the page's version)
          */
+        private Iterator<Tuple> readPage(PageId pid) throws TransactionAbortedException {
+            if (versions == null && optimistic) {
+                am.acquireLock(tid, pid, Permissions.READ_ONLY);
+            }
+            SlottedPage page = (SlottedPage) am.pinPage(tid, pid, pageMaker);
+            Iterator<Tuple> it;
+            if (versions != null) {
+                it = versions.readPage(tid, page).iterator();
+            } else if (optimistic) {
+                // nothing keeps writers out, so copy the tuples while holding the page's latch
+                List<Tuple> tuples = new ArrayList<>();
+                synchronized (page) {
+                    page.iterator().forEachRemaining(t -> tuples.add(t.copy()));
+                }
+                it = tuples.iterator();
+            } else {
+                it = lockTuples(pid, page).iterator();
+            }
+            am.unpinPage(tid, page, false);
+            return it;
+        }
 
-        private int nextNonFullPageNo() throws TransactionAbortedException {
-            int pageNo = currPageNo+1;
-            SimplePageId nextPageId;
-            SlottedPage page;
-            boolean foundPage = false;
-            while (pageNo < numPages) {
-                nextPageId = new SimplePageId(tableId, pageNo);
-                am.acquireLock(tid, nextPageId, Permissions.READ_ONLY);
-                page = (SlottedPage) am.pinPage(tid, nextPageId, pageMaker);
-                if (page.iterator().hasNext()) {
-                    foundPage = true;
+        /**
+         * Locks each record of the page and collects the tuples.  An empty slot is locked too, to wait
+         * for an uncommitted delete to end, but its lock is not kept.
+         */
+        private List<Tuple> lockTuples(PageId pid, SlottedPage page) throws TransactionAbortedException {
+            List<Tuple> tuples = new ArrayList<>();
+            for (int slotno = 0; slotno < page.getNumSlots(); slotno++) {
+                RecordId rid = new RecordId(pid, slotno);
+                boolean alreadyLocked = am.holdsLock(tid, rid, Permissions.READ_ONLY);
+                am.acquireLock(tid, rid, Permissions.READ_ONLY);
+                Tuple t = null;
+                synchronized (page) {
+                    if (page.isSlotUsed(slotno)) {
+                        t = page.getTuple(slotno);
+                    }
                 }
-                am.unpinPage(tid, page, false);
-                if (foundPage) {
-                    break;
+                if (t != null) {
+                    tuples.add(t);
+                } else if (!alreadyLocked) {
+                    am.releaseLock(tid, rid);
                 }
-                pageNo++;
             }
-            return pageNo;
+            return tuples;
         }
 
         @Override
@@ -195,22 +371,15 @@ public class HeapFile implements DbFile {
             if (pageIterator == null) {
                 return false;
             }
-            if (pageIterator.hasNext()) { //if current page has next tuple, return true
-                return true;
-            }
-            //else check if following pages have available tuples
-            currPageNo = nextNonFullPageNo();
-            if(currPageNo >= 0 && currPageNo < numPages) {
-                PageId pid = new SimplePageId(tableId, currPageNo);
-                am.acquireLock(tid, pid, Permissions.READ_ONLY);
-                Page page = am.pinPage(tid, pid, pageMaker);
-                pageIterator = ((SlottedPage)page).iterator();
-                am.unpinPage(tid, page, false);
-                return true;
-            }
-            else {
-                return false;
+            //else move on to the next page that has tuples
+            while (!pageIterator.hasNext()) {
+                if (currPageNo + 1 >= numPages) {
+                    return false;
+                }
+                currPageNo++;
+                pageIterator = readPage(new SimplePageId(tableId, currPageNo));
             }
+            return true;
         }
 
         @Override
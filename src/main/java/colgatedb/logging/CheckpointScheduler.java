@@ -0,0 +1,161 @@
+package colgatedb.logging;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * CheckpointScheduler is a daemon thread that takes a checkpoint whenever maxLogBytes of log have been
+ * written since the last one, which bounds how much log recovery has to read.
+ * <p>
+ * Checkpoints are driven by log volume rather than by time, so an idle system does not checkpoint and a
+ * busy one checkpoints as often as it needs to.  The scheduler is meant to be used with fuzzy checkpoints
+ * ({@link LogFileImpl#setFuzzyCheckpoints(boolean)}); with sharp checkpoints every scheduled checkpoint
+ * still stops all other work while the buffer pool is flushed.
+ * <p>
+ * A checkpoint that fails does not stop the scheduler: the failure is counted and kept for
+ * {@link #getLastFailure()}, and the scheduler tries again on its next look at the log.
+ */
+public class CheckpointScheduler implements Runnable {
+
+    public static final long DEFAULT_MAX_LOG_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final LogFileImpl logFile;
+    private final long intervalMillis;
+    private volatile long maxLogBytes;
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+    private Thread thread;
+    private volatile boolean running = false;
+    private final Object sleep = new Object();   // run() waits on it between looks; shutdown() wakes it
+
+    /**
+     * Creates a scheduler with the default log size and polling interval.  Call {@link #start()} to start it.
+     * @param logFile the log to checkpoint
+     */
+    public CheckpointScheduler(LogFileImpl logFile) {
+        this(logFile, DEFAULT_MAX_LOG_BYTES, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param logFile the log to checkpoint
+     * @param maxLogBytes how much log may be written between checkpoints
+     * @param intervalMillis how long the scheduler sleeps between looks at the log size
+     */
+    public CheckpointScheduler(LogFileImpl logFile, long maxLogBytes, long intervalMillis) {
+        this.logFile = logFile;
+        this.intervalMillis = intervalMillis;
+        setMaxLogBytes(maxLogBytes);
+    }
+
+    public void setMaxLogBytes(long maxLogBytes) {
+        if (maxLogBytes <= 0) {
+            throw new IllegalArgumentException("log size between checkpoints must be positive: " + maxLogBytes);
+        }
+        this.maxLogBytes = maxLogBytes;
+    }
+
+    /**
+     * @return number of checkpoints this scheduler has taken
+     */
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    /**
+     * @return number of checkpoints that failed with an exception
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the exception thrown by the last checkpoint that failed, or null if none has
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "checkpoint-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the scheduler and waits for a checkpoint in progress to finish.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        synchronized (sleep) {
+            running = false;
+            sleep.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                checkOnce();
+            } catch (RuntimeException e) {
+                lastFailure = e;
+                failures.incrementAndGet();
+            }
+            synchronized (sleep) {
+                if (running) {
+                    try {
+                        sleep.wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        // nobody interrupts this thread; the loop condition decides whether to stop
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a checkpoint if enough log has been written since the last one.
+     * @return true if a checkpoint was taken
+     */
+    public boolean checkOnce() {
+        if (logFile.getBytesSinceCheckpoint() < maxLogBytes) {
+            return false;
+        }
+        try {
+            logFile.logCheckpoint();
+        } catch (IOException e) {
+            throw new LogManagerException(e);
+        }
+        checkpoints.incrementAndGet();
+        return true;
+    }
+}
@@ -1,6 +1,8 @@
 package colgatedb.logging;
 
 import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.SlottedPage;
 import colgatedb.transactions.TransactionId;
 
 import java.io.IOException;
@@ -41,6 +43,23 @@ public interface LogFile {
     void logCLR(Long tid, Page after)
                             throws IOException;
 
+    /**
+     * Logs a change tid made to one slot of a page, which undo can reverse without touching the rest of
+     * the page, and stamps the page with the record's LSN.  The caller holds the page's monitor from
+     * before the change until this returns, so that the changes to a page are logged in the order they
+     * were made.
+     *
+     * @param before the slot's content before the change (see {@link SlottedPage#getSlotData(int)})
+     */
+    void logSlotWrite(TransactionId tid, SlottedPage page, int slotno, byte[] before)
+            throws LogManagerException;
+
+    /**
+     * Logs the undo of a change to one slot of a page.  The caller holds the page's monitor.
+     */
+    void logSlotCLR(Long tid, SlottedPage page, int slotno)
+            throws IOException;
+
     void logCheckpoint() throws IOException;
 
     void logTruncate() throws IOException;
@@ -50,4 +69,33 @@ public interface LogFile {
     void recover() throws IOException;
 
     void force() throws LogManagerException;
+
+    /**
+     * Writes any log records held in memory to the log file, without forcing them to disk.
+     */
+    default void flushBuffer() throws LogManagerException {
+    }
+
+    /**
+     * Makes sure that the log is on disk at least up to the record at the given LSN.  The disk manager
+     * calls this before it writes a page, so that with the steal policy an uncommitted change never
+     * reaches the data file before the log record that can undo it is durable.  The default forces the
+     * whole log.
+     *
+     * @param lsn the LSN of the last record that must be on disk, or {@link Page#NO_LSN} if every record
+     *            logged so far must be
+     */
+    default void forceTo(long lsn) throws LogManagerException {
+        force();
+    }
+
+    /**
+     * Called by the disk manager after it writes a page, so that the log can drop the page from its
+     * dirty page table if the write covered every logged change to the page.
+     *
+     * @param pid the page that was written
+     * @param pageLSN the LSN of the version that was written, or {@link Page#NO_LSN}
+     */
+    default void pageWritten(PageId pid, long pageLSN) {
+    }
 }
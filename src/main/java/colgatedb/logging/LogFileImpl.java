@@ -4,15 +4,27 @@ package colgatedb.logging;
 import colgatedb.Database;
 import colgatedb.page.Page;
 import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+import colgatedb.page.SlottedPage;
 import colgatedb.transactions.TransactionId;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ColgateDB
@@ -56,42 +68,123 @@ import java.util.Set;
  */
 
 /**
- * <p> The format of the log file is as follows:
+ * <p> The format of the log is as follows:
  * <p/>
  * <ul>
  * <p/>
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> The log is a sequence of fixed-size segment files described by a
+ * manifest, which is the file the log is opened with.  The manifest holds
+ * the segment size, the LSN of the last written checkpoint (or -1 if there
+ * are no checkpoints) and the LSN at which the log starts.  See
+ * {@link LogSegments}.
  * <p/>
- * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * <li> All data in the segments consists of log records.  Log
+ * records are variable length, and may continue from one segment into the next.
  * <p/>
- * <li> Each log record begins with an integer type and a long integer
- * transaction id.
+ * <li> Each log record begins with an integer type, a long integer
+ * transaction id and the LSN of the transaction's previous record, or -1
+ * if this is its first record (see Undo chains, below).
  * <p/>
- * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * <li> Each log record ends with a long integer LSN representing
+ * the position in the log where the record began.
  * <p/>
- * <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
- * CHECKPOINT, and CLR
+ * <li> There are nine record types: ABORT, COMMIT, UPDATE, DELTA, SLOT, BEGIN,
+ * CHECKPOINT, CLR and SLOT CLR
  * <p/>
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  * <p/>
  * <li>UPDATE RECORDS consist of two entries, a before image and an
  * after image.  These images are serialized Page objects, and can be
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See {@link LogFileRecovery#print()} for an example.
+ * methods.  See {@link LogFileRecovery#print()} for an example.  Page and
+ * PageId classes listed in the {@link PageTypeRegistry} are written as a
+ * one-byte type id; other classes are written by name.
+ * <p/>
+ * <li>DELTA RECORDS describe the same change as an UPDATE record but only
+ * hold the bytes that changed: a page header (the page's type and id), the
+ * number of changed ranges, and for each range its offset, its length, the
+ * before bytes and the after bytes.  For a slotted page an insert, delete or
+ * update of a tuple touches a header byte and the tuple's slot, so the record
+ * is a small fraction of the page.  {@link #logWrite} writes a DELTA record
+ * whenever it is smaller than the two full images, and an UPDATE record
+ * otherwise.
+ * <p/>
+ * <li>SLOT RECORDS describe a change to a single slot of a slotted page, the
+ * insert or delete of one tuple: a page header, the slot number, and the
+ * slot's content before and after the change (see writeSlotData).  Unlike
+ * UPDATE and DELTA records, which restore bytes of the page, undoing a SLOT
+ * record only puts back that slot, so several transactions can change one
+ * page as long as each locks the records it changes.  See {@link #logSlotWrite}.
  * <p/>
  * <li>CLR RECORDS consist of one entry, an after image.  CLR stands for
  * compensating log record and it is written during undo phase of rollback
- * and recovery.
+ * and recovery.  SLOT CLR RECORDS are the CLRs of SLOT records: a page
+ * header, the slot number and the slot's content after the undo.
  * <p/>
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
+ * the checkpoint was taken and their last log record.  The format
  * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id for each active transaction.
+ * as a long integer transaction id and the LSN of its last record for each
+ * active transaction.  This is
+ * followed by the dirty page table: an integer count of pages, and for each
+ * page its id (see writePageId) and its recLSN.
  * <p/>
  * </ul>
+ * <p>
+ * <u> LSNs: </u>
+ * <p>
+ * The log sequence number (LSN) of a record is its position in the log.  When
+ * an old log is thrown away the new one starts past its end, so LSNs keep
+ * increasing and page LSNs already on disk stay older than any new record.
+ * <p>
+ * Logging a change to a page sets the page's LSN (see {@link Page#setPageLSN})
+ * and enters the page in the dirty page table, which maps each page whose
+ * logged changes may not be on disk yet to its recLSN, the LSN of the first
+ * such change.  The disk manager reports page writes back through
+ * {@link #pageWritten}, which removes the page from the table.  Recovery uses
+ * the dirty page table saved by the last checkpoint to start redo at the
+ * smallest recLSN rather than at the beginning of the log, and skips redoing a
+ * record when the page on disk already has an LSN at least as large.
+ * <p>
+ * Records are assembled in memory and appended to a log buffer, which is
+ * written to the file in one large write when it fills up or when the log
+ * is forced.
+ * <p>
+ * <u> Group commit: </u>
+ * <p>
+ * By default every call to {@link #force()} does its own fsync.  With group commit on
+ * ({@link #setGroupCommit(boolean)}), a thread that needs the log forced first checks whether an fsync
+ * has already covered its records.  If not, one thread becomes the leader: it waits up to the
+ * group commit delay so that other committers can append their records, does a single fsync for
+ * the whole batch, and then releases every thread whose records that fsync covered.
+ * <p>
+ * <u> Checkpoints: </u>
+ * <p>
+ * A sharp checkpoint flushes the whole buffer pool while holding the access
+ * manager, so every transaction waits for it.  With fuzzy checkpoints on
+ * ({@link #setFuzzyCheckpoints(boolean)}) a checkpoint only writes the active
+ * transactions and the dirty page table and forces the log; pages keep being
+ * written by the usual eviction (or a {@link colgatedb.BackgroundPageWriter}),
+ * and recovery redoes from the oldest recLSN in the table.  A
+ * {@link CheckpointScheduler} takes checkpoints as the log grows.
+ * <p>
+ * <u> Undo chains: </u>
+ * <p>
+ * The previous-LSN field links each transaction's records into a chain that
+ * runs backwards from its last record to its BEGIN record.  The log keeps the
+ * LSN of the last record of each transaction in memory, so rollback follows
+ * the chain and reads only the aborting transaction's records, however long
+ * the log is.  Recovery does the same for the losers, starting from the last
+ * records listed by the checkpoint and updated by its redo pass.
+ * <p>
+ * <u> Truncation: </u>
+ * <p>
+ * After each checkpoint, {@link #logTruncate()} drops the log before the
+ * oldest record that is still needed: the start of redo for the checkpoint
+ * (the checkpoint itself or the oldest recLSN in its dirty page table) or
+ * the first record of an active transaction, whichever is older.  Dropping
+ * log deletes whole segments, so disk usage stays bounded by the log written
+ * since the oldest of those, rounded up to segments.
  *
  * @author mhay, adapted from Madden
  */
@@ -99,7 +192,7 @@ import java.util.Set;
 public class LogFileImpl implements LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments;
     private LogFileRecovery logFileRecovery;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
@@ -108,7 +201,39 @@ public class LogFileImpl implements LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 1000;
+    static final int LOG_BUFFER_SIZE = 64 * 1024;
+    static final int DELTA_MERGE_GAP = 2 * INT_SIZE;
+
     private Set<Long> activeTids = new HashSet<Long>();
+    private final Map<Long, Long> firstLSNs = new HashMap<>();   // first record of each live transaction
+    private final Map<Long, Long> lastLSNs = new HashMap<>();    // last record of each live transaction
+
+    private volatile long segmentSize = LogSegments.DEFAULT_SEGMENT_SIZE;   // for the next new log
+    private volatile boolean fuzzyCheckpoints = false;
+    private volatile long lastCheckpointOffset;
+    private long checkpointRedoLSN = NO_CHECKPOINT_ID;   // log before this is not needed by the last checkpoint
+    private final AtomicLong checkpointCount = new AtomicLong();
+    private final Map<PageId, DirtyPage> dirtyPages = new ConcurrentHashMap<>();
+
+    // records not yet written to the segments; the end of the segments is always just before them.  The
+    // buffer and appends to the segments are guarded by bufferLock rather than by this, so that a page
+    // write can flush the buffer (see flushBuffer) without waiting for the log's monitor.
+    private final Object bufferLock = new Object();
+    private final byte[] logBuffer = new byte[LOG_BUFFER_SIZE];
+    private int bufferedBytes = 0;
+    private final RecordBuffer record = new RecordBuffer();   // the record being assembled
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    // group commit state; offsets are positions in the log, i.e. LSNs
+    private volatile boolean groupCommit = false;
+    private volatile long groupCommitDelayMicros = DEFAULT_GROUP_COMMIT_DELAY_MICROS;
+    private volatile long writtenOffset = 0;      // end of the data handed to the file system
+    private final Object groupLock = new Object();
+    private long durableOffset = 0;               // everything before this is on disk (guarded by groupLock)
+    private boolean fsyncInProgress = false;      // a leader is batching or forcing (guarded by groupLock)
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
 
     /**
      * Constructor.
@@ -120,13 +245,16 @@ public class LogFileImpl implements LogFile {
      * do it, while if someone starts adding log file entries, then first
      * throw out the initial log file contents.
      *
-     * @param f The log file's name
+     * @param f The log's manifest; the segments are kept next to it
      */
     public LogFileImpl(File f) throws IOException {
         this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f);
         recoveryUndecided = true;
-        logFileRecovery = new LogFileRecovery(new RandomAccessFile(logFile, "r"));
+        logFileRecovery = new LogFileRecovery(segments);
+        lastCheckpointOffset = segments.getStartLSN();
+        writtenOffset = segments.getEndLSN();
+        durableOffset = writtenOffset;
 
 
         // install shutdown hook to force cleanup on close
@@ -143,19 +271,19 @@ public class LogFileImpl implements LogFile {
     void preAppend() throws LogManagerException {
         try {
             // we're about to append a log record. if we weren't sure whether the
-            // DB wants to do recovery, we're sure now -- it didn't. So truncate
-            // the log.
-            if (recoveryUndecided) {
-                recoveryUndecided = false;
-                raf.seek(0);
-                raf.setLength(0);
-                raf.writeLong(NO_CHECKPOINT_ID);
-                raf.seek(raf.length());
-            }
-            // we're about to append a log record... make sure we're at the end of the log!
-            if (raf.getFilePointer() != raf.length()) {
-                throw new RuntimeException("About to append to log file but not" +
-                        " located at end of log!  Risk overwriting log data!");
+            // DB wants to do recovery, we're sure now -- it didn't. So throw away
+            // the old log; the new one starts past its end, so every LSN of the old log is smaller.
+            synchronized (bufferLock) {
+                if (recoveryUndecided) {
+                    recoveryUndecided = false;
+                    segments.reset(segmentSize);
+                    writtenOffset = segments.getEndLSN();
+                    synchronized (groupLock) {
+                        durableOffset = writtenOffset;   // nothing to force yet
+                    }
+                    lastCheckpointOffset = segments.getStartLSN();
+                    checkpointRedoLSN = NO_CHECKPOINT_ID;
+                }
             }
         } catch (IOException e) {
             throw new LogManagerException(e);
@@ -168,6 +296,61 @@ public class LogFileImpl implements LogFile {
         // need to revise this eventually
     }
 
+    /**
+     * Starts a new log record: the caller writes the record's fields to recordOut and then calls
+     * {@link #endRecord()}, so that the whole record reaches the log buffer in one piece.
+     *
+     * @return the LSN at which the record starts
+     */
+    private long beginRecord() throws LogManagerException {
+        preAppend();
+        record.reset();
+        return endOffset();
+    }
+
+    private void endRecord() throws IOException {
+        int size = record.size();
+        synchronized (bufferLock) {
+            if (size > logBuffer.length - bufferedBytes) {
+                flushBuffer();
+            }
+            if (size > logBuffer.length) {
+                segments.append(record.bytes(), 0, size);   // too big to buffer (e.g. a huge page), write it directly
+                writtenOffset = segments.getEndLSN();
+            } else {
+                System.arraycopy(record.bytes(), 0, logBuffer, bufferedBytes, size);
+                bufferedBytes += size;
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered records to the file system in a single write.  They are not durable until the
+     * log is forced.
+     */
+    @Override
+    public void flushBuffer() throws LogManagerException {
+        synchronized (bufferLock) {
+            if (bufferedBytes == 0) {
+                return;
+            }
+            try {
+                segments.append(logBuffer, 0, bufferedBytes);
+                bufferedBytes = 0;
+                writtenOffset = segments.getEndLSN();
+            } catch (IOException e) {
+                throw new LogManagerException(e);
+            }
+        }
+    }
+
+    // LSN of the end of the log, including records that are still buffered
+    private long endOffset() {
+        synchronized (bufferLock) {
+            return segments.getEndLSN() + bufferedBytes;
+        }
+    }
+
     /**
      * Write a BEGIN record for the specified transaction
      *
@@ -177,12 +360,12 @@ public class LogFileImpl implements LogFile {
     public synchronized void logXactionBegin(TransactionId tid)
             throws IOException {
         checkActive(tid, false);
-        preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
+        long recordStart = beginRecord();
+        writeRecordHeader(LogType.BEGIN_RECORD, tid.getId(), recordStart);
+        recordOut.writeLong(recordStart);
+        endRecord();
         activeTids.add(tid.getId());
+        firstLSNs.put(tid.getId(), recordStart);
     }
 
     /**
@@ -192,17 +375,24 @@ public class LogFileImpl implements LogFile {
      * @param tid The committing transaction.
      */
     @Override
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        //should we verify that this is a live transaction?
-        checkActive(tid, true);
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
+        synchronized (this) {
+            //should we verify that this is a live transaction?
+            checkActive(tid, true);
 
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
+            long recordStart = beginRecord();
+            writeRecordHeader(LogType.COMMIT_RECORD, tid.getId(), recordStart);
+            recordOut.writeLong(recordStart);
+            endRecord();
+            // no longer active as far as a checkpoint is concerned: any checkpoint record comes after
+            // the commit record, so it cannot be on disk without it
+            activeTids.remove(tid.getId());
+            firstLSNs.remove(tid.getId());
+            lastLSNs.remove(tid.getId());
+        }
+        // force without holding the log's lock so that other committers can append and join the batch
         force();
-        activeTids.remove(tid.getId());
+        commitCount.incrementAndGet();
     }
 
     /**
@@ -217,16 +407,19 @@ public class LogFileImpl implements LogFile {
         // calls rollback
 
         synchronized (Database.getAccessManager()) {
-
+            Long lastLSN;
             synchronized (this) {
                 //should we verify that this is a live transaction?
                 checkActive(tid, true);
 
                 // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
+                // live transactions (needs the LSN of the last record)
                 force();
-                logFileRecovery.rollback(tid);
+                lastLSN = lastLSNs.get(tid.getId());
             }
+            // not under the log's lock: undoing a slot change takes the page's monitor, which writers
+            // hold while they log (see logSlotWrite)
+            logFileRecovery.rollback(tid, lastLSN == null ? Page.NO_LSN : lastLSN);
         }
     }
 
@@ -239,13 +432,14 @@ public class LogFileImpl implements LogFile {
      */
     @Override
     public synchronized void logAbort(Long tid) throws IOException {
-        preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.ABORT_RECORD);
-        raf.writeLong(tid);
-        raf.writeLong(recordStart);
+        long recordStart = beginRecord();
+        writeRecordHeader(LogType.ABORT_RECORD, tid, recordStart);
+        recordOut.writeLong(recordStart);
+        endRecord();
         force();
         activeTids.remove(tid);
+        firstLSNs.remove(tid);
+        lastLSNs.remove(tid);
     }
 
     /**
@@ -262,23 +456,43 @@ public class LogFileImpl implements LogFile {
                                       Page after)
             throws LogManagerException {
         checkActive(tid, true);
-        preAppend();
         /* update record consists of
 
            record type
            transaction id
+           previous LSN of the transaction
            before page data (see writePageData)
            after page data
            start offset
+
+           delta record consists of
+
+           record type
+           transaction id
+           previous LSN of the transaction
+           page header (see writePageHeader)
+           changed ranges (see writeDelta)
+           start offset
         */
 
         try {
-            Long recordStart = raf.getFilePointer();
-            raf.writeInt(LogType.UPDATE_RECORD);
-            raf.writeLong(tid.getId());
-            writePageData(raf, before);
-            writePageData(raf, after);
-            raf.writeLong(recordStart);
+            byte[] beforeData = before.getPageData();
+            byte[] afterData = after.getPageData();
+            List<int[]> ranges = changedRanges(beforeData, afterData);
+            long recordStart = beginRecord();
+            if (ranges != null && deltaSize(ranges) < 2 * (INT_SIZE + afterData.length)) {
+                writeRecordHeader(LogType.DELTA_RECORD, tid.getId(), recordStart);
+                writePageHeader(recordOut, after);
+                writeDelta(recordOut, ranges, beforeData, afterData);
+            } else {
+                writeRecordHeader(LogType.UPDATE_RECORD, tid.getId(), recordStart);
+                writePageData(recordOut, before);
+                writePageData(recordOut, after);
+            }
+            recordOut.writeLong(recordStart);
+            endRecord();
+            firstLSNs.putIfAbsent(tid.getId(), recordStart);   // not every caller logs a BEGIN record
+            logged(after, recordStart);
         } catch (IOException e) {
             throw new LogManagerException(e);
         }
@@ -312,142 +526,585 @@ public class LogFileImpl implements LogFile {
             throws IOException {
 
         // transaction may be active or we may be in recovery mode
-        preAppend();
         /* update record consists of
 
            record type
            transaction id
+           previous LSN of the transaction
            after page data (see writePageData)
            start offset
         */
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.CLR_RECORD);
-        raf.writeLong(tid);
-        writePageData(raf, after);
-        raf.writeLong(recordStart);
+        long recordStart = beginRecord();
+        writeRecordHeader(LogType.CLR_RECORD, tid, recordStart);
+        writePageData(recordOut, after);
+        recordOut.writeLong(recordStart);
+        endRecord();
+        logged(after, recordStart);
+    }
+
+    /**
+     * Write a SLOT record to disk for a change that tid has made to one
+     * slot of a page.
+     *
+     * @param tid    The transaction performing the write
+     * @param page   The page after the change
+     * @param slotno The slot that changed
+     * @param before The slot's content before the change
+     */
+    @Override
+    public synchronized void logSlotWrite(TransactionId tid, SlottedPage page, int slotno, byte[] before)
+            throws LogManagerException {
+        checkActive(tid, true);
+        /* slot record consists of
+
+           record type
+           transaction id
+           previous LSN of the transaction
+           page header (see writePageHeader)
+           slot number
+           before slot data (see writeSlotData)
+           after slot data
+           start offset
+        */
+        try {
+            long recordStart = beginRecord();
+            writeRecordHeader(LogType.SLOT_RECORD, tid.getId(), recordStart);
+            writePageHeader(recordOut, page);
+            recordOut.writeInt(slotno);
+            writeSlotData(recordOut, before);
+            writeSlotData(recordOut, page.getSlotData(slotno));
+            recordOut.writeLong(recordStart);
+            endRecord();
+            firstLSNs.putIfAbsent(tid.getId(), recordStart);
+            logged(page, recordStart);
+        } catch (IOException e) {
+            throw new LogManagerException(e);
+        }
     }
 
+    /**
+     * Write a SLOT CLR record to disk for the undo of a change to one
+     * slot of a page.
+     *
+     * @param tid    The transaction whose change was undone. Need
+     *               long because may not have a live transaction.
+     * @param page   The page after the undo
+     * @param slotno The slot that was put back
+     */
+    @Override
+    public synchronized void logSlotCLR(Long tid, SlottedPage page, int slotno)
+            throws IOException {
+        /* slot CLR record consists of
+
+           record type
+           transaction id
+           previous LSN of the transaction
+           page header (see writePageHeader)
+           slot number
+           after slot data (see writeSlotData)
+           start offset
+        */
+        long recordStart = beginRecord();
+        writeRecordHeader(LogType.SLOT_CLR_RECORD, tid, recordStart);
+        writePageHeader(recordOut, page);
+        recordOut.writeInt(slotno);
+        writeSlotData(recordOut, page.getSlotData(slotno));
+        recordOut.writeLong(recordStart);
+        endRecord();
+        logged(page, recordStart);
+    }
+
+    /**
+     * Writes the type, transaction id and previous LSN that every record starts with, and makes the
+     * record the transaction's last one.
+     */
+    private void writeRecordHeader(int type, long tid, long recordStart) throws IOException {
+        Long prevLSN = lastLSNs.put(tid, recordStart);
+        recordOut.writeInt(type);
+        recordOut.writeLong(tid);
+        recordOut.writeLong(prevLSN == null ? Page.NO_LSN : prevLSN);
+    }
+
+    // stamps a page with the LSN of the record that logged its change and marks it dirty
+    private void logged(Page page, long lsn) {
+        page.setPageLSN(lsn);
+        dirtyPages.compute(page.getId(), (pid, dirty) -> {
+            if (dirty == null) {
+                return new DirtyPage(lsn);
+            }
+            dirty.lastLSN = lsn;
+            return dirty;
+        });
+    }
+
+    @Override
+    public void pageWritten(PageId pid, long pageLSN) {
+        // a page that does not track LSNs has to be assumed to hold all of its changes
+        dirtyPages.computeIfPresent(pid, (p, dirty) ->
+                pageLSN == Page.NO_LSN || dirty.lastLSN <= pageLSN ? null : dirty);
+    }
+
+    /**
+     * @return the recLSN of each page in the dirty page table
+     */
+    public Map<PageId, Long> getDirtyPages() {
+        Map<PageId, Long> recLSNs = new HashMap<>();
+        for (Map.Entry<PageId, DirtyPage> entry : dirtyPages.entrySet()) {
+            recLSNs.put(entry.getKey(), entry.getValue().recLSN);
+        }
+        return recLSNs;
+    }
+
+    /**
+     * @return the LSN that the next record appended to the log will get
+     */
+    public long getNextLSN() {
+        return endOffset();
+    }
+
+    private static class DirtyPage {
+        final long recLSN;     // first change not known to be on disk
+        long lastLSN;          // most recent change
+
+        DirtyPage(long lsn) {
+            recLSN = lsn;
+            lastLSN = lsn;
+        }
+    }
 
-    static void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
 
+    static void writePageData(DataOutput out, Page p) throws IOException {
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
+        // page header (see writePageHeader)
         // page class bytes
         // page class data
+        writePageHeader(out, p);
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    static Page readPageData(DataInput in) throws IOException {
+        PageHeader header = readPageHeader(in);
+        int pageSize = in.readInt();
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
+        return header.makePage(pageData);
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /**
+     * Writes the content of a slot: -1 for an empty slot, otherwise the length and bytes of its tuple.
+     */
+    static void writeSlotData(DataOutput out, byte[] slotData) throws IOException {
+        if (slotData == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(slotData.length);
+            out.write(slotData);
+        }
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+    /**
+     * @return the content of a slot written by writeSlotData: its tuple's bytes, or null if it was empty
+     */
+    static byte[] readSlotData(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] slotData = new byte[length];
+        in.readFully(slotData);
+        return slotData;
+    }
+
+    static void skipSlotData(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length > 0) {
+            in.skipBytes(length);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
     }
 
-    static Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    static void writePageHeader(DataOutput out, Page p) throws IOException {
+        //page header is:
+        // page type id (one byte), followed by the page class name if the type is not registered
+        // page id (see writePageId)
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        int pageType = PageTypeRegistry.pageTypeId(p.getClass());
+        out.writeByte(pageType);
+        if (pageType == PageTypeRegistry.UNREGISTERED) {
+            out.writeUTF(p.getClass().getName());
+        }
+        writePageId(out, p.getId());
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+    static PageHeader readPageHeader(DataInput in) throws IOException {
+        int pageType = in.readUnsignedByte();
+        String pageClassName = pageType == PageTypeRegistry.UNREGISTERED ? in.readUTF() : null;
+        PageId pid = readPageId(in);
+        return new PageHeader(pid, pageType, pageClassName);
+    }
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        //page id is:
+        // id type id (one byte), followed by the id class name if the type is not registered
+        // id class bytes
+        // id class data
 
-            int pageSize = raf.readInt();
+        int pageInfo[] = pid.serialize();
+        int idType = PageTypeRegistry.pageIdTypeId(pid.getClass());
+        out.writeByte(idType);
+        if (idType == PageTypeRegistry.UNREGISTERED) {
+            out.writeUTF(pid.getClass().getName());
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        out.writeByte(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            out.writeInt(pageInfo[i]);
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    static PageId readPageId(DataInput in) throws IOException {
+        int idType = in.readUnsignedByte();
+        String idClassName = idType == PageTypeRegistry.UNREGISTERED ? in.readUTF() : null;
 
-            Constructor<?> constructor = pageClass.getConstructor(new Class[]{PageId.class, byte[].class});
-            newPage = (Page) constructor.newInstance(pageArgs);
+        int numIdArgs = in.readUnsignedByte();
+        int idArgs[] = new int[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++) {
+            idArgs[i] = in.readInt();
+        }
+        return idClassName == null
+                ? PageTypeRegistry.pageIdDecoder(idType).decode(idArgs)
+                : reflectPageId(idClassName, idArgs);
+    }
 
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
+    /**
+     * The id and type of a page whose image (or delta) follows in the log.
+     */
+    static class PageHeader {
+        final PageId pid;
+        private final int pageType;
+        private final String pageClassName;   // null if the type is registered
+
+        private PageHeader(PageId pid, int pageType, String pageClassName) {
+            this.pid = pid;
+            this.pageType = pageType;
+            this.pageClassName = pageClassName;
+        }
+
+        /**
+         * Makes the page this header describes from its bytes.
+         */
+        Page makePage(byte[] bytes) {
+            if (pageClassName == null) {
+                return PageTypeRegistry.pageDecoder(pageType).decode(pid, bytes);
+            }
+            try {
+                return reflectPage(pageClassName, pid, bytes);
+            } catch (IOException e) {
+                throw new LogManagerException(e);
+            }
+        }
+
+        /**
+         * @return a page maker for the page this header describes, e.g. to pin it in the buffer pool
+         */
+        PageMaker pageMaker() {
+            return new PageMaker() {
+                @Override
+                public Page makePage(PageId pid, byte[] bytes) {
+                    return PageHeader.this.makePage(bytes);
+                }
+
+                @Override
+                public Page makePage(PageId pid) {
+                    throw new UnsupportedOperationException("the page's data comes from disk");
+                }
+            };
+        }
+    }
+
+    // fallback for page id classes that are not in the PageTypeRegistry
+    private static PageId reflectPageId(String idClassName, int[] idArgs) throws IOException {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            Object args[] = new Object[idArgs.length];
+            for (int i = 0; i < idArgs.length; i++) {
+                args[i] = idArgs[i];
+            }
+            return (PageId) idConsts[0].newInstance(args);
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
-        } catch (InvocationTargetException e) {
+        }
+    }
+
+    // fallback for page classes that are not in the PageTypeRegistry
+    private static Page reflectPage(String pageClassName, PageId pid, byte[] pageData) throws IOException {
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+            Constructor<?> constructor = pageClass.getConstructor(new Class[]{PageId.class, byte[].class});
+            return (Page) constructor.newInstance(pid, pageData);
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
         } catch (NoSuchMethodException e) {
             e.printStackTrace();
         }
-        return newPage;
+        return null;
+    }
+
+    /**
+     * Finds the byte ranges in which two versions of a page differ.  Ranges separated by fewer than
+     * DELTA_MERGE_GAP unchanged bytes are merged, since each range costs two ints in the log.
+     *
+     * @return a list of {offset, length} pairs, or null if the versions have different lengths
+     */
+    static List<int[]> changedRanges(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            return null;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < before.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;    // exclusive end of the range, extended while differences keep showing up
+            for (int j = end; j < before.length && j < end + DELTA_MERGE_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end - start});
+            i = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Writes the changed ranges of a delta record: a count, then for each range its offset, its length,
+     * the before bytes and the after bytes.
+     */
+    static void writeDelta(DataOutput out, List<int[]> ranges, byte[] before, byte[] after) throws IOException {
+        out.writeInt(ranges.size());
+        for (int[] range : ranges) {
+            out.writeInt(range[0]);
+            out.writeInt(range[1]);
+            out.write(before, range[0], range[1]);
+            out.write(after, range[0], range[1]);
+        }
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Reads the changed ranges of a delta record and applies one side of them to page data.
+     *
+     * @param in positioned at the start of the ranges (see writeDelta)
+     * @param pageData the page's bytes, modified in place
+     * @param undo if true, apply the before bytes, otherwise the after bytes
+     */
+    static void applyDelta(DataInput in, byte[] pageData, boolean undo) throws IOException {
+        int numRanges = in.readInt();
+        for (int r = 0; r < numRanges; r++) {
+            int offset = in.readInt();
+            int length = in.readInt();
+            if (undo) {
+                in.readFully(pageData, offset, length);
+                in.skipBytes(length);
+            } else {
+                in.skipBytes(length);
+                in.readFully(pageData, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Copies the changed ranges of a delta record out of the log, so that they can be applied later
+     * with {@link #applyDelta}.
+     */
+    static byte[] readDelta(DataInput in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int numRanges = in.readInt();
+        out.writeInt(numRanges);
+        for (int r = 0; r < numRanges; r++) {
+            out.writeInt(in.readInt());
+            int length = in.readInt();
+            out.writeInt(length);
+            byte[] range = new byte[2 * length];
+            in.readFully(range);
+            out.write(range);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads past the changed ranges of a delta record without applying them.
+     */
+    static void skipDelta(DataInput in) throws IOException {
+        int numRanges = in.readInt();
+        for (int r = 0; r < numRanges; r++) {
+            in.readInt();    // offset
+            in.skipBytes(2 * in.readInt());
+        }
+    }
+
+    // bytes of log taken up by the ranges of a delta record
+    private static int deltaSize(List<int[]> ranges) {
+        int size = INT_SIZE;
+        for (int[] range : ranges) {
+            size += 2 * INT_SIZE + 2 * range[1];
+        }
+        return size;
+    }
+
+    /**
+     * Checkpoint the log and write a checkpoint record.  A sharp checkpoint (the default) stops all
+     * other work while it flushes every dirty page in the buffer pool; a fuzzy checkpoint (see
+     * {@link #setFuzzyCheckpoints(boolean)}) only writes the record.
      */
     @Override
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getAccessManager()) {
+        if (fuzzyCheckpoints) {
             synchronized (this) {
+                writeCheckpoint();
+            }
+        } else {
+            //make sure we have buffer pool lock before proceeding
+            synchronized (Database.getAccessManager()) {
                 preAppend();
-                long startCpOffset, endCpOffset;
-
                 force();
+                // not under the log's lock: writing a page takes its monitor, which writers hold while they
+                // log (see logSlotWrite).  A change logged meanwhile is in the dirty page table.
                 Database.getBufferManager().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(LogType.CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(activeTids.size());
-                for (Long key : activeTids) {
-                    raf.writeLong(key);
+                synchronized (this) {
+                    writeCheckpoint();
                 }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(startCpOffset);
             }
         }
 
-
         logTruncate();
     }
 
+    /**
+     * Writes a checkpoint record holding the active transactions and the dirty page table, forces it,
+     * and then points the log header at it.  Pages are not written: the dirty page table tells recovery
+     * where redo has to start for the pages that are still dirty.
+     */
+    private void writeCheckpoint() throws IOException {
+        long startCpOffset, endCpOffset;
+
+        startCpOffset = beginRecord();
+        recordOut.writeInt(LogType.CHECKPOINT_RECORD);
+        recordOut.writeLong(-1); //no tid , but leave space for convenience
+        recordOut.writeLong(Page.NO_LSN);   // nor a previous record
+
+        //write list of outstanding transactions and their last records
+        recordOut.writeInt(activeTids.size());
+        for (Long key : activeTids) {
+            recordOut.writeLong(key);
+            Long lastLSN = lastLSNs.get(key);
+            recordOut.writeLong(lastLSN == null ? Page.NO_LSN : lastLSN);
+        }
+
+        //write dirty page table
+        long redoLSN = startCpOffset;
+        Map<PageId, Long> dpt = getDirtyPages();
+        recordOut.writeInt(dpt.size());
+        for (Map.Entry<PageId, Long> entry : dpt.entrySet()) {
+            writePageId(recordOut, entry.getKey());
+            recordOut.writeLong(entry.getValue());
+            redoLSN = Math.min(redoLSN, entry.getValue());
+        }
+        recordOut.writeLong(startCpOffset);
+        endRecord();
+        force();   // the manifest must never point at a record that is not on disk
+        endCpOffset = endOffset();
+
+        //once the CP is written, make sure the CP location in the manifest is updated
+        segments.setCheckpoint(startCpOffset);
+        checkpointRedoLSN = redoLSN;
+        lastCheckpointOffset = endCpOffset;
+        checkpointCount.incrementAndGet();
+    }
+
+    /**
+     * Turns fuzzy checkpoints on or off.  See {@link #logCheckpoint()}.
+     */
+    public void setFuzzyCheckpoints(boolean fuzzy) {
+        this.fuzzyCheckpoints = fuzzy;
+    }
+
+    /**
+     * @return bytes of log written since the last checkpoint (or since the start of the log), which
+     * bounds how much log recovery would have to read
+     */
+    public long getBytesSinceCheckpoint() {
+        return endOffset() - lastCheckpointOffset;
+    }
+
+    /**
+     * @return number of checkpoints written
+     */
+    public long getCheckpointCount() {
+        return checkpointCount.get();
+    }
+
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.  The log is kept from the start of redo for the last
+     * checkpoint, or from the first record of the oldest active transaction
+     * if that is older; whole segments before that are deleted.
      */
     @Override
     public synchronized void logTruncate() throws IOException {
-        // this is optional
+        if (checkpointRedoLSN == NO_CHECKPOINT_ID) {
+            return;   // no checkpoint of this log yet, so recovery may need all of it
+        }
+        long keep = checkpointRedoLSN;
+        for (long firstLSN : firstLSNs.values()) {
+            keep = Math.min(keep, firstLSN);
+        }
+        segments.truncate(keep);
+    }
+
+    /**
+     * Sets the size of the segment files of the log.  Takes effect when a new log is started, i.e. on
+     * the first append when the log is not recovered; a recovered log keeps the segment size it was
+     * written with.
+     * @param bytes segment size in bytes
+     */
+    public void setSegmentSize(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("segment size must be positive: " + bytes);
+        }
+        this.segmentSize = bytes;
+    }
+
+    /**
+     * @return bytes of log held on disk, not counting records that are still buffered
+     */
+    public long getLogSize() {
+        return segments.getSize();
+    }
+
+    /**
+     * @return number of segment files the log takes up
+     */
+    public int getSegmentCount() {
+        return segments.getSegmentCount();
+    }
+
+    /**
+     * Deletes a log that is no longer open: its manifest and all of its segments.
+     * @param f the log's manifest
+     */
+    public static void deleteLogFiles(File f) {
+        LogSegments.delete(f);
     }
 
     /**
@@ -459,7 +1116,8 @@ public class LogFileImpl implements LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            logFileRecovery.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -476,19 +1134,210 @@ public class LogFileImpl implements LogFile {
         synchronized (Database.getAccessManager()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                raf.seek(raf.length());      // go to end of log file
+                synchronized (bufferLock) {
+                    flushBuffer();
+                    long checkpoint = segments.getCheckpointLSN();
+                    lastCheckpointOffset = checkpoint == NO_CHECKPOINT_ID ? segments.getStartLSN() : checkpoint;
+                    writtenOffset = segments.getEndLSN();
+                }
                 logFileRecovery.recover();
             }
         }
     }
 
     @Override
-    public synchronized void force() throws LogManagerException {
+    public void force() throws LogManagerException {
+        if (groupCommit) {
+            long target;
+            synchronized (this) {
+                flushBuffer();
+                target = writtenOffset;
+            }
+            groupForce(target);
+        } else {
+            synchronized (this) {
+                flushBuffer();
+                long target = writtenOffset;
+                fsync();
+                synchronized (groupLock) {
+                    durableOffset = Math.max(durableOffset, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the log only if the record at lsn is not yet on disk.  Unlike {@link #force()} this never
+     * takes the log's monitor: it is called from page writes, which may happen while the buffer manager
+     * is locked by a thread that is itself waiting for the log (e.g. during a rollback).
+     */
+    @Override
+    public void forceTo(long lsn) throws LogManagerException {
+        synchronized (groupLock) {
+            if (lsn != Page.NO_LSN && lsn < durableOffset) {
+                return;   // durable offsets are always at record boundaries, so the whole record is on disk
+            }
+        }
+        flushBuffer();
+        long target = writtenOffset;
+        if (groupCommit) {
+            groupForce(target);
+        } else {
+            synchronized (groupLock) {
+                if (durableOffset >= target) {
+                    return;
+                }
+            }
+            fsync();
+            synchronized (groupLock) {
+                durableOffset = Math.max(durableOffset, target);
+            }
+        }
+    }
+
+    private void fsync() throws LogManagerException {
         try {
-            raf.getChannel().force(true);
+            segments.force();
+            fsyncCount.incrementAndGet();
         } catch (IOException e) {
             throw new LogManagerException(e);
         }
     }
 
+    /**
+     * Returns once the log is on disk up to target, sharing fsyncs with other threads that are
+     * forcing at the same time.  Everything before target must already have been handed to the file system.
+     */
+    private void groupForce(long target) throws LogManagerException {
+        synchronized (groupLock) {
+            while (durableOffset < target && fsyncInProgress) {
+                awaitGroup(0);
+            }
+            if (durableOffset >= target) {
+                return;   // an fsync that started after our records were written already covered them
+            }
+            // become the leader; wait a little so that others can add their records to this batch
+            fsyncInProgress = true;
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitDelayMicros);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                awaitGroup(remaining);
+            }
+        }
+        // the fsync itself is done without holding groupLock so followers can keep queueing up
+        long batchEnd = writtenOffset;
+        boolean forced = false;
+        try {
+            fsync();
+            forced = true;
+        } finally {
+            synchronized (groupLock) {
+                if (forced) {
+                    durableOffset = Math.max(durableOffset, batchEnd);
+                }
+                fsyncInProgress = false;   // on failure a waiter takes over as leader and retries
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    // caller must hold groupLock; waits for at most timeoutNanos, or until notified if timeoutNanos is 0
+    private void awaitGroup(long timeoutNanos) {
+        try {
+            if (timeoutNanos == 0) {
+                groupLock.wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(groupLock, timeoutNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets how many threads redo pages during {@link #recover()}.  Changes to different pages are
+     * independent, so with more than one thread they are redone in parallel; each page's changes
+     * are still redone in log order.  Undo always runs on the recovering thread.
+     * @param threads number of redo threads, 1 (the default) to redo on the recovering thread
+     */
+    public void setRedoThreads(int threads) {
+        logFileRecovery.setRedoThreads(threads);
+    }
+
+    /**
+     * @return number of log records redone by the last recovery
+     */
+    public long getRedoApplied() {
+        return logFileRecovery.getRedoApplied();
+    }
+
+    /**
+     * @return number of log records the last recovery did not need to redo because their page was
+     * already on disk
+     */
+    public long getRedoSkipped() {
+        return logFileRecovery.getRedoSkipped();
+    }
+
+    /**
+     * @return number of log records read by the undo of the last rollback or recovery
+     */
+    public long getUndoRead() {
+        return logFileRecovery.getUndoRead();
+    }
+
+    /**
+     * A ByteArrayOutputStream whose contents can be copied out without first copying them to a new array.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(1024);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    /**
+     * Turns group commit on or off.  See the class comment.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Sets how long a group commit leader waits for other committers before it forces the log.
+     * A longer delay batches more commits per fsync at the cost of commit latency.
+     * @param micros the maximum batch delay in microseconds, 0 to force right away
+     */
+    public void setGroupCommitDelay(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit delay must not be negative: " + micros);
+        }
+        this.groupCommitDelayMicros = micros;
+    }
+
+    /**
+     * @return number of times the log has been forced to disk
+     */
+    public long getFsyncCount() {
+        return fsyncCount.get();
+    }
+
+    /**
+     * @return number of commit records written
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * @return fsyncs per commit so far, or 0 if nothing has committed
+     */
+    public double getFsyncsPerCommit() {
+        long commits = commitCount.get();
+        return commits == 0 ? 0 : (double) fsyncCount.get() / commits;
+    }
+
 }
@@ -9,10 +9,20 @@ import colgatedb.transactions.Transaction;
 import colgatedb.transactions.TransactionId;
 
 import javax.xml.crypto.Data;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static colgatedb.logging.LogFileImpl.LONG_SIZE;
 import static colgatedb.logging.LogFileImpl.NO_CHECKPOINT_ID;
@@ -33,7 +43,12 @@ import static colgatedb.logging.LogFileImpl.NO_CHECKPOINT_ID;
  */
 public class LogFileRecovery {
 
-    private final RandomAccessFile readOnlyLog;
+    private final LogSegments log;
+    private final LogSegments.Reader readOnlyLog;
+    private final AtomicLong redoApplied = new AtomicLong();
+    private final AtomicLong redoSkipped = new AtomicLong();
+    private long undoRead = 0;
+    private volatile int redoThreads = 1;
 
     /**
      * Helper class for LogFile during rollback and recovery.
@@ -42,10 +57,15 @@ public class LogFileRecovery {
      * If this class wants to modify the log, it should do something
      * like this:  Database.getLogFile().logAbort(tid);
      *
-     * @param readOnlyLog a read only copy of the log file
+     * @param log the log's segments, which this class only reads
      */
-    public LogFileRecovery(RandomAccessFile readOnlyLog) {
-        this.readOnlyLog = readOnlyLog;
+    LogFileRecovery(LogSegments log) {
+        this.log = log;
+        this.readOnlyLog = log.reader();
+    }
+
+    void close() throws IOException {
+        readOnlyLog.close();
     }
 
     /**
@@ -57,12 +77,13 @@ public class LogFileRecovery {
         // and then jump back to it after printing
         Long currentOffset = readOnlyLog.getFilePointer();
 
-        readOnlyLog.seek(0);
-        long lastCheckpoint = readOnlyLog.readLong(); // ignore this
-        System.out.println("BEGIN LOG FILE");
+        readOnlyLog.seek(log.getStartLSN());
+        System.out.println("BEGIN LOG FILE (start LSN " + log.getStartLSN() +
+                ", last checkpoint " + log.getCheckpointLSN() + ")");
         while (readOnlyLog.getFilePointer() < readOnlyLog.length()) {
             int type = readOnlyLog.readInt();
             long tid = readOnlyLog.readLong();
+            long prevLSN = readOnlyLog.readLong();
             switch (type) {
                 case LogType.BEGIN_RECORD:
                     System.out.println("<T_" + tid + " BEGIN>");
@@ -76,20 +97,35 @@ public class LogFileRecovery {
                 case LogType.UPDATE_RECORD:
                     Page beforeImg = LogFileImpl.readPageData(readOnlyLog);
                     Page afterImg = LogFileImpl.readPageData(readOnlyLog);  // after image
-                    System.out.println("<T_" + tid + " UPDATE pid=" + beforeImg.getId() +">");
+                    System.out.println("<T_" + tid + " UPDATE pid=" + beforeImg.getId() + " prev=" + prevLSN + ">");
+                    break;
+                case LogType.DELTA_RECORD:
+                    LogFileImpl.PageHeader header = LogFileImpl.readPageHeader(readOnlyLog);
+                    LogFileImpl.skipDelta(readOnlyLog);
+                    System.out.println("<T_" + tid + " DELTA pid=" + header.pid + " prev=" + prevLSN + ">");
+                    break;
+                case LogType.SLOT_RECORD:
+                    header = LogFileImpl.readPageHeader(readOnlyLog);
+                    int slotno = readOnlyLog.readInt();
+                    LogFileImpl.skipSlotData(readOnlyLog);
+                    LogFileImpl.skipSlotData(readOnlyLog);
+                    System.out.println("<T_" + tid + " SLOT pid=" + header.pid + " slot=" + slotno + " prev=" + prevLSN + ">");
                     break;
                 case LogType.CLR_RECORD:
                     afterImg = LogFileImpl.readPageData(readOnlyLog);  // after image
-                    System.out.println("<T_" + tid + " CLR pid=" + afterImg.getId() +">");
+                    System.out.println("<T_" + tid + " CLR pid=" + afterImg.getId() + " prev=" + prevLSN + ">");
+                    break;
+                case LogType.SLOT_CLR_RECORD:
+                    header = LogFileImpl.readPageHeader(readOnlyLog);
+                    slotno = readOnlyLog.readInt();
+                    LogFileImpl.skipSlotData(readOnlyLog);
+                    System.out.println("<T_" + tid + " SLOT CLR pid=" + header.pid + " slot=" + slotno + " prev=" + prevLSN + ">");
                     break;
                 case LogType.CHECKPOINT_RECORD:
-                    int count = readOnlyLog.readInt();
-                    Set<Long> tids = new HashSet<Long>();
-                    for (int i = 0; i < count; i++) {
-                        long nextTid = readOnlyLog.readLong();
-                        tids.add(nextTid);
-                    }
-                    System.out.println("<T_" + tid + " CHECKPOINT " + tids + ">");
+                    Map<Long, Long> tids = new HashMap<>();
+                    Map<PageId, Long> dirtyPages = new HashMap<>();
+                    readCheckpoint(tids, dirtyPages);
+                    System.out.println("<T_" + tid + " CHECKPOINT " + tids + " dirty=" + dirtyPages + ">");
                     break;
                 default:
                     throw new RuntimeException("Unexpected type!  Type = " + type);
@@ -111,15 +147,311 @@ public class LogFileRecovery {
     private void undoUpdate(long tid) throws IOException{
         Page beforeImg = LogFileImpl.readPageData(readOnlyLog);
         LogFileImpl.readPageData(readOnlyLog);
+        Database.getLogFile().logCLR(tid, beforeImg);   // first, so the page is written with the CLR's LSN
         Database.getDiskManager().writePage(beforeImg);
-        Database.getLogFile().logCLR(tid, beforeImg);
         BufferManager bm = Database.getBufferManager();
         PageId pid = beforeImg.getId();
-        if(bm.isDirty(pid)) {
-            bm.discardPage(pid);
+        if(bm.inBufferPool(pid)) {
+            bm.discardPage(pid);   // stale now, dirty or not
+        }
+        Database.getCatalog().pageRestored(pid);
+    }
+
+    /**
+     * Undo the slot-level changes of a delta record of given tid.  The before bytes are put back into
+     * the newest version of the page: the buffer pool's copy if the page is resident, since without the
+     * force policy it can hold committed changes that are not on disk yet, otherwise the page on disk.
+     * @param tid
+     * @throws IOException
+     */
+    private void undoDelta(long tid) throws IOException {
+        LogFileImpl.PageHeader header = LogFileImpl.readPageHeader(readOnlyLog);
+        PageId pid = header.pid;
+        BufferManager bm = Database.getBufferManager();
+        byte[] pageData = bm.inBufferPool(pid) ? bm.getPage(pid).getPageData()
+                : Database.getDiskManager().readPageData(pid);
+        LogFileImpl.applyDelta(readOnlyLog, pageData, true);
+        Page beforeImg = header.makePage(pageData);
+        Database.getLogFile().logCLR(tid, beforeImg);
+        Database.getDiskManager().writePage(beforeImg);
+        if(bm.inBufferPool(pid)) {
+            bm.discardPage(pid);   // stale now, dirty or not
+        }
+        Database.getCatalog().pageRestored(pid);
+    }
+
+    /**
+     * Undo the change a slot record of given tid made to one slot.  Only that slot is put back, in the
+     * buffer pool's copy of the page, so the changes other transactions have made to the page stay.
+     * The page's monitor is held while the slot changes and its CLR is logged, as writers do.
+     * @param tid
+     * @throws IOException
+     */
+    private void undoSlot(long tid) throws IOException {
+        LogFileImpl.PageHeader header = LogFileImpl.readPageHeader(readOnlyLog);
+        int slotno = readOnlyLog.readInt();
+        byte[] before = LogFileImpl.readSlotData(readOnlyLog);
+        PageId pid = header.pid;
+        BufferManager bm = Database.getBufferManager();
+        SlottedPage page = (SlottedPage) bm.pinPage(pid, header.pageMaker());
+        try {
+            synchronized (page) {
+                page.setSlotData(slotno, before);
+                Database.getLogFile().logSlotCLR(tid, page, slotno);
+            }
+        } finally {
+            bm.unpinPage(pid, true);
+        }
+        Database.getCatalog().pageRestored(pid);
+    }
+
+    /**
+     * Applies the ranges of a delta record, read from delta, to a copy of the page on disk.  The caller
+     * writes the page.
+     * @param undo if true, put back the before bytes, otherwise install the after bytes
+     * @return the patched page
+     * @throws IOException
+     */
+    private static Page applyDelta(LogFileImpl.PageHeader header, DataInput delta, boolean undo) throws IOException {
+        byte[] pageData = Database.getDiskManager().readPageData(header.pid);
+        LogFileImpl.applyDelta(delta, pageData, undo);
+        return header.makePage(pageData);
+    }
+
+    /**
+     * Reads the body of a checkpoint record, after its type, tid and previous LSN.
+     * @param activeTids filled with the transactions that were active at the checkpoint, each mapped to
+     *                   the LSN of its last record
+     * @param dirtyPages filled with the recLSN of each page in the checkpoint's dirty page table
+     */
+    private void readCheckpoint(Map<Long, Long> activeTids, Map<PageId, Long> dirtyPages) throws IOException {
+        int numActive = readOnlyLog.readInt();
+        for (int i = 0; i < numActive; i++) {
+            long tid = readOnlyLog.readLong();
+            activeTids.put(tid, readOnlyLog.readLong());
+        }
+        int numDirty = readOnlyLog.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            PageId pid = LogFileImpl.readPageId(readOnlyLog);
+            dirtyPages.put(pid, readOnlyLog.readLong());
+        }
+    }
+
+    /**
+     * Decides, from the dirty page table of the last checkpoint alone, whether the change logged at lsn
+     * to page pid may have to be redone.  Counts the record as skipped if not.
+     * @param lsn the LSN of the record
+     * @param beforeCheckpoint whether the record precedes the last checkpoint
+     * @param dirtyPages the dirty page table of the last checkpoint
+     */
+    private boolean checkpointNeedsRedo(PageId pid, long lsn, boolean beforeCheckpoint,
+                                        Map<PageId, Long> dirtyPages) {
+        if (beforeCheckpoint) {
+            // the checkpoint knew which changes were not yet on disk
+            Long recLSN = dirtyPages.get(pid);
+            if (recLSN == null || lsn < recLSN) {
+                redoSkipped.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whether the page on disk is older than the change logged at lsn; counts the record as skipped if not
+    private boolean pageNeedsRedo(PageId pid, long lsn) {
+        long pageLSN = Database.getDiskManager().getPageLSN(pid);
+        if (pageLSN == Page.NO_LSN || pageLSN < lsn) {
+            return true;
+        }
+        redoSkipped.incrementAndGet();
+        return false;
+    }
+
+    // redoes an UPDATE or CLR record: installs the after image unless the page on disk already has it
+    private void redo(Page afterImage, long lsn) {
+        if (pageNeedsRedo(afterImage.getId(), lsn)) {
+            afterImage.setPageLSN(lsn);
+            Database.getDiskManager().writePage(afterImage);
+            redoApplied.incrementAndGet();
+        }
+    }
+
+    // redoes a DELTA record whose ranges were read into delta (see LogFileImpl.readDelta)
+    private void redo(LogFileImpl.PageHeader header, byte[] delta, long lsn) throws IOException {
+        if (pageNeedsRedo(header.pid, lsn)) {
+            Page page = applyDelta(header, new DataInputStream(new ByteArrayInputStream(delta)), false);
+            page.setPageLSN(lsn);
+            Database.getDiskManager().writePage(page);
+            redoApplied.incrementAndGet();
+        }
+    }
+
+    // redoes a SLOT or SLOT CLR record: sets the slot to its content after the change
+    private void redo(LogFileImpl.PageHeader header, int slotno, byte[] after, long lsn) throws IOException {
+        if (pageNeedsRedo(header.pid, lsn)) {
+            SlottedPage page = (SlottedPage) header.makePage(Database.getDiskManager().readPageData(header.pid));
+            page.setSlotData(slotno, after);
+            page.setPageLSN(lsn);
+            Database.getDiskManager().writePage(page);
+            redoApplied.incrementAndGet();
         }
     }
 
+    /**
+     * Sets how many threads redo pages during recovery.  With more than one, the recovering thread
+     * reads the log and hands each record to the worker that owns its page, so changes to different
+     * pages are redone in parallel while each page's changes are still redone in log order.
+     * @param threads number of redo threads, 1 to redo on the recovering thread
+     */
+    void setRedoThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one redo thread: " + threads);
+        }
+        this.redoThreads = threads;
+    }
+
+    long getRedoApplied() {
+        return redoApplied.get();
+    }
+
+    long getRedoSkipped() {
+        return redoSkipped.get();
+    }
+
+    long getUndoRead() {
+        return undoRead;
+    }
+
+    /**
+     * Redo work for one page.
+     */
+    private interface RedoTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs redo work either right away, or with more than one redo thread, on worker threads.  Work for
+     * a page always goes to the same worker, and each worker runs its work in the order it was
+     * submitted, so each page's changes are redone in log order.  The queues are bounded so that the
+     * log reader cannot get arbitrarily far ahead of the workers.
+     */
+    private static class RedoWorkers {
+        private static final int QUEUE_CAPACITY = 1024;
+        private static final RedoTask STOP = () -> { };
+
+        private final List<BlockingQueue<RedoTask>> queues = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        RedoWorkers(int numThreads) {
+            if (numThreads <= 1) {
+                return;
+            }
+            for (int i = 0; i < numThreads; i++) {
+                BlockingQueue<RedoTask> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                Thread thread = new Thread(() -> work(queue), "redo-" + i);
+                thread.setDaemon(true);
+                queues.add(queue);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        private void work(BlockingQueue<RedoTask> queue) {
+            while (true) {
+                RedoTask task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == STOP) {
+                    return;
+                }
+                if (failure.get() != null) {
+                    continue;     // recovery has failed; keep draining so the reader does not block
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+
+        void submit(PageId pid, RedoTask task) throws IOException {
+            if (queues.isEmpty()) {
+                task.run();
+                return;
+            }
+            BlockingQueue<RedoTask> queue = queues.get(Math.floorMod(pid.hashCode(), queues.size()));
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during redo");
+            }
+        }
+
+        /**
+         * Waits for all submitted work to finish.
+         * @throws IOException if any of it failed
+         */
+        void finish() throws IOException {
+            try {
+                for (BlockingQueue<RedoTask> queue : queues) {
+                    queue.put(STOP);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during redo");
+            }
+            Throwable e = failure.get();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e != null) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Undoes the record at lsn, which belongs to a transaction that is being rolled back.
+     * @return the LSN of the transaction's previous record, or {@link Page#NO_LSN} if there is none
+     * @throws IOException if the record is the transaction's commit
+     */
+    private long undo(long lsn) throws IOException {
+        undoRead++;
+        readOnlyLog.seek(lsn);
+        int type = readOnlyLog.readInt();
+        long tid = readOnlyLog.readLong();
+        long prevLSN = readOnlyLog.readLong();
+        if (type == LogType.UPDATE_RECORD) {
+            undoUpdate(tid);
+        }
+        else if (type == LogType.DELTA_RECORD) {
+            undoDelta(tid);
+        }
+        else if (type == LogType.SLOT_RECORD) {
+            undoSlot(tid);
+        }
+        else if(type == LogType.BEGIN_RECORD) {
+            Database.getLogFile().logAbort(tid);
+        }
+        else if(type == LogType.COMMIT_RECORD){
+            throw new IOException("Transaction " + tid + " has already been commited!");
+        }
+        return prevLSN;
+    }
+
     /**
      * Rollback the specified transaction, setting the state of any
      * of pages it updated to their pre-updated state.  To preserve
@@ -127,33 +459,40 @@ public class LogFileRecovery {
      * transactions that have already committed (though this may not
      * be enforced by this method.)
      *
+     * Only the transaction's own records are read: rollback follows
+     * the chain of previous LSNs back from its last record.  If the
+     * caller does not know the last record (because the transaction
+     * has already ended, or never logged anything) it is looked for by
+     * reading the log backwards.
+     *
      * This is called from LogFile.recover after both the LogFile and
      * the BufferPool are locked.
      *
      * @param tidToRollback The transaction to rollback
+     * @param lastLSN the LSN of the transaction's last record, or {@link Page#NO_LSN} if not known
      * @throws java.io.IOException if tidToRollback has already committed
      */
-    public void rollback(TransactionId tidToRollback) throws IOException {
-         readOnlyLog.seek(readOnlyLog.length() - LONG_SIZE);
-         long recordStart;
-         while (readOnlyLog.getFilePointer() > 0) {
-             recordStart = readOnlyLog.readLong();
-             readOnlyLog.seek(recordStart);
-             int type = readOnlyLog.readInt();
-             long tid = readOnlyLog.readLong();
-             if(tidToRollback.getId() == tid) {
-                 if (type == LogType.UPDATE_RECORD) {
-                     undoUpdate(tid);
-                 }
-                 else if(type == LogType.BEGIN_RECORD) {
-                     Database.getLogFile().logAbort(tidToRollback.getId());
-                 }
-                 else if(type == LogType.COMMIT_RECORD){
-                     throw new IOException("Transaction " + tid + " has already been commited!");
-                 }
-             }
-             readOnlyLog.seek(recordStart - LONG_SIZE);
-         }
+    public void rollback(TransactionId tidToRollback, long lastLSN) throws IOException {
+        undoRead = 0;
+        long lsn = lastLSN == Page.NO_LSN ? findLastLSN(tidToRollback.getId()) : lastLSN;
+        while (lsn != Page.NO_LSN) {
+            lsn = undo(lsn);
+        }
+    }
+
+    // reads the log backwards for the last record of tid; returns Page.NO_LSN if it has none
+    private long findLastLSN(long tid) throws IOException {
+        long logStart = log.getStartLSN();
+        readOnlyLog.seek(readOnlyLog.length() - LONG_SIZE);
+        while (readOnlyLog.getFilePointer() >= logStart) {
+            long recordStart = readOnlyLog.readLong();
+            readOnlyLog.seek(recordStart + LogFileImpl.INT_SIZE);
+            if (readOnlyLog.readLong() == tid) {
+                return recordStart;
+            }
+            readOnlyLog.seek(recordStart - LONG_SIZE);
+        }
+        return Page.NO_LSN;
     }
 
     /**
@@ -165,67 +504,108 @@ public class LogFileRecovery {
      * the BufferPool are locked.
      */
     public void recover() throws IOException {
-        Set<Long> losers = new HashSet<>();
+        Map<Long, Long> losers = new HashMap<>();   // each loser's last record
+        Map<PageId, Long> dirtyPages = new HashMap<>();
+        redoApplied.set(0);
+        redoSkipped.set(0);
+        undoRead = 0;
         //read last checkpoint
-        readOnlyLog.seek(0);
-         long lastCheckPoint = readOnlyLog.readLong();
-         //populate losers
+         long logStart = log.getStartLSN();
+         long lastCheckPoint = log.getCheckpointLSN();
+         long redoStart = logStart;
+         //populate losers and the dirty page table
          if(lastCheckPoint != NO_CHECKPOINT_ID){
              readOnlyLog.seek(lastCheckPoint);
              if(readOnlyLog.readInt() == LogType.CHECKPOINT_RECORD) {
-                 readOnlyLog.skipBytes(LogFileImpl.LONG_SIZE);
-                 int numActive = readOnlyLog.readInt();
-                 for (int i = 0; i < numActive; i++) {
-                     losers.add(readOnlyLog.readLong());
-                 }
+                 readOnlyLog.skipBytes(2 * LogFileImpl.LONG_SIZE);
+                 readCheckpoint(losers, dirtyPages);
+             }
+             // changes before the checkpoint only need redoing from the oldest recLSN on
+             redoStart = lastCheckPoint;
+             for (long recLSN : dirtyPages.values()) {
+                 redoStart = Math.min(redoStart, Math.max(logStart, recLSN));
              }
-             readOnlyLog.skipBytes(LogFileImpl.LONG_SIZE);
          }
          //REDO
-         long recordStart = readOnlyLog.getFilePointer();
-         while (recordStart < readOnlyLog.length()){
-             int type = readOnlyLog.readInt();
-             long tid = readOnlyLog.readLong();
-             if(type == LogType.BEGIN_RECORD) {
-                 losers.add(tid);
-             }
-             else if(type == LogType.COMMIT_RECORD || type == LogType.ABORT_RECORD) {
-                 losers.remove(tid);
-             }
-             else if(type == LogType.UPDATE_RECORD) {
-                LogFileImpl.readPageData(readOnlyLog);
-                Page afterImage = LogFileImpl.readPageData(readOnlyLog);
-                Database.getDiskManager().writePage(afterImage);
-
-             }
-             else if(type == LogType.CLR_RECORD) {
-                 Page afterImage = LogFileImpl.readPageData(readOnlyLog);
-                 Database.getDiskManager().writePage(afterImage);
+         RedoWorkers workers = new RedoWorkers(redoThreads);
+         long recordStart = redoStart;
+         readOnlyLog.seek(recordStart);
+         try {
+             while (recordStart < readOnlyLog.length()){
+                 boolean beforeCheckpoint = lastCheckPoint != NO_CHECKPOINT_ID && recordStart < lastCheckPoint;
+                 long lsn = recordStart;
+                 int type = readOnlyLog.readInt();
+                 long tid = readOnlyLog.readLong();
+                 readOnlyLog.skipBytes(LogFileImpl.LONG_SIZE);   // previous LSN
+                 // the checkpoint's list of active transactions already accounts for records before it
+                 if (!beforeCheckpoint && losers.containsKey(tid)) {
+                     losers.put(tid, lsn);
+                 }
+                 if(type == LogType.BEGIN_RECORD) {
+                     if (!beforeCheckpoint) {
+                         losers.put(tid, lsn);
+                     }
+                 }
+                 else if(type == LogType.COMMIT_RECORD || type == LogType.ABORT_RECORD) {
+                     if (!beforeCheckpoint) {
+                         losers.remove(tid);
+                     }
+                 }
+                 else if(type == LogType.CHECKPOINT_RECORD) {
+                     readCheckpoint(new HashMap<>(), new HashMap<>());   // already read, or superseded
+                 }
+                 else if(type == LogType.UPDATE_RECORD) {
+                    LogFileImpl.readPageData(readOnlyLog);
+                    Page afterImage = LogFileImpl.readPageData(readOnlyLog);
+                    if (checkpointNeedsRedo(afterImage.getId(), lsn, beforeCheckpoint, dirtyPages)) {
+                        workers.submit(afterImage.getId(), () -> redo(afterImage, lsn));
+                    }
+                 }
+                 else if(type == LogType.DELTA_RECORD) {
+                     LogFileImpl.PageHeader header = LogFileImpl.readPageHeader(readOnlyLog);
+                     if (checkpointNeedsRedo(header.pid, lsn, beforeCheckpoint, dirtyPages)) {
+                         byte[] delta = LogFileImpl.readDelta(readOnlyLog);
+                         workers.submit(header.pid, () -> redo(header, delta, lsn));
+                     } else {
+                         LogFileImpl.skipDelta(readOnlyLog);
+                     }
+                 }
+                 else if(type == LogType.CLR_RECORD) {
+                     Page afterImage = LogFileImpl.readPageData(readOnlyLog);
+                     if (checkpointNeedsRedo(afterImage.getId(), lsn, beforeCheckpoint, dirtyPages)) {
+                         workers.submit(afterImage.getId(), () -> redo(afterImage, lsn));
+                     }
+                 }
+                 else if(type == LogType.SLOT_RECORD || type == LogType.SLOT_CLR_RECORD) {
+                     LogFileImpl.PageHeader header = LogFileImpl.readPageHeader(readOnlyLog);
+                     int slotno = readOnlyLog.readInt();
+                     if (type == LogType.SLOT_RECORD) {
+                         LogFileImpl.skipSlotData(readOnlyLog);   // before
+                     }
+                     byte[] after = LogFileImpl.readSlotData(readOnlyLog);
+                     if (checkpointNeedsRedo(header.pid, lsn, beforeCheckpoint, dirtyPages)) {
+                         workers.submit(header.pid, () -> redo(header, slotno, after, lsn));
+                     }
+                 }
+                 readOnlyLog.skipBytes(LogFileImpl.LONG_SIZE);
+                 recordStart = readOnlyLog.getFilePointer();
              }
-             readOnlyLog.skipBytes(LogFileImpl.LONG_SIZE);
-             recordStart = readOnlyLog.getFilePointer();
+         } finally {
+             workers.finish();   // undo must see every page redone
          }
-         //UNDO
-        readOnlyLog.seek(readOnlyLog.length() - LONG_SIZE);
-
-        while (readOnlyLog.getFilePointer() > 0) {
-            recordStart = readOnlyLog.readLong();
-            readOnlyLog.seek(recordStart);
-            int type = readOnlyLog.readInt();
-            long tid = readOnlyLog.readLong();
-            if(losers.contains(tid)) {  //if this txn is a loser
-                if (type == LogType.UPDATE_RECORD) {
-                    undoUpdate(tid);
-                }
-                else if(type == LogType.BEGIN_RECORD) {
-                    Database.getLogFile().logAbort(tid);
-                    losers.remove(tid);
-                    if(losers.isEmpty()) {
-                        break;
-                    }
-                }
+         //UNDO: follow the losers' chains, always undoing the latest record first
+        TreeMap<Long, Long> toUndo = new TreeMap<>();   // next record to undo -> its transaction
+        for (Map.Entry<Long, Long> loser : losers.entrySet()) {
+            if (loser.getValue() != Page.NO_LSN) {
+                toUndo.put(loser.getValue(), loser.getKey());
+            }
+        }
+        while (!toUndo.isEmpty()) {
+            Map.Entry<Long, Long> next = toUndo.pollLastEntry();
+            long prevLSN = undo(next.getKey());
+            if (prevLSN != Page.NO_LSN) {
+                toUndo.put(prevLSN, next.getValue());
             }
-            readOnlyLog.seek(recordStart - LONG_SIZE);
         }
     }
 }
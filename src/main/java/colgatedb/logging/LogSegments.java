@@ -0,0 +1,463 @@
+package colgatedb.logging;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+
+import static colgatedb.logging.LogFileImpl.LONG_SIZE;
+import static colgatedb.logging.LogFileImpl.NO_CHECKPOINT_ID;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * The bytes of the log, kept in fixed-size segment files that are described by a small manifest file.
+ * <p>
+ * Positions in the log are LSNs.  The byte at LSN l is stored in segment l / segmentSize, at offset
+ * l % segmentSize, so a record that does not fit in the rest of a segment continues in the next one.
+ * Segment n is the file named after the manifest with "." and n appended, in the same directory.  Every
+ * segment but the last is exactly segmentSize bytes long, so the end of the log is the end of the last
+ * segment.
+ * <p>
+ * The manifest holds the segment size, the LSN of the last checkpoint record (or -1) and the start of the
+ * log, which is the first LSN that has not been truncated.  Data is only ever appended.  Truncating the
+ * log moves the start forward in the manifest and then deletes the segments that lie wholly before it,
+ * so it costs one small write and a few file deletions no matter how much log is dropped.
+ */
+class LogSegments {
+
+    static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final int MANIFEST_SIZE = 3 * LONG_SIZE;   // segment size, checkpoint LSN, start LSN
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final File manifest;
+    private final RandomAccessFile manifestFile;
+    private volatile long segmentSize;
+    private volatile long startLSN;
+    private volatile long endLSN;
+    private volatile long checkpointLSN;
+    private volatile int generation = 0;    // bumped by reset, so that readers drop what they cached
+
+    private RandomAccessFile tail;          // last segment, open for appending; null until the next append
+    private long tailSegment = -1;
+
+    /**
+     * Opens the log described by the given manifest.  A file that is not a manifest (an empty file, or
+     * a log written before logs were segmented) is taken to be a new, empty log.
+     */
+    LogSegments(File manifest) throws IOException {
+        this.manifest = manifest;
+        this.manifestFile = new RandomAccessFile(manifest, "rw");
+        if (manifestFile.length() != MANIFEST_SIZE) {
+            segmentSize = DEFAULT_SEGMENT_SIZE;
+            checkpointLSN = NO_CHECKPOINT_ID;
+            startLSN = segmentSize;   // LSN 0 is never used, so a log starts at its first segment boundary
+            endLSN = startLSN;
+            return;
+        }
+        segmentSize = manifestFile.readLong();
+        checkpointLSN = manifestFile.readLong();
+        startLSN = manifestFile.readLong();
+        if (segmentSize <= 0 || startLSN < 0) {
+            throw new LogManagerException("not a log manifest: " + manifest);
+        }
+        // a crash during truncation can leave segments that the manifest no longer needs
+        long stale = startLSN / segmentSize - 1;
+        while (stale >= 0 && segmentFile(stale).delete()) {
+            stale--;
+        }
+        long last = startLSN / segmentSize;
+        if (!segmentFile(last).exists()) {
+            endLSN = startLSN;
+            return;
+        }
+        while (segmentFile(last + 1).exists()) {
+            last++;
+        }
+        endLSN = last * segmentSize + segmentFile(last).length();
+    }
+
+    File segmentFile(long segment) {
+        return new File(manifest.getPath() + String.format(".%06d", segment));
+    }
+
+    long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the first LSN of the log that has not been truncated
+     */
+    long getStartLSN() {
+        return startLSN;
+    }
+
+    /**
+     * @return the LSN just past the last byte appended
+     */
+    long getEndLSN() {
+        return endLSN;
+    }
+
+    long getCheckpointLSN() {
+        return checkpointLSN;
+    }
+
+    /**
+     * @return bytes held in segment files
+     */
+    long getSize() {
+        return endLSN - (startLSN / segmentSize) * segmentSize;
+    }
+
+    /**
+     * @return number of segment files
+     */
+    int getSegmentCount() {
+        long first = startLSN / segmentSize;
+        return endLSN > first * segmentSize ? (int) ((endLSN - 1) / segmentSize - first + 1) : 0;
+    }
+
+    /**
+     * Appends bytes at the end of the log, moving on to a new segment whenever the last one is full.
+     * The bytes are not durable until {@link #force()} is called.
+     */
+    synchronized void append(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long segment = endLSN / segmentSize;
+            if (segment != tailSegment) {
+                openTail(segment);
+            }
+            int n = (int) Math.min(len, segmentSize - endLSN % segmentSize);
+            tail.write(b, off, n);
+            off += n;
+            len -= n;
+            endLSN += n;
+        }
+    }
+
+    private void openTail(long segment) throws IOException {
+        if (tail != null) {
+            // force only syncs the last segment, so a segment is synced as it fills up
+            tail.getChannel().force(true);
+            tail.close();
+        }
+        tail = new RandomAccessFile(segmentFile(segment), "rw");
+        tail.seek(endLSN - segment * segmentSize);
+        tailSegment = segment;
+    }
+
+    private void closeTail() throws IOException {
+        if (tail != null) {
+            tail.close();
+            tail = null;
+            tailSegment = -1;
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk.  Appends may continue while the fsync is in progress.
+     */
+    void force() throws IOException {
+        RandomAccessFile segment;
+        synchronized (this) {
+            segment = tail;
+        }
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.getChannel().force(true);
+        } catch (ClosedChannelException e) {
+            // the segment filled up and was forced as it was closed
+        }
+    }
+
+    /**
+     * Throws away the whole log and starts an empty one at the first segment boundary after its end, so
+     * that LSNs keep increasing.
+     * @param newSegmentSize segment size of the new log
+     */
+    synchronized void reset(long newSegmentSize) throws IOException {
+        closeTail();
+        deleteSegments(startLSN / segmentSize, endLSN / segmentSize + 1);
+        long start = (endLSN / newSegmentSize + 1) * newSegmentSize;
+        generation++;
+        segmentSize = newSegmentSize;
+        checkpointLSN = NO_CHECKPOINT_ID;
+        startLSN = start;
+        endLSN = start;
+        writeManifest();
+    }
+
+    /**
+     * Records the LSN of the last checkpoint record, which must already be on disk.
+     */
+    synchronized void setCheckpoint(long lsn) throws IOException {
+        checkpointLSN = lsn;
+        writeManifest();
+    }
+
+    /**
+     * Drops the log before the given LSN.  The manifest is updated before any segment is deleted, so a
+     * crash in between only leaves segments behind that are deleted the next time the log is opened.
+     * @param lsn the start of a record; the log from here on is kept
+     * @return number of segments deleted
+     */
+    synchronized int truncate(long lsn) throws IOException {
+        lsn = Math.min(lsn, endLSN);
+        if (lsn <= startLSN) {
+            return 0;
+        }
+        long oldFirst = startLSN / segmentSize;
+        startLSN = lsn;
+        writeManifest();
+        long newFirst = startLSN / segmentSize;
+        if (tailSegment >= 0 && tailSegment < newFirst) {
+            closeTail();
+        }
+        return deleteSegments(oldFirst, newFirst);
+    }
+
+    // deletes segments from (inclusive) to to (exclusive)
+    private int deleteSegments(long from, long to) {
+        int deleted = 0;
+        for (long segment = from; segment < to; segment++) {
+            if (segmentFile(segment).delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private void writeManifest() throws IOException {
+        manifestFile.seek(0);
+        manifestFile.writeLong(segmentSize);
+        manifestFile.writeLong(checkpointLSN);
+        manifestFile.writeLong(startLSN);
+        manifestFile.setLength(MANIFEST_SIZE);
+        manifestFile.getChannel().force(true);
+    }
+
+    synchronized void close() throws IOException {
+        closeTail();
+        manifestFile.close();
+    }
+
+    /**
+     * Deletes the manifest and all the segments of a log that is not open.
+     */
+    static void delete(File manifest) {
+        File[] files = manifest.getAbsoluteFile().getParentFile().listFiles();
+        String prefix = manifest.getName() + ".";
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                    file.delete();
+                }
+            }
+        }
+        manifest.delete();
+    }
+
+    /**
+     * @return a new reader positioned at the start of the log
+     */
+    Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Reads the log by LSN, like a RandomAccessFile over one long file.  Reads are buffered; the log only
+     * grows at its end, so buffered bytes never go stale.  A reader sees everything appended before the
+     * read, but not records that are still in the log's in-memory buffer.
+     */
+    class Reader implements DataInput {
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private long bufferStart = 0;    // buffer holds the log from bufferStart to bufferStart + bufferLength
+        private int bufferLength = 0;
+        private long position = startLSN;
+        private RandomAccessFile segmentFile;
+        private long openSegment = -1;
+        private int readerGeneration = generation;
+        private final DataInputStream in = new DataInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (!buffered()) {
+                    return -1;
+                }
+                return buffer[(int) (position++ - bufferStart)] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!buffered()) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, bufferStart + bufferLength - position);
+                System.arraycopy(buffer, (int) (position - bufferStart), b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, endLSN - position));
+                position += skipped;
+                return skipped;
+            }
+        });
+
+        void seek(long lsn) {
+            position = lsn;
+        }
+
+        long getFilePointer() {
+            return position;
+        }
+
+        /**
+         * @return the end of the log
+         */
+        long length() {
+            return endLSN;
+        }
+
+        // makes sure the byte at position is in the buffer; false at the end of the log
+        private boolean buffered() throws IOException {
+            if (readerGeneration != generation) {
+                readerGeneration = generation;    // the log was reset: segment numbers mean something new
+                closeSegment();
+                bufferLength = 0;
+            }
+            if (position >= bufferStart && position < bufferStart + bufferLength) {
+                return true;
+            }
+            long end = endLSN;
+            if (position >= end) {
+                return false;
+            }
+            long size = segmentSize;
+            long segment = position / size;
+            long offset = position - segment * size;
+            if (segment != openSegment) {
+                closeSegment();
+                segmentFile = new RandomAccessFile(segmentFile(segment), "r");
+                openSegment = segment;
+            }
+            int n = (int) Math.min(buffer.length, Math.min(size - offset, end - position));
+            segmentFile.seek(offset);
+            segmentFile.readFully(buffer, 0, n);
+            bufferStart = position;
+            bufferLength = n;
+            return true;
+        }
+
+        void close() throws IOException {
+            closeSegment();
+        }
+
+        private void closeSegment() throws IOException {
+            if (segmentFile != null) {
+                segmentFile.close();
+                segmentFile = null;
+                openSegment = -1;
+            }
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            in.readFully(b);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            in.readFully(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            return in.skipBytes(n);
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return in.readByte();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return in.readShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return in.readUnsignedShort();
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return in.readChar();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return in.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return in.readDouble();
+        }
+
+        @Override
+        public String readLine() {
+            throw new UnsupportedOperationException("the log has no lines");
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return in.readUTF();
+        }
+    }
+}
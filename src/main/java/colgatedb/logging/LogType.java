@@ -22,4 +22,7 @@ public class LogType {
     public static final int BEGIN_RECORD = 4;
     public static final int CHECKPOINT_RECORD = 5;
     public static final int CLR_RECORD = 6;
+    public static final int DELTA_RECORD = 7;
+    public static final int SLOT_RECORD = 8;
+    public static final int SLOT_CLR_RECORD = 9;
 }
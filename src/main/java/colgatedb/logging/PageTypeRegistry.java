@@ -0,0 +1,112 @@
+package colgatedb.logging;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.page.SlottedPage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Maps Page and PageId classes to the small integer ids that the log writes in place of class names,
+ * along with a decoder that rebuilds an instance without reflection.
+ * <p>
+ * Ids are written to the log, so they must not change between runs: register a type under the same id
+ * in every run, before the log is read.  Id 0 ({@link #UNREGISTERED}) is reserved for types that are not
+ * registered; these are written with their class name and rebuilt by reflection, as before.
+ */
+public class PageTypeRegistry {
+
+    public static final int UNREGISTERED = 0;
+    public static final int MAX_ID = 255;   // ids are written as a single byte
+
+    public interface PageDecoder {
+        Page decode(PageId pid, byte[] data);
+    }
+
+    public interface PageIdDecoder {
+        PageId decode(int[] data);
+    }
+
+    private static final Map<Class<?>, Integer> pageIds = new HashMap<>();
+    private static final Map<Integer, PageDecoder> pageDecoders = new HashMap<>();
+    private static final Map<Class<?>, Integer> pidIds = new HashMap<>();
+    private static final Map<Integer, PageIdDecoder> pidDecoders = new HashMap<>();
+
+    static {
+        registerPageIdType(1, SimplePageId.class, data -> new SimplePageId(data[0], data[1]));
+        registerPageType(1, SlottedPage.class, SlottedPage::new);
+    }
+
+    public static synchronized void registerPageType(int id, Class<? extends Page> pageClass,
+                                                     PageDecoder decoder) {
+        register(id, pageClass, pageIds);
+        pageDecoders.put(id, decoder);
+    }
+
+    public static synchronized void registerPageIdType(int id, Class<? extends PageId> pidClass,
+                                                       PageIdDecoder decoder) {
+        register(id, pidClass, pidIds);
+        pidDecoders.put(id, decoder);
+    }
+
+    private static void register(int id, Class<?> cls, Map<Class<?>, Integer> ids) {
+        if (id <= UNREGISTERED || id > MAX_ID) {
+            throw new IllegalArgumentException("type id must be between 1 and " + MAX_ID + ": " + id);
+        }
+        Integer existing = ids.get(cls);
+        if (existing != null && existing != id) {
+            throw new IllegalArgumentException(cls.getName() + " is already registered with id " + existing);
+        }
+        if (existing == null && ids.containsValue(id)) {
+            throw new IllegalArgumentException("type id " + id + " is already in use");
+        }
+        ids.put(cls, id);
+    }
+
+    /**
+     * @return the id of the page class, or {@link #UNREGISTERED}
+     */
+    static synchronized int pageTypeId(Class<?> pageClass) {
+        return pageIds.getOrDefault(pageClass, UNREGISTERED);
+    }
+
+    /**
+     * @return the id of the page id class, or {@link #UNREGISTERED}
+     */
+    static synchronized int pageIdTypeId(Class<?> pidClass) {
+        return pidIds.getOrDefault(pidClass, UNREGISTERED);
+    }
+
+    static synchronized PageDecoder pageDecoder(int id) {
+        PageDecoder decoder = pageDecoders.get(id);
+        if (decoder == null) {
+            throw new LogManagerException("unknown page type id in log: " + id);
+        }
+        return decoder;
+    }
+
+    static synchronized PageIdDecoder pageIdDecoder(int id) {
+        PageIdDecoder decoder = pidDecoders.get(id);
+        if (decoder == null) {
+            throw new LogManagerException("unknown page id type id in log: " + id);
+        }
+        return decoder;
+    }
+}
@@ -77,9 +77,9 @@ public class OperatorMain {
         DbIterator S = new SeqScan(tid, Database.getCatalog().getTableId("Students"), "S");
         DbIterator T = new SeqScan(tid, Database.getCatalog().getTableId("Takes"), "T");
         DbIterator P1 = new Filter(new Predicate(P.getTupleDesc().fieldNameToIndex("P.name"), Op.EQUALS, new StringField("hay")), P);
-        DbIterator R1 = new Join(new JoinPredicate(S.getTupleDesc().fieldNameToIndex("S.sid"),
+        DbIterator R1 = new HashJoin(new JoinPredicate(S.getTupleDesc().fieldNameToIndex("S.sid"),
                 Op.EQUALS, T.getTupleDesc().fieldNameToIndex("T.sid")), S, T);
-        DbIterator R2 = new Join(new JoinPredicate(R1.getTupleDesc().fieldNameToIndex("T.cid"),
+        DbIterator R2 = new HashJoin(new JoinPredicate(R1.getTupleDesc().fieldNameToIndex("T.cid"),
                 Op.EQUALS, P1.getTupleDesc().fieldNameToIndex("P.favoriteCourse")), R1, P1);
         DbIterator projectNames = new Project(new ArrayList<>(Arrays.asList(R2.getTupleDesc().fieldNameToIndex("S.name"))),
                 new Type[]{STRING_TYPE}, R2);
@@ -0,0 +1,155 @@
+package colgatedb.main;
+
+import colgatedb.AccessManagerImpl;
+import colgatedb.BufferManagerImpl;
+import colgatedb.Database;
+import colgatedb.DiskManagerImpl;
+import colgatedb.dbfile.HeapFile;
+import colgatedb.logging.LogFileImpl;
+import colgatedb.page.SimplePageId;
+import colgatedb.page.SlottedPage;
+import colgatedb.transactions.TransactionId;
+import colgatedb.tuple.IntField;
+import colgatedb.tuple.Tuple;
+import colgatedb.tuple.TupleDesc;
+import colgatedb.tuple.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Measures how long crash recovery takes with different numbers of redo threads.
+ * <p>
+ * The benchmark writes a log of committed tuple inserts spread over a table's pages, none of which reach
+ * the table file, and then recovers from that log once per thread count, each time starting from a fresh
+ * copy of the empty table so that every record has to be redone.
+ * <p>
+ * Usage: RecoveryBenchmark [numPages [insertsPerPage [threadCount ...]]]
+ */
+public class RecoveryBenchmark {
+
+    private static final int TABLE_ID = 0;
+    private static final int INSERTS_PER_TRANSACTION = 50;
+
+    public static void main(String[] argv) throws IOException {
+        int numPages = argv.length > 0 ? Integer.parseInt(argv[0]) : 500;
+        int insertsPerPage = argv.length > 1 ? Integer.parseInt(argv[1]) : 20;
+        int[] threadCounts = {1, 2, 4, 8};
+        if (argv.length > 2) {
+            threadCounts = new int[argv.length - 2];
+            for (int i = 2; i < argv.length; i++) {
+                threadCounts[i - 2] = Integer.parseInt(argv[i]);
+            }
+        }
+
+        int pageSize = Database.getPageSize();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+        File emptyTable = File.createTempFile("recoveryBench", ".dat");
+        File logFile = File.createTempFile("recoveryBenchLog", ".dat");
+        emptyTable.deleteOnExit();
+        logFile.deleteOnExit();
+        Database.getCatalog().addTable("bench", new HeapFile(td, pageSize, TABLE_ID, 0), "", emptyTable);
+
+        // lay out the empty table
+        DiskManagerImpl dm = useTable(pageSize, emptyTable, null);
+        for (int i = 0; i < numPages; i++) {
+            SimplePageId pid = new SimplePageId(TABLE_ID, i);
+            dm.allocatePage(pid);
+            dm.writePage(new SlottedPage(pid, td, pageSize));
+        }
+
+        System.out.println("Writing log: " + numPages + " pages, " + insertsPerPage + " inserts per page");
+        long logBytes = writeLog(logFile, td, pageSize, numPages, insertsPerPage);
+        System.out.println("Log size: " + logBytes / 1024 + " KB");
+
+        System.out.println("threads\trecovery ms\tredone");
+        for (int threads : threadCounts) {
+            File table = File.createTempFile("recoveryBench", ".dat");
+            table.deleteOnExit();
+            Files.copy(emptyTable.toPath(), table.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LogFileImpl lf = new LogFileImpl(logFile);
+            lf.setRedoThreads(threads);
+            useTable(pageSize, table, lf);
+
+            long start = System.nanoTime();
+            lf.recover();
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println(threads + "\t" + millis + "\t\t" + lf.getRedoApplied());
+            new File(table.getPath() + DiskManagerImpl.LSN_FILE_SUFFIX).delete();
+        }
+        LogFileImpl.deleteLogFiles(logFile);
+    }
+
+    /**
+     * Points the database at a disk manager for the given table file and at the given log.
+     */
+    private static DiskManagerImpl useTable(int pageSize, File table, LogFileImpl lf) {
+        DiskManagerImpl dm = new DiskManagerImpl(pageSize);
+        dm.addFileEntry(TABLE_ID, table.getAbsolutePath());
+        BufferManagerImpl bm = new BufferManagerImpl(10, dm);
+        Database.setDiskManager(dm);
+        Database.setBufferManager(bm);
+        Database.setAccessManager(new AccessManagerImpl(bm));
+        if (lf != null) {
+            Database.setLogFile(lf);
+        }
+        return dm;
+    }
+
+    /**
+     * Logs committed inserts round-robin over the pages without writing any page to the table.
+     * @return size of the log in bytes
+     */
+    private static long writeLog(File logFile, TupleDesc td, int pageSize, int numPages, int insertsPerPage)
+            throws IOException {
+        LogFileImpl lf = new LogFileImpl(logFile);
+        Database.setLogFile(lf);
+        SlottedPage[] pages = new SlottedPage[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = new SlottedPage(new SimplePageId(TABLE_ID, i), td, pageSize);
+            pages[i].setBeforeImage();
+        }
+        TransactionId tid = null;
+        int inserts = 0;
+        for (int round = 0; round < insertsPerPage; round++) {
+            for (SlottedPage page : pages) {
+                if (tid == null) {
+                    tid = new TransactionId();
+                    lf.logXactionBegin(tid);
+                }
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(round));
+                t.setField(1, new IntField(page.getId().pageNumber()));
+                page.insertTuple(t);
+                lf.logWrite(tid, page.getBeforeImage(), page);
+                page.setBeforeImage();
+                if (++inserts % INSERTS_PER_TRANSACTION == 0) {
+                    lf.logCommit(tid);
+                    tid = null;
+                }
+            }
+        }
+        if (tid != null) {
+            lf.logCommit(tid);
+        }
+        lf.force();
+        return lf.getLogSize();
+    }
+}
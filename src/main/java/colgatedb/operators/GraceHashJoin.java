@@ -0,0 +1,445 @@
+package colgatedb.operators;
+
+import colgatedb.Database;
+import colgatedb.DbException;
+import colgatedb.DiskManagerImpl;
+import colgatedb.page.SimplePageId;
+import colgatedb.page.SlottedPage;
+import colgatedb.page.SlottedPageMaker;
+import colgatedb.transactions.TransactionAbortedException;
+import colgatedb.tuple.Field;
+import colgatedb.tuple.Op;
+import colgatedb.tuple.Tuple;
+import colgatedb.tuple.TupleDesc;
+
+import java.util.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * The GraceHashJoin operator implements an equi-join whose build side need not fit in memory.
+ * <p>
+ * The right (second) child is the build side.  Its tuples are hashed on the join field into a fixed
+ * number of partitions, each with its own in-memory hash table.  Whenever the partitions in memory hold
+ * more tuples than fit in the memory budget, the largest one is spilled: its tuples, and any more that
+ * hash to it, are written to a temporary file through the disk manager.  The left child is then read
+ * once.  A tuple whose partition is in memory is joined right away; the others are written to their
+ * partition's probe file.  Finally the spilled partitions are joined one at a time, by building a
+ * hash table on the partition's build file and probing it with its probe file.  A spilled partition
+ * that is itself too big is built a budget's worth at a time, reading its probe file once for each.
+ * <p>
+ * When the build side fits in the budget nothing is written, and this is an ordinary hash join.  The
+ * budget counts build-side tuples only, as pages full of them; each spilled partition also needs one
+ * page of buffer for each of its files.
+ */
+public class GraceHashJoin extends Operator {
+
+    public static final int DEFAULT_PARTITIONS = 16;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private boolean open;
+    private TupleDesc td;
+    private final int memoryPages;
+    private final int numPartitions;
+    private DiskManagerImpl dm;
+    private int memoryTuples;                // how many build tuples fit in the budget
+    private Partition[] partitions;
+    private boolean probedChild1;            // true once every left tuple has been joined or spilled
+    private int nextPartition;               // the next partition to look at for spilled work
+    private Partition joining;               // the spilled partition being joined
+    private Iterator<Tuple> buildRest;       // joining's build tuples not yet loaded
+    private Map<Field, List<Tuple>> chunk;   // joining's build tuples currently in memory
+    private Iterator<Tuple> probes;          // joining's probe tuples not yet matched against chunk
+    private Tuple probe;                     // the left tuple being matched
+    private Iterator<Tuple> matches;         // the build tuples matching probe not yet returned
+    private Tuple current;
+
+    private long spilledPartitions = 0;
+    private long spillPagesWritten = 0;
+    private long spillPagesRead = 0;
+
+    /**
+     * Creates a join with {@link #DEFAULT_PARTITIONS} partitions.
+     * @see #GraceHashJoin(JoinPredicate, DbIterator, DbIterator, int, int)
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages) {
+        this(p, child1, child2, memoryPages, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * @param p             The predicate to use to join the children; must be {@link Op#EQUALS}
+     * @param child1        Iterator for the left relation to join, the probe side
+     * @param child2        Iterator for the right relation to join, the build side
+     * @param memoryPages   how many pages of build tuples may be kept in memory
+     * @param numPartitions how many partitions the build side is hashed into
+     * @throws DbException if the predicate is not an equality or the budget is too small
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int memoryPages,
+                         int numPartitions) {
+        if (p.getOperator() != Op.EQUALS) {
+            throw new DbException("GraceHashJoin only supports equi-joins, not " + p.getOperator());
+        }
+        if (memoryPages < 1 || numPartitions < 2) {
+            throw new DbException("Need at least 1 page of memory and 2 partitions, got " + memoryPages +
+                    " and " + numPartitions);
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.numPartitions = numPartitions;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        dm = Database.getDiskManager();
+        SlottedPage empty = (SlottedPage) new SlottedPageMaker(child2.getTupleDesc(), Database.getPageSize())
+                .makePage(new SimplePageId(0, 0));
+        memoryTuples = Math.max(1, memoryPages * empty.getNumSlots());
+        build();
+        open = true;
+    }
+
+    /**
+     * Hashes the build side into partitions, spilling the largest ones while it does not fit.
+     */
+    private void build() throws TransactionAbortedException {
+        partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new Partition();
+        }
+        int inMemory = 0;
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            Partition partition = partitionOf(t.getField(p.getField2()));
+            if (partition.isSpilled()) {
+                partition.build.append(t);
+                continue;
+            }
+            partition.add(t);
+            inMemory++;
+            while (inMemory > memoryTuples) {
+                Partition victim = largestInMemory();
+                inMemory -= victim.size;
+                victim.spill();
+            }
+        }
+        probedChild1 = false;
+        nextPartition = 0;
+        joining = null;
+        probes = null;
+        matches = null;
+        current = null;
+    }
+
+    private Partition partitionOf(Field f) {
+        int h = f.hashCode();
+        return partitions[Math.floorMod(h ^ (h >>> 16), numPartitions)];
+    }
+
+    private Partition largestInMemory() {
+        Partition largest = null;
+        for (Partition partition : partitions) {
+            if (!partition.isSpilled() && (largest == null || partition.size > largest.size)) {
+                largest = partition;
+            }
+        }
+        return largest;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        deleteSpillFiles();
+        child1.close();
+        child2.close();
+    }
+
+    private void deleteSpillFiles() {
+        if (partitions != null) {
+            for (Partition partition : partitions) {
+                partition.delete();
+            }
+            partitions = null;
+        }
+    }
+
+    /**
+     * Starts over; both children are read again, since the build side may have been spilled.
+     */
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpillFiles();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            return false;
+        }
+        while (current == null) {
+            if (matches != null && matches.hasNext()) {
+                current = Join.mergeTuples(td, probe, matches.next());
+            } else if (!nextProbe()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // moves on to the next probe tuple, returning false if there are none left
+    private boolean nextProbe() throws TransactionAbortedException {
+        while (!probedChild1 && child1.hasNext()) {
+            Tuple t = child1.next();
+            Field key = t.getField(p.getField1());
+            Partition partition = partitionOf(key);
+            if (partition.isSpilled()) {
+                partition.probeFile().append(t);
+            } else {
+                probe = t;
+                matches = bucket(partition.table, key);
+                return true;
+            }
+        }
+        probedChild1 = true;
+        while (true) {
+            if (probes != null && probes.hasNext()) {
+                probe = probes.next();
+                matches = bucket(chunk, probe.getField(p.getField1()));
+                return true;
+            }
+            if (joining != null && buildRest.hasNext()) {
+                loadChunk();      // the partition did not fit: go through its probe tuples again
+                continue;
+            }
+            if (joining != null) {
+                joining.delete();
+                joining = null;
+            }
+            if (!startNextPartition()) {
+                return false;
+            }
+        }
+    }
+
+    // starts joining the next spilled partition that has tuples on both sides
+    private boolean startNextPartition() {
+        while (nextPartition < numPartitions) {
+            Partition partition = partitions[nextPartition++];
+            if (partition.isSpilled() && partition.probe != null) {
+                joining = partition;
+                buildRest = partition.build.iterator();
+                loadChunk();
+                return true;
+            }
+            partition.delete();
+        }
+        return false;
+    }
+
+    // loads the next budget's worth of joining's build tuples and rereads its probe tuples
+    private void loadChunk() {
+        chunk = new HashMap<>();
+        for (int n = 0; n < memoryTuples && buildRest.hasNext(); n++) {
+            Tuple t = buildRest.next();
+            chunk.computeIfAbsent(t.getField(p.getField2()), f -> new ArrayList<>()).add(t);
+        }
+        probes = joining.probe.iterator();
+    }
+
+    private static Iterator<Tuple> bucket(Map<Field, List<Tuple>> table, Field key) {
+        List<Tuple> bucket = table.get(key);
+        return bucket == null ? null : bucket.iterator();
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more tuples!");
+        }
+        Tuple tuple = current;
+        current = null;
+        return tuple;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of partitions spilled to disk since this operator was created
+     */
+    public long getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of pages written to spill files since this operator was created
+     */
+    public long getSpillPagesWritten() {
+        return spillPagesWritten;
+    }
+
+    /**
+     * @return the number of pages read back from spill files since this operator was created
+     */
+    public long getSpillPagesRead() {
+        return spillPagesRead;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 2) {
+            throw new DbException("Expected 2 children!");
+        }
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+    /**
+     * One partition of both inputs: a hash table of build tuples until it is spilled, and a build file
+     * and probe file after.
+     */
+    private class Partition {
+        private Map<Field, List<Tuple>> table = new HashMap<>();
+        private int size = 0;
+        private SpillFile build;
+        private SpillFile probe;
+
+        private boolean isSpilled() {
+            return build != null;
+        }
+
+        private void add(Tuple t) {
+            table.computeIfAbsent(t.getField(p.getField2()), f -> new ArrayList<>()).add(t);
+            size++;
+        }
+
+        private void spill() {
+            build = new SpillFile(child2.getTupleDesc());
+            for (List<Tuple> tuples : table.values()) {
+                for (Tuple t : tuples) {
+                    build.append(t);
+                }
+            }
+            table = null;
+            size = 0;
+            spilledPartitions++;
+        }
+
+        private SpillFile probeFile() {
+            if (probe == null) {
+                probe = new SpillFile(child1.getTupleDesc());
+            }
+            return probe;
+        }
+
+        private void delete() {
+            if (build != null) {
+                build.delete();
+                build = null;
+            }
+            if (probe != null) {
+                probe.delete();
+                probe = null;
+            }
+            table = null;
+        }
+    }
+
+    /**
+     * A temporary file of tuples, written a page at a time through the disk manager.
+     */
+    private class SpillFile {
+        private final int tableId;
+        private final SlottedPageMaker pageMaker;
+        private int numPages = 0;
+        private SlottedPage buffer;   // the page being filled, not yet written
+
+        private SpillFile(TupleDesc td) {
+            tableId = dm.createTempFile();
+            pageMaker = new SlottedPageMaker(td, Database.getPageSize());
+        }
+
+        private void append(Tuple t) {
+            if (buffer == null) {
+                buffer = (SlottedPage) pageMaker.makePage(new SimplePageId(tableId, numPages));
+            }
+            buffer.insertTuple(t.copy());   // inserting sets the tuple's RecordId, so keep the child's intact
+            if (buffer.getNumEmptySlots() == 0) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (buffer != null) {
+                dm.allocatePage(buffer.getId());
+                dm.writePage(buffer);
+                numPages++;
+                spillPagesWritten++;
+                buffer = null;
+            }
+        }
+
+        // the tuples in the file, read back a page at a time
+        private Iterator<Tuple> iterator() {
+            flush();
+            return new Iterator<Tuple>() {
+                private int pageNo = 0;
+                private Iterator<Tuple> page = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!page.hasNext() && pageNo < numPages) {
+                        page = ((SlottedPage) dm.readPage(new SimplePageId(tableId, pageNo++), pageMaker)).iterator();
+                        spillPagesRead++;
+                    }
+                    return page.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.next();
+                }
+            };
+        }
+
+        private void delete() {
+            dm.deleteTempFile(tableId);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package colgatedb.operators;
+
+import colgatedb.DbException;
+import colgatedb.transactions.TransactionAbortedException;
+import colgatedb.tuple.Field;
+import colgatedb.tuple.Op;
+import colgatedb.tuple.Tuple;
+import colgatedb.tuple.TupleDesc;
+
+import java.util.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * The HashJoin operator implements an equi-join by building an in-memory hash table on one input and
+ * probing it with the other, so that each input is read only once.
+ * <p>
+ * The table is built on the smaller input.  Since the sizes of the inputs are not known in advance,
+ * open reads from both children in turn until one of them runs out: that one is the build side, and
+ * the tuples already read from the other are probed first.  The output is the same as {@link Join}'s,
+ * the left tuple followed by the right one, though possibly in a different order.
+ */
+public class HashJoin extends Operator {
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private boolean open;
+    private TupleDesc td;
+    private Map<Field, List<Tuple>> table;   // the build side's tuples, by their join field
+    private boolean buildLeft;               // true if child1 is the build side
+    private Deque<Tuple> probeBuffer;        // probe tuples read while looking for the smaller input
+    private Tuple probe;                     // the probe tuple being matched
+    private Iterator<Tuple> matches;         // the build tuples matching probe not yet returned
+    private Tuple current;
+
+    /**
+     * @param p      The predicate to use to join the children; must be {@link Op#EQUALS}
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     * @throws DbException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Op.EQUALS) {
+            throw new DbException("HashJoin only supports equi-joins, not " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        open = true;
+    }
+
+    /**
+     * Reads the smaller input into the hash table.
+     */
+    private void build() throws TransactionAbortedException {
+        List<Tuple> left = new ArrayList<>();
+        List<Tuple> right = new ArrayList<>();
+        while (true) {
+            if (!child1.hasNext()) {
+                buildLeft = true;
+                break;
+            }
+            left.add(child1.next());
+            if (!child2.hasNext()) {
+                buildLeft = false;
+                break;
+            }
+            right.add(child2.next());
+        }
+        table = new HashMap<>();
+        int buildField = buildLeft ? p.getField1() : p.getField2();
+        for (Tuple t : buildLeft ? left : right) {
+            table.computeIfAbsent(t.getField(buildField), f -> new ArrayList<>()).add(t);
+        }
+        probeBuffer = new ArrayDeque<>(buildLeft ? right : left);
+        probe = null;
+        matches = null;
+        current = null;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        table = null;
+        probeBuffer = null;
+        child1.close();
+        child2.close();
+    }
+
+    /**
+     * Starts the probe side over; the hash table is kept.
+     */
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        probeChild().rewind();
+        probeBuffer.clear();
+        probe = null;
+        matches = null;
+        current = null;
+    }
+
+    private DbIterator probeChild() {
+        return buildLeft ? child2 : child1;
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            return false;
+        }
+        while (current == null) {
+            if (matches != null && matches.hasNext()) {
+                Tuple match = matches.next();
+                current = buildLeft ? Join.mergeTuples(td, match, probe) : Join.mergeTuples(td, probe, match);
+            } else if (!nextProbe()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // moves on to the next probe tuple, returning false if there are none left
+    private boolean nextProbe() throws TransactionAbortedException {
+        if (!probeBuffer.isEmpty()) {
+            probe = probeBuffer.poll();
+        } else if (probeChild().hasNext()) {
+            probe = probeChild().next();
+        } else {
+            return false;
+        }
+        int probeField = buildLeft ? p.getField2() : p.getField1();
+        List<Tuple> bucket = table.get(probe.getField(probeField));
+        matches = bucket == null ? null : bucket.iterator();
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more tuples!");
+        }
+        Tuple tuple = current;
+        current = null;
+        return tuple;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return true if the hash table was built on the left (first) child
+     */
+    public boolean isBuildLeft() {
+        return buildLeft;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length != 2) {
+            throw new DbException("Expected 2 children!");
+        }
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -115,11 +115,15 @@ public class Join extends Operator {
         return false;
     }
 
+    private Tuple mergeTuples(Tuple t1, Tuple t2){
+        return mergeTuples(td, t1, t2);
+    }
+
     /**
      * given two tuples, merge them into a new tuple
-     * having this.td as its TupleDesc
+     * having td as its TupleDesc
      */
-    private Tuple mergeTuples(Tuple t1, Tuple t2){
+    static Tuple mergeTuples(TupleDesc td, Tuple t1, Tuple t2){
         Tuple tuple = new Tuple(td);
         int t1NumFields = t1.getTupleDesc().numFields();
         int t2NumFields = t2.getTupleDesc().numFields();
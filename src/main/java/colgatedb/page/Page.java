@@ -23,6 +23,11 @@ package colgatedb.page;
  */
 public interface Page {
 
+    /**
+     * Page LSN of a page that has never been logged, or whose page type does not track LSNs.
+     */
+    long NO_LSN = -1;
+
     /**
      * Return the id of this page.  The id is a unique identifier for a page
      * that can be used to look up the page on disk or determine if the page
@@ -56,4 +61,17 @@ public interface Page {
      */
     void setBeforeImage();
 
+    /**
+     * Returns the LSN of the last log record that changed this page.  The log sets it when it logs a
+     * change to the page, and the disk manager saves it alongside the page so that recovery can tell
+     * whether the copy on disk already reflects a log record.  Pages that do not track LSNs return
+     * {@link #NO_LSN}, and recovery then redoes every change to them.
+     */
+    default long getPageLSN() {
+        return NO_LSN;
+    }
+
+    default void setPageLSN(long lsn) {
+    }
+
 }
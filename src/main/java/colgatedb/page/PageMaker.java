@@ -1,5 +1,7 @@
 package colgatedb.page;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by mhay on 6/8/16.
  */
@@ -7,6 +9,17 @@ public interface PageMaker {
 
     Page makePage(PageId pid, byte[] bytes);
 
+    /**
+     * Makes a page from a buffer holding exactly one page of data, e.g., a slice of a memory-mapped
+     * file.  The buffer may be a read-only view of the file on disk, so an implementation that keeps
+     * a reference to it must never write to it.  The default implementation copies the bytes.
+     */
+    default Page makePage(PageId pid, ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return makePage(pid, bytes);
+    }
+
     // makes empty page, used in testing only
     Page makePage(PageId pid);
 }
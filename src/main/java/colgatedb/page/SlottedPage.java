@@ -4,9 +4,10 @@ import colgatedb.Database;
 import colgatedb.tuple.RecordId;
 import colgatedb.tuple.Tuple;
 import colgatedb.tuple.TupleDesc;
+import colgatedb.tuple.Type;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -29,22 +30,37 @@ import java.util.NoSuchElementException;
  * SlottedPage stores a collection of fixed-length tuples, all having the same schema.
  * Upon insertion, a tuple is assigned to a slot.  The number of slots available depends on
  * the size of the page and the schema of the tuples.
+ * <p>
+ * The page's bytes, laid out as described in {@link SlottedPageFormatter}, are the source of
+ * truth.  A tuple is only decoded when {@link #getTuple(int)} or the iterator reaches its slot,
+ * and the decoded Tuple is cached until the slot changes.  Inserts and deletes write straight
+ * into the bytes, so {@link #getPageData()} is a plain copy.
+ * <p>
+ * A page built from a {@link ByteBuffer} (e.g., a slice of a memory-mapped file) reads from that
+ * buffer until the first modification, at which point the bytes are copied into a private buffer.
+ * <p>
+ * The before image is also captured on the first modification, not when the page is built or
+ * {@link #setBeforeImage()} is called, so reading a page never copies it.
  */
 public class SlottedPage implements Page {
 
     private final PageId pid;
     private final TupleDesc td;
     private final int pageSize;
-    private Tuple[] slots;
-    private int numSlots;
-    private BitSet header;
-    // you will want to include additional instance variables here.
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    private ByteBuffer data;       // page bytes, indexed absolutely from 0
+    private boolean shared;        // true if data is a view we do not own and must copy before writing
+    private Tuple[] slots;         // decoded tuples, null for empty or not-yet-decoded slots
+    private int numUsed;
+    private volatile long pageLSN = NO_LSN;
 
     // ------------------------------------------------
     // oldData fields:
     // these are used for logging and recovery -- you can ignore for now
-    private final Byte oldDataLock = (byte) 0;
-    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    byte[] oldData;      // null while the page is unchanged since the before image was set
     // ------------------------------------------------
 
     /**
@@ -54,13 +70,7 @@ public class SlottedPage implements Page {
      * @param pageSize the size of this page
      */
     public SlottedPage(PageId pid, TupleDesc td, int pageSize) {
-        this.pid = pid;
-        this.td = td;
-        this.pageSize = pageSize;
-        this.numSlots = SlottedPageFormatter.computePageCapacity(pageSize, td);
-        slots = new Tuple[numSlots];
-        header = new BitSet(numSlots);
-        setBeforeImage();  // used for logging, leave this line at end of constructor
+        this(pid, td, pageSize, ByteBuffer.allocate(pageSize), false);
     }
 
     public SlottedPage(PageId pid, byte[] bytes) {
@@ -68,16 +78,43 @@ public class SlottedPage implements Page {
     }
 
     /**
-     * Constructs SlottedPage with its data initialized according to last parameter
+     * Constructs SlottedPage with its data initialized according to last parameter.  The array
+     * becomes the page's backing store (it is not copied), so the caller must not modify it afterwards.
      * @param pid  page id to assign to this page
      * @param td   the schema for tuples held on this page
      * @param pageSize the size of this page
      * @param data data with which to initialize page content
      */
     public SlottedPage(PageId pid, TupleDesc td, int pageSize, byte[] data) {
-        this(pid, td, pageSize);
-        setPageData(data);
-        setBeforeImage();  // used for logging, leave this line at end of constructor
+        this(pid, td, pageSize, ByteBuffer.wrap(data, 0, pageSize).slice(), false);
+    }
+
+    /**
+     * Constructs SlottedPage with its data initialized from a buffer, which may be a read-only
+     * view of a memory-mapped file.  The buffer is read in place and copied on first modification.
+     * @param pid  page id to assign to this page
+     * @param td   the schema for tuples held on this page
+     * @param pageSize the size of this page
+     * @param data buffer holding the page content between its position and limit
+     */
+    public SlottedPage(PageId pid, TupleDesc td, int pageSize, ByteBuffer data) {
+        this(pid, td, pageSize, data.slice(), true);
+    }
+
+    private SlottedPage(PageId pid, TupleDesc td, int pageSize, ByteBuffer data, boolean shared) {
+        if (data.capacity() < pageSize) {
+            throw new PageException("Expected " + pageSize + " bytes of page data but got " + data.capacity());
+        }
+        this.pid = pid;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.numSlots = SlottedPageFormatter.computePageCapacity(pageSize, td);
+        this.headerSize = SlottedPageFormatter.getHeaderSize(numSlots);
+        this.tupleSize = td.getSize();
+        this.data = data;
+        this.shared = shared;
+        this.slots = new Tuple[numSlots];
+        this.numUsed = countUsedSlots();
     }
 
     @Override
@@ -85,12 +122,22 @@ public class SlottedPage implements Page {
         return this.pid;
     }
 
+    /**
+     * @return the schema of the tuples stored on this page
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
     /**
      * @param slotno the slot number
      * @return true if this slot is used (i.e., is occupied by a Tuple).
      */
     public boolean isSlotUsed(int slotno) {
-        return header.get(slotno);
+        if (slotno < 0 || slotno >= numSlots) {
+            return false;
+        }
+        return (data.get(slotno / 8) & (1 << (slotno % 8))) != 0;
     }
 
     /**
@@ -114,7 +161,7 @@ public class SlottedPage implements Page {
      * @return the number of slots on this page that are empty.
      */
     public int getNumEmptySlots() {
-        return this.numSlots - this.header.cardinality();
+        return this.numSlots - this.numUsed;
     }
 
     /**
@@ -123,9 +170,14 @@ public class SlottedPage implements Page {
      * @throws PageException if slot is empty
      */
     public Tuple getTuple(int slotno) {
-        if(!header.get(slotno))
+        if(!isSlotUsed(slotno))
             throw new PageException("This slot is Empty!!");
-        return slots[slotno];
+        Tuple t = slots[slotno];
+        if (t == null) {
+            t = decodeTuple(slotno);
+            slots[slotno] = t;
+        }
+        return t;
     }
 
     /**
@@ -140,11 +192,17 @@ public class SlottedPage implements Page {
      *                          passed tuple is a mismatch with TupleDesc of this page.
      */
     public void insertTuple(int slotno, Tuple t) {
-        if(header.get(slotno))
+        if(isSlotUsed(slotno))
             throw new PageException("This slot is occupied!!!");
         if(!this.td.equals(t.getTupleDesc()))
             throw new PageException("This tuple has incorrect schema!!");
-        header.set(slotno);
+        ensureWritable();
+        int offset = slotOffset(slotno);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(data, offset);
+            offset += td.getFieldType(i).getLen();
+        }
+        markSlot(slotno, true);
         slots[slotno] = t;
         t.setRecordId(new RecordId(this.pid, slotno));
     }
@@ -162,7 +220,7 @@ public class SlottedPage implements Page {
     public void insertTuple(Tuple t) throws PageException {
         if(this.getNumEmptySlots() == 0)
             throw new PageException("This Page is Full!!");
-        insertTuple(header.nextClearBit(0), t);
+        insertTuple(nextEmptySlot(0), t);
     }
 
     /**
@@ -178,12 +236,54 @@ public class SlottedPage implements Page {
             throw new PageException("This Tuple Does not Have a Record ID!!!");
         if(!t.getRecordId().getPageId().equals(this.pid))
             throw new PageException("This Tuple is not on this page!!");
-        if(!header.get(t.getRecordId().tupleno()))
+        int slotno = t.getRecordId().tupleno();
+        if(!isSlotUsed(slotno))
             throw  new PageException("This tuple has already been deleted");
-        header.set(t.getRecordId().tupleno(), false);
+        ensureWritable();
+        markSlot(slotno, false);
+        int offset = slotOffset(slotno);
+        for (int i = 0; i < tupleSize; i++) {
+            data.put(offset + i, (byte) 0);  // empty slots are zeroed out on disk
+        }
+        slots[slotno] = null;
         t.setRecordId(null);
     }
 
+    /**
+     * @param slotno the slot of interest
+     * @return a copy of the bytes of the tuple in the given slot, or null if the slot is empty
+     */
+    public byte[] getSlotData(int slotno) {
+        if (!isSlotUsed(slotno)) {
+            return null;
+        }
+        byte[] bytes = new byte[tupleSize];
+        ByteBuffer view = data.duplicate();
+        view.position(slotOffset(slotno));
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Puts a slot into a state returned by {@link #getSlotData(int)}, whatever its state now.  Used to
+     * undo and redo logged changes to a single slot.
+     *
+     * @param slotno the slot to change
+     * @param bytes the bytes of the tuple to store in the slot, or null to empty it
+     */
+    public void setSlotData(int slotno, byte[] bytes) {
+        if (bytes != null && bytes.length != tupleSize) {
+            throw new PageException("Expected " + tupleSize + " bytes of tuple data but got " + bytes.length);
+        }
+        ensureWritable();
+        int offset = slotOffset(slotno);
+        for (int i = 0; i < tupleSize; i++) {
+            data.put(offset + i, bytes == null ? (byte) 0 : bytes[i]);
+        }
+        markSlot(slotno, bytes != null);
+        slots[slotno] = null;   // decoded again when next read
+    }
+
     /**
      * Creates an iterator over the (non-empty) slots of the page.
      *
@@ -195,7 +295,7 @@ public class SlottedPage implements Page {
     }
 
     class SlottedPageIterator implements Iterator<Tuple>{
-        int currInd = header.nextSetBit(0);
+        int currInd = nextUsedSlot(0);
         @Override
         public boolean hasNext() {
             return  currInd >= 0 && currInd < numSlots;
@@ -206,8 +306,8 @@ public class SlottedPage implements Page {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            Tuple next = slots[currInd];
-            currInd = header.nextSetBit(currInd+1);
+            Tuple next = getTuple(currInd);
+            currInd = nextUsedSlot(currInd+1);
             return next;
         }
 
@@ -219,22 +319,18 @@ public class SlottedPage implements Page {
 
     @Override
     public byte[] getPageData() {
-         return SlottedPageFormatter.pageToBytes(this, this.td, this.pageSize);
-    }
-
-    /**
-     * Fill the contents of this according to the data stored in byte array.
-     * @param data
-     */
-    private void setPageData(byte[] data) {
-         SlottedPageFormatter.bytesToPage(data, this, this.td);
+        byte[] bytes = new byte[pageSize];
+        ByteBuffer view = data.duplicate();
+        view.position(0);
+        view.get(bytes, 0, pageSize);
+        return bytes;
     }
 
     @Override
     public Page getBeforeImage() {
         byte[] oldDataRef;
         synchronized (oldDataLock) {
-            oldDataRef = Arrays.copyOf(oldData, oldData.length);
+            oldDataRef = oldData == null ? getPageData() : Arrays.copyOf(oldData, oldData.length);
         }
         return new SlottedPage(pid, td, pageSize, oldDataRef);
     }
@@ -242,8 +338,113 @@ public class SlottedPage implements Page {
     @Override
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;   // the current content; copied when the page next changes
+        }
+    }
+
+    @Override
+    public long getPageLSN() {
+        return pageLSN;
+    }
+
+    @Override
+    public void setPageLSN(long lsn) {
+        pageLSN = lsn;
+    }
+
+    private int slotOffset(int slotno) {
+        return headerSize + slotno * tupleSize;
+    }
+
+    private Tuple decodeTuple(int slotno) {
+        Tuple t = new Tuple(td);
+        int offset = slotOffset(slotno);
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            t.setField(i, type.parse(data, offset));
+            offset += type.getLen();
+        }
+        t.setRecordId(new RecordId(this.pid, slotno));
+        return t;
+    }
+
+    /**
+     * Captures the before image if this is the first change since it was set, and copies the page
+     * bytes into a private buffer if we are still reading from a shared view.
+     */
+    private void ensureWritable() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+        if (shared || data.isReadOnly()) {
+            ByteBuffer copy = ByteBuffer.allocate(pageSize);
+            ByteBuffer view = data.duplicate();
+            view.position(0);
+            view.limit(pageSize);
+            copy.put(view);
+            data = copy;
+            shared = false;
+        }
+    }
+
+    private void markSlot(int slotno, boolean used) {
+        int byteNum = slotno / 8;
+        int mask = 1 << (slotno % 8);
+        byte b = data.get(byteNum);
+        boolean wasUsed = (b & mask) != 0;
+        if (used && !wasUsed) {
+            data.put(byteNum, (byte) (b | mask));
+            numUsed++;
+        } else if (!used && wasUsed) {
+            data.put(byteNum, (byte) (b & ~mask));
+            numUsed--;
+        }
+    }
+
+    private int countUsedSlots() {
+        int count = 0;
+        for (int i = 0; i < headerSize; i++) {
+            int b = data.get(i) & 0xff;
+            if (i == headerSize - 1 && numSlots % 8 != 0) {
+                b &= (1 << (numSlots % 8)) - 1;  // ignore bits past the last slot
+            }
+            count += Integer.bitCount(b);
+        }
+        return count;
+    }
+
+    /**
+     * @return the first used slot at or after from, or -1 if there is none
+     */
+    private int nextUsedSlot(int from) {
+        for (int i = from; i < numSlots; i++) {
+            if ((i % 8) == 0 && data.get(i / 8) == 0) {
+                i += 7;  // whole header byte is empty
+                continue;
+            }
+            if (isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first empty slot at or after from, or -1 if there is none
+     */
+    private int nextEmptySlot(int from) {
+        for (int i = from; i < numSlots; i++) {
+            if ((i % 8) == 0 && data.get(i / 8) == (byte) 0xff) {
+                i += 7;  // whole header byte is full
+                continue;
+            }
+            if (!isSlotUsed(i)) {
+                return i;
+            }
         }
+        return -1;
     }
 
 }
@@ -6,6 +6,7 @@ import colgatedb.tuple.TupleDesc;
 import colgatedb.tuple.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Iterator;
@@ -147,12 +148,23 @@ public class SlottedPageFormatter {
      * @param td the TupleDesc of tuples on this page
      */
     public static void bytesToPage(byte[] bytes, SlottedPage emptyPage, TupleDesc td) {
+        bytesToPage(ByteBuffer.wrap(bytes), emptyPage, td);
+    }
+
+    /**
+     * Same as {@link #bytesToPage(byte[], SlottedPage, TupleDesc)} but reads from a buffer, which
+     * may be a read-only view of a memory-mapped file.  The buffer's position is not changed.
+     * @param data buffer holding the page data between its position and limit
+     * @param emptyPage an initially emptyPage to be populated
+     * @param td the TupleDesc of tuples on this page
+     */
+    public static void bytesToPage(ByteBuffer data, SlottedPage emptyPage, TupleDesc td) {
         try {
-            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+            DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
             //read header into a byte array from input "bytes"
             int headerSize = getHeaderSize(emptyPage.getNumSlots());
             byte[] header = new byte[headerSize];
-            dis.read(header, 0, headerSize);
+            dis.readFully(header, 0, headerSize);
             int i = 0;
             int j;
             while(i < emptyPage.getNumSlots()){
@@ -203,4 +215,41 @@ public class SlottedPageFormatter {
         }
     }
 
+    /**
+     * Minimal InputStream over a ByteBuffer so that fields can be parsed straight out of the
+     * buffer without first copying it into a byte array.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        private ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+    }
+
 }
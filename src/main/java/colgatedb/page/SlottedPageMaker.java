@@ -2,6 +2,8 @@ package colgatedb.page;
 
 import colgatedb.tuple.TupleDesc;
 
+import java.nio.ByteBuffer;
+
 /**
  * ColgateDB
  * @author Michael Hay mhay@colgate.edu
@@ -31,6 +33,11 @@ public class SlottedPageMaker implements PageMaker {
         return new SlottedPage(pid, td, pageSize, bytes);
     }
 
+    @Override
+    public Page makePage(PageId pid, ByteBuffer data) {
+        return new SlottedPage(pid, td, pageSize, data);
+    }
+
     @Override
     public Page makePage(PageId pid) {
         return new SlottedPage(pid, td, pageSize);
@@ -0,0 +1,42 @@
+package colgatedb.transactions;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * How the lock manager keeps transactions from waiting for each other forever.  A transaction is
+ * older than another if it was created first.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Keep a waits-for graph and, whenever a transaction starts to wait, search it from the new edges
+     * only.  A cycle aborts its youngest transaction.  Transactions abort only when there is a real
+     * deadlock.
+     */
+    WAITS_FOR_GRAPH,
+
+    /**
+     * No graph: a transaction may only wait for older transactions; if it would wait for a younger one
+     * it aborts itself.
+     */
+    WAIT_DIE,
+
+    /**
+     * No graph: a younger transaction waits for an older one, but an older transaction aborts ("wounds")
+     * every younger one it would have to wait for.  A wounded transaction that is not waiting aborts at
+     * its next lock request.
+     */
+    WOUND_WAIT
+}
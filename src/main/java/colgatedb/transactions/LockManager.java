@@ -1,6 +1,7 @@
 package colgatedb.transactions;
 
 import colgatedb.page.PageId;
+import colgatedb.tuple.RecordId;
 
 import java.util.List;
 
@@ -34,6 +35,40 @@ public interface LockManager {
      */
     void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException;
 
+    /**
+     * Acquires a shared or exclusive lock on a single record, after the matching intention lock on its
+     * table.  Does nothing if a lock on the table already covers the record.
+     *
+     * @param tid txn requesting the lock
+     * @param rid id of the record on which lock is desired
+     * @param perm determines whether the lock is shared (read only) or exclusive (read write)
+     * @throws TransactionAbortedException if deadlock is detected
+     */
+    void acquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException;
+
+    /**
+     * Like {@link #acquireLock(TransactionId, RecordId, Permissions)}, but gives up instead of waiting if
+     * another transaction holds a conflicting lock on the record.  It may still wait for the intention
+     * lock on the table.
+     *
+     * @param tid txn requesting the lock
+     * @param rid id of the record on which lock is desired
+     * @param perm determines whether the lock is shared (read only) or exclusive (read write)
+     * @return true if tid now holds the lock
+     * @throws TransactionAbortedException if deadlock is detected
+     */
+    boolean tryAcquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException;
+
+    /**
+     * Acquires a shared or exclusive lock on a whole table, which covers the pages and records in it.
+     *
+     * @param tid txn requesting the lock
+     * @param tableId id of the table on which lock is desired
+     * @param perm determines whether the lock is shared (read only) or exclusive (read write)
+     * @throws TransactionAbortedException if deadlock is detected
+     */
+    void acquireTableLock(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException;
+
     /**
      * Indicates whether a page with given pid is currently locked by given tid with permissions
      * AT LEAST AS STRONG as the ones specified.
@@ -48,6 +83,17 @@ public interface LockManager {
      */
     boolean holdsLock(TransactionId tid, PageId pid, Permissions perm);
 
+    /**
+     * Like {@link #holdsLock(TransactionId, PageId, Permissions)}, for a record.  A lock on the record's
+     * table counts if it is strong enough.
+     */
+    boolean holdsLock(TransactionId tid, RecordId rid, Permissions perm);
+
+    /**
+     * @return true if tid holds a lock on the whole table with permissions at least as strong as perm
+     */
+    boolean holdsTableLock(TransactionId tid, int tableId, Permissions perm);
+
     /**
      * Release the lock held by transaction tid on page with given pid and notify any waiting
      * threads.
@@ -58,6 +104,21 @@ public interface LockManager {
      */
     void releaseLock(TransactionId tid, PageId pid) throws LockManagerException;
 
+    /**
+     * Release the lock held by transaction tid on the record with given rid.
+     *
+     * @param tid transaction id
+     * @param rid record id
+     * @throws LockManagerException if tid does not hold lock on this rid
+     */
+    void releaseLock(TransactionId tid, RecordId rid) throws LockManagerException;
+
+    /**
+     * Releases every lock held by tid, on tables, pages and records.
+     * @param tid transaction id
+     */
+    void releaseAllLocks(TransactionId tid);
+
     /**
      * @param tid transaction id
      * @return a list of all of the page ids on which this transaction currently has locks
@@ -69,4 +130,19 @@ public interface LockManager {
      * @return a list of the transaction ids of the transactions holding the lock on given pid
      */
     List<TransactionId> getTidsForPage(PageId pid);
+
+    /**
+     * Sets how deadlocks are handled.  The default does nothing.
+     * @param policy the deadlock policy
+     */
+    default void setDeadlockPolicy(DeadlockPolicy policy) {
+    }
+
+    /**
+     * Sets how many page and record locks a transaction may hold in one table before they are replaced
+     * by a lock on the table; 0 turns escalation off.  The default does nothing.
+     * @param threshold the number of locks
+     */
+    default void setEscalationThreshold(int threshold) {
+    }
 }
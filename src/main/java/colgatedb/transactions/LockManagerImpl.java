@@ -1,11 +1,11 @@
 package colgatedb.transactions;
 
 import colgatedb.page.PageId;
+import colgatedb.tuple.RecordId;
 
 import java.util.*;
-
-import static colgatedb.transactions.Permissions.READ_ONLY;
-import static colgatedb.transactions.Permissions.READ_WRITE;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ColgateDB
@@ -21,340 +21,827 @@ import static colgatedb.transactions.Permissions.READ_WRITE;
  * course at Colgate.  If this file contains remnants from SimpleDB, we are
  * grateful for Sam's permission to use and adapt his materials.
  */
+/**
+ * Multiple granularity locking on tables, pages and records.
+ * <p>
+ * Pages and records are locked in shared or exclusive mode.  Before a page or record is locked, the
+ * transaction gets the matching intention lock (IS or IX, see {@link LockMode}) on its table, so that a
+ * whole table can also be locked at once with {@link #acquireTableLock}.  A table lock in S mode covers
+ * shared locks on everything in the table, and one in X mode covers all locks, so no finer locks are
+ * taken under it.  When a transaction holds more than {@link #setEscalationThreshold(int) a threshold}
+ * of page and record locks in one table, they are escalated to a single S or X lock on the table.
+ * An intention lock that no longer has any finer locks under it is dropped.
+ * <p>
+ * The lock table is split into {@link #STRIPES} stripes, each with its own monitor, so that requests
+ * for different objects in different stripes never contend.  Each lock table entry keeps a queue of the
+ * requests waiting on it, and a waiting thread blocks on its own request rather than on the lock
+ * manager.  A release grants the lock to the waiters that are now compatible with the holders and wakes
+ * only those threads.
+ * <p>
+ * Requests are granted in the order they arrive, except that an upgrade goes to the front of the queue.
+ * Since nobody is let in ahead of a waiting request, the transactions a request waits for are all known
+ * when it starts to wait, and deadlocks are dealt with once, at that point, as set by
+ * {@link #setDeadlockPolicy(DeadlockPolicy)}.
+ * <p>
+ * Locks are taken in the order stripe, then graph, then request; a request's monitor is never held
+ * while taking another lock, and no thread holds two stripes' monitors at once.
+ */
 public class LockManagerImpl implements LockManager {
-    private HashMap<PageId, LockTableEntry> lockTable;
-    private Graph graph;
+
+    static final int STRIPES = 16;
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    private final Stripe[] stripes;
+    private final Map<TransactionId, HeldLocks> tidLocks;     // what each txn holds a lock on; never empty
+    private final Map<TransactionId, LockRequest> waiting;    // the request each blocked txn is waiting on
+    private final Graph graph;                                // guarded by itself
+    private final Set<TransactionId> wounded;                 // wound-wait victims that still hold locks
+    private volatile DeadlockPolicy policy = DeadlockPolicy.WAITS_FOR_GRAPH;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private final AtomicLong wakeups = new AtomicLong();
+    private final AtomicLong escalations = new AtomicLong();
 
     public LockManagerImpl() {
-        lockTable = new HashMap<>();
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        tidLocks = new ConcurrentHashMap<>();
+        waiting = new ConcurrentHashMap<>();
         graph = new Graph();
+        wounded = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Sets how deadlocks are handled.  Must be called before any locks are requested.
+     */
+    @Override
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.policy = policy;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets how many page and record locks a transaction may hold in one table before they are escalated
+     * to a table lock; 0 turns escalation off.
+     */
+    @Override
+    public void setEscalationThreshold(int threshold) {
+        this.escalationThreshold = threshold;
+    }
+
+    private Stripe stripeFor(Object key) {
+        int h = key.hashCode();
+        return stripes[Math.floorMod(h ^ (h >>> 16), STRIPES)];
     }
 
     @Override
     public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-        boolean waiting = true;
-        boolean grant = false;
-        synchronized (this) {
-        LockTableEntry tableEntry = lockTable.get(pid);
-        if(tableEntry == null){
-            tableEntry = new LockTableEntry();
-            lockTable.put(pid, tableEntry);
-        }
-        if(!holdsLock(tid, pid, perm)) { //if this transcation does not hold requested lock on this object
-            tableEntry.addToQueue(tid, perm, holdsLock(tid, pid, READ_ONLY) && perm == READ_WRITE);
-            while (waiting) {
-                    if(perm == READ_ONLY){ //if requesting shared lock
-                        if(tableEntry.isExclusive() && !holdsLock(tid, pid, READ_ONLY)){ //if this object is not exclusively held
-                            TransactionId holder = tableEntry.lockHolders.iterator().next();
-                            if (deadlockPrevention(tid, holder)) { //abort using wait-die if deadlock detected
-                                tableEntry.pollFromQueue();
-                                throw new TransactionAbortedException();
-                            }
-                        }
-                        else grant = true;
+        lockInTable(tid, pid, pid.getTableId(), LockMode.of(perm), true);
+    }
+
+    @Override
+    public void acquireLock(TransactionId tid, RecordId rid, Permissions perm) throws TransactionAbortedException {
+        lockInTable(tid, rid, rid.getPageId().getTableId(), LockMode.of(perm), true);
+    }
+
+    @Override
+    public boolean tryAcquireLock(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        return lockInTable(tid, rid, rid.getPageId().getTableId(), LockMode.of(perm), false);
+    }
+
+    @Override
+    public void acquireTableLock(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        lock(tid, new TableLock(tableId), LockMode.of(perm));
+    }
+
+    /**
+     * Locks a page or record, unless a lock on its table already covers it, after getting the intention
+     * lock on the table.
+     * @param wait if false, give up instead of waiting for the page or record (but not for the table)
+     * @return true if tid now holds the lock
+     */
+    private boolean lockInTable(TransactionId tid, Object key, int tableId, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        TableLock table = new TableLock(tableId);
+        LockMode tableMode = heldMode(tid, table);
+        if (tableMode != null && tableMode.covers(mode)) {
+            return true;
+        }
+        lock(tid, table, mode.intention());
+        boolean granted = false;
+        try {
+            if (wait) {
+                lock(tid, key, mode);
+                granted = true;
+            } else {
+                granted = tryLock(tid, key, mode);
+            }
+        } finally {
+            if (!granted) {
+                dropIntentionIfUnused(tid, table);   // the intention may be unused
+            }
+        }
+        if (!granted) {
+            return false;
+        }
+        HeldLocks held = tidLocks.get(tid);
+        int threshold = escalationThreshold;
+        if (threshold > 0 && held != null && held.countIn(tableId) > threshold) {
+            escalate(tid, table, held);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces tid's page and record locks in a table with one table lock: X if it has locked anything
+     * exclusively there, S otherwise.
+     */
+    private void escalate(TransactionId tid, TableLock table, HeldLocks held) throws TransactionAbortedException {
+        LockMode mode = heldMode(tid, table) == LockMode.IS ? LockMode.S : LockMode.X;
+        lock(tid, table, mode);
+        for (Object key : held.keysIn(table.tableId)) {
+            release(tid, key);
+        }
+        escalations.incrementAndGet();
+    }
+
+    /**
+     * Acquires mode on the object with the given key, waiting as long as needed.  A transaction that
+     * already holds a weaker mode asks for the combination of the two.
+     */
+    private void lock(TransactionId tid, Object key, LockMode mode) throws TransactionAbortedException {
+        if (policy == DeadlockPolicy.WOUND_WAIT && wounded.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        Stripe stripe = stripeFor(key);
+        LockTableEntry tableEntry;
+        LockRequest request;
+        boolean abort;
+        synchronized (stripe) {
+            tableEntry = stripe.table.computeIfAbsent(key, p -> new LockTableEntry());
+            if (tableEntry.holds(tid, mode)) {
+                return;
+            }
+            LockMode current = tableEntry.holders.get(tid);
+            LockMode target = current == null ? mode : current.combine(mode);
+            if (tableEntry.canGrant(tid, target)) {
+                grant(tableEntry, tid, key, target);
+                return;
+            }
+            request = tableEntry.addToQueue(tid, target);
+            waiting.put(tid, request);
+            if (current != null) {
+                // an upgrade jumps the queue, so the waiters that tid's old mode did not block now wait for it
+                for (LockRequest behind : tableEntry.requests) {
+                    if (behind != request && current.compatibleWith(behind.mode)) {
+                        addedBlocker(behind, tid);
                     }
+                }
+            }
+            // under the stripe's monitor, so the request cannot be granted while the policy looks at it
+            abort = mustAbort(tid, tableEntry.blockers(request));
+        }
+        try {
+            if (!abort) {
+                request.await();
+                wakeups.incrementAndGet();
+            }
+            if (!request.isGranted()) {
+                abandon(stripe, key, tableEntry, request);   // aborted now, or chosen as a victim while waiting
+            }
+        } finally {
+            waiting.remove(tid);
+            if (policy == DeadlockPolicy.WAITS_FOR_GRAPH) {
+                synchronized (graph) {
+                    graph.removeEdgesFrom(tid);
+                }
+            }
+        }
+    }
 
-                    else { //if requesting exclusive lock
-                        if(tableEntry.isUsed()){ //if this object is locked
-                            if(tableEntry.lockHolders.size() == 1 && holdsLock(tid, pid, READ_ONLY)){ //if it is an upgrade request and nobody else is holding this lock
-                                grant = true;
-                            }
-                            else {
-                                //if deadlock detected, abort using wait-die
-                                for (TransactionId holder : tableEntry.lockHolders) {
-                                    graph.addEdge(tid, holder);
-                                    if (deadlockPrevention(tid, holder)) {
-                                        tableEntry.pollFromQueue();
-                                        throw new TransactionAbortedException();
-                                    }
-                                }
-                            }
-                        }
-                        else if(tableEntry.atFront(tid, perm)){ //if this request is at the front of queue
-                            grant = true;
-                        }
+    /**
+     * Acquires mode on the object with the given key if that can be done without waiting.
+     * @return true if the lock was granted
+     */
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) throws TransactionAbortedException {
+        if (policy == DeadlockPolicy.WOUND_WAIT && wounded.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            LockTableEntry tableEntry = stripe.table.computeIfAbsent(key, p -> new LockTableEntry());
+            if (tableEntry.holds(tid, mode)) {
+                return true;
+            }
+            LockMode current = tableEntry.holders.get(tid);
+            LockMode target = current == null ? mode : current.combine(mode);
+            if (tableEntry.canGrant(tid, target)) {
+                grant(tableEntry, tid, key, target);
+                return true;
+            }
+            dropIfUnused(stripe, key, tableEntry);
+            return false;
+        }
+    }
+
+    // the mode tid holds on the object with the given key, or null
+    private LockMode heldMode(TransactionId tid, Object key) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            LockTableEntry tableEntry = stripe.table.get(key);
+            return tableEntry == null ? null : tableEntry.holders.get(tid);
+        }
+    }
+
+    /**
+     * Applies the deadlock policy to a transaction that is about to wait for blockers.  Caller must hold
+     * the monitor of the stripe the transaction waits in.
+     * @return true if the waiting transaction must abort
+     */
+    private boolean mustAbort(TransactionId tid, List<TransactionId> blockers) {
+        switch (policy) {
+            case WAIT_DIE:
+                for (TransactionId blocker : blockers) {
+                    if (isOlder(blocker, tid)) {
+                        return true;
                     }
-                    if(grant){
-                        if (perm == Permissions.READ_WRITE) {  //clear other holders if this txn is granted exclusive lock
-                            tableEntry.lockHolders.clear();
-                        }
-                        //update locktable entry
-                        tableEntry.addHolder(tid);
-                        tableEntry.setLockType(perm);
-                        tableEntry.pollFromQueue();
-                        graph.addNode(tid);
-                        for(TransactionId older: tableEntry.lockHolders){
-                            graph.removeEdge(tid, older);
+                }
+                return false;
+            case WOUND_WAIT:
+                for (TransactionId blocker : blockers) {
+                    if (isOlder(tid, blocker)) {
+                        wound(blocker);
+                    }
+                }
+                // checked after we are listed in waiting, so an older txn wounding us either sees our
+                // request or is seen here
+                return wounded.contains(tid);
+            default:
+                return closesCycle(tid, blockers);
+        }
+    }
+
+    /**
+     * Applies the deadlock policy when a request that is already waiting starts to wait for blocker too.
+     */
+    private void addedBlocker(LockRequest waiter, TransactionId blocker) {
+        List<TransactionId> blockers = Collections.singletonList(blocker);
+        boolean abortWaiter;
+        switch (policy) {
+            case WAIT_DIE:
+                abortWaiter = isOlder(blocker, waiter.tid);
+                break;
+            case WOUND_WAIT:
+                mustAbort(waiter.tid, blockers);   // wounds the blocker if it is younger
+                abortWaiter = false;
+                break;
+            default:
+                abortWaiter = closesCycle(waiter.tid, blockers);
+        }
+        if (abortWaiter) {
+            waiter.abort();
+        }
+    }
+
+    private void wound(TransactionId victim) {
+        wounded.add(victim);
+        LockRequest request = waiting.get(victim);
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    /**
+     * Adds the edges from tid to its blockers to the waits-for graph and looks for a cycle through them.
+     * Only a new edge can close a new cycle, so the search starts from the new edges and only visits
+     * what they reach.  The youngest transaction in a cycle is aborted.
+     * @return true if tid itself must abort
+     */
+    private boolean closesCycle(TransactionId tid, List<TransactionId> blockers) {
+        TransactionId victim = null;
+        synchronized (graph) {
+            for (TransactionId blocker : blockers) {
+                graph.addEdge(tid, blocker);
+            }
+            for (TransactionId blocker : blockers) {
+                List<TransactionId> cycle = graph.findPath(blocker, tid);
+                if (cycle != null) {
+                    victim = tid;
+                    for (TransactionId other : cycle) {
+                        if (isOlder(victim, other)) {
+                            victim = other;
                         }
-                        waiting = false;
                     }
-                    else {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) { }
+                    break;
+                }
+            }
+        }
+        if (victim == null || victim.equals(tid)) {
+            return victim != null;
+        }
+        // everyone in the cycle is waiting, so the victim gives up its request and aborts
+        LockRequest victimRequest = waiting.get(victim);
+        if (victimRequest != null) {
+            victimRequest.abort();
+        }
+        return false;
+    }
+
+    // transaction ids are handed out in start order
+    private static boolean isOlder(TransactionId tid1, TransactionId tid2) {
+        return tid1.getId() < tid2.getId();
+    }
+
+    /**
+     * Withdraws a waiting request and aborts its transaction, unless the request was granted meanwhile.
+     */
+    private void abandon(Stripe stripe, Object key, LockTableEntry tableEntry, LockRequest request)
+            throws TransactionAbortedException {
+        synchronized (stripe) {
+            if (request.isGranted()) {
+                return;   // the lock was handed over before the abort, so we are no longer waiting
+            }
+            tableEntry.requests.remove(request);
+            if (policy == DeadlockPolicy.WAITS_FOR_GRAPH && !tableEntry.holders.containsKey(request.tid)) {
+                // the requests queued behind this one no longer wait for it
+                synchronized (graph) {
+                    for (LockRequest other : tableEntry.requests) {
+                        graph.removeEdge(other.tid, request.tid);
                     }
                 }
             }
+            grantWaiters(tableEntry, key);
+            dropIfUnused(stripe, key, tableEntry);
         }
+        clearWoundIfIdle(request.tid);
+        throw new TransactionAbortedException();
+    }
 
+    // caller must hold the stripe's monitor
+    private void grant(LockTableEntry tableEntry, TransactionId tid, Object key, LockMode mode) {
+        tableEntry.holders.merge(tid, mode, LockMode::combine);
+        tidLocks.compute(tid, (t, held) -> {
+            if (held == null) {
+                held = new HeldLocks();
+            }
+            held.add(key);
+            return held;
+        });
     }
 
     /**
-     * add new edge to graph, detect cycle, abort using wait-die
-     * @param tid transaction issuing request
-     * @param holder lock holder
-     * @return true if current transaction is aborted
+     * Grants the lock to the queued requests, in order, until one has to keep waiting, and wakes the
+     * threads that got it.  Caller must hold the stripe's monitor.
      */
-    private synchronized boolean deadlockPrevention(TransactionId tid, TransactionId holder){
-        graph.addEdge(tid, holder);
-        if(graph.hasCycle()){
-            if(!graph.isOlder(tid, holder)){
-                graph.removeNode(tid);
-                return true;
+    private void grantWaiters(LockTableEntry tableEntry, Object key) {
+        Iterator<LockRequest> it = tableEntry.requests.iterator();
+        while (it.hasNext()) {
+            LockRequest request = it.next();
+            if (!tableEntry.isCompatible(request.tid, request.mode)) {
+                return;
+            }
+            it.remove();
+            grant(tableEntry, request.tid, key, request.mode);
+            if (policy == DeadlockPolicy.WAITS_FOR_GRAPH) {
+                synchronized (graph) {
+                    graph.removeEdgesFrom(request.tid);
+                }
             }
+            request.grant();
         }
-        return false;
+    }
+
+    // caller must hold the stripe's monitor
+    private void dropIfUnused(Stripe stripe, Object key, LockTableEntry tableEntry) {
+        if (tableEntry.holders.isEmpty() && tableEntry.requests.isEmpty()) {
+            stripe.table.remove(key);
+        }
+    }
+
+    @Override
+    public boolean holdsLock(TransactionId tid, PageId pid, Permissions perm) {
+        return holdsInTable(tid, pid, pid.getTableId(), LockMode.of(perm));
+    }
+
+    @Override
+    public boolean holdsLock(TransactionId tid, RecordId rid, Permissions perm) {
+        return holdsInTable(tid, rid, rid.getPageId().getTableId(), LockMode.of(perm));
+    }
+
+    @Override
+    public boolean holdsTableLock(TransactionId tid, int tableId, Permissions perm) {
+        LockMode held = heldMode(tid, new TableLock(tableId));
+        return held != null && held.covers(LockMode.of(perm));
+    }
+
+    private boolean holdsInTable(TransactionId tid, Object key, int tableId, LockMode mode) {
+        LockMode held = heldMode(tid, key);
+        if (held != null && held.covers(mode)) {
+            return true;
+        }
+        LockMode tableMode = heldMode(tid, new TableLock(tableId));
+        return tableMode != null && tableMode.covers(mode);
     }
 
     @Override
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid, Permissions perm) {
-        LockTableEntry tableEntry = lockTable.get(pid);
-        return tableEntry!= null
-                && tableEntry.lockHolders.contains(tid)
-                && tableEntry.lockAsStrongAs(perm);
+    public void releaseLock(TransactionId tid, PageId pid) {
+        releaseInTable(tid, pid, pid.getTableId());
     }
 
     @Override
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        LockTableEntry tableEntry = lockTable.get(pid);
-        if(tableEntry != null && holdsLock(tid, pid, READ_ONLY)){
-            tableEntry.lockHolders.remove(tid);
-            //update lock type
-            if(!tableEntry.isUsed()){
-                tableEntry.setLockType(null);
+    public void releaseLock(TransactionId tid, RecordId rid) {
+        releaseInTable(tid, rid, rid.getPageId().getTableId());
+    }
+
+    private void releaseInTable(TransactionId tid, Object key, int tableId) {
+        TableLock table = new TableLock(tableId);
+        if (release(tid, key)) {
+            dropIntentionIfUnused(tid, table);
+            return;
+        }
+        LockMode tableMode = heldMode(tid, table);
+        if (tableMode == null || !tableMode.covers(LockMode.S)) {
+            throw new LockManagerException(tid + " does not hold lock on " + key);
+        }
+        // the lock was escalated to (or never needed under) a table lock, which is kept until the end
+    }
+
+    /**
+     * Releases everything tid holds, including table locks.
+     */
+    @Override
+    public void releaseAllLocks(TransactionId tid) {
+        HeldLocks held = tidLocks.get(tid);
+        if (held == null) {
+            return;
+        }
+        List<Object> keys = held.keys();
+        // finer locks first, so that no one sees them without the intention lock above them
+        keys.sort(Comparator.comparing(key -> key instanceof TableLock));
+        for (Object key : keys) {
+            release(tid, key);
+        }
+    }
+
+    /**
+     * Releases tid's lock on the object with the given key and grants it to the waiters that can now
+     * have it.
+     * @return false if tid did not hold the lock
+     */
+    private boolean release(TransactionId tid, Object key) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            LockTableEntry tableEntry = stripe.table.get(key);
+            if (tableEntry == null || tableEntry.holders.remove(tid) == null) {
+                return false;
             }
-            else {
-                tableEntry.setLockType(READ_ONLY);
+            forgetLock(tid, key);
+            if (!tableEntry.requests.isEmpty()) {
+                if (policy == DeadlockPolicy.WAITS_FOR_GRAPH) {
+                    // the waiters here no longer wait for tid
+                    synchronized (graph) {
+                        for (LockRequest request : tableEntry.requests) {
+                            graph.removeEdge(request.tid, tid);
+                        }
+                    }
+                }
+                grantWaiters(tableEntry, key);
             }
-            graph.removeNode(tid);
-            notifyAll();
+            dropIfUnused(stripe, key, tableEntry);
+            return true;
         }
+    }
 
-        else{
-            throw new LockManagerException(tid + " does not hold lock on " + pid);
+    /**
+     * Drops tid's intention lock on a table once it has no page or record locks under it.  Table locks
+     * in S, SIX or X mode are kept until they are released explicitly.
+     */
+    private void dropIntentionIfUnused(TransactionId tid, TableLock table) {
+        HeldLocks held = tidLocks.get(tid);
+        if (held != null && held.countIn(table.tableId) > 0) {
+            return;
+        }
+        LockMode mode = heldMode(tid, table);
+        if (mode == LockMode.IS || mode == LockMode.IX) {
+            release(tid, table);
+        }
+    }
+
+    /**
+     * Removes key from the set of objects locked by tid, dropping the set once it is empty so that
+     * finished transactions leave nothing behind.
+     */
+    private void forgetLock(TransactionId tid, Object key) {
+        tidLocks.computeIfPresent(tid, (t, held) -> {
+            held.remove(key);
+            return held.isEmpty() ? null : held;
+        });
+        clearWoundIfIdle(tid);
+    }
+
+    // a wounded transaction is done with once it holds no locks
+    private void clearWoundIfIdle(TransactionId tid) {
+        if (!tidLocks.containsKey(tid)) {
+            wounded.remove(tid);
         }
     }
 
     @Override
-    public synchronized List<PageId> getPagesForTid(TransactionId tid) {
-        List<PageId> res = new ArrayList<>();
-        for(PageId pid: lockTable.keySet()){
-            if(holdsLock(tid, pid, READ_ONLY)){
-                res.add(pid);
+    public List<PageId> getPagesForTid(TransactionId tid) {
+        List<PageId> pages = new ArrayList<>();
+        HeldLocks held = tidLocks.get(tid);
+        if (held != null) {
+            for (Object key : held.keys()) {
+                if (key instanceof PageId) {
+                    pages.add((PageId) key);
+                }
             }
         }
-        return res;
+        return pages;
     }
 
     @Override
-    public synchronized List<TransactionId> getTidsForPage(PageId pid) {
-        LockTableEntry tableEntry = lockTable.get(pid);
-        if(tableEntry != null){
-            return new ArrayList<>(tableEntry.lockHolders);
+    public List<TransactionId> getTidsForPage(PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        synchronized (stripe) {
+            LockTableEntry tableEntry = stripe.table.get(pid);
+            if (tableEntry != null) {
+                return new ArrayList<>(tableEntry.holders.keySet());
+            }
+            return null;
         }
-        return null;
     }
 
-    class LockTableEntry {
+    /**
+     * @return how many times a waiting thread has been woken up, whether or not it then got its lock
+     */
+    public long getWakeups() {
+        return wakeups.get();
+    }
 
-        // some suggested private instance variables; feel free to modify
-        private Permissions lockType;             // null if no one currently has a lock
-        private Set<TransactionId> lockHolders;   // a set of txns currently holding a lock on this page
-        private Deque<LockRequest> requests;       // a queue of outstanding requests
+    /**
+     * @return how many times page and record locks have been escalated to a table lock
+     */
+    public long getEscalations() {
+        return escalations.get();
+    }
 
-        private LockTableEntry() {
-            lockType = null;
-            lockHolders = new HashSet<>();
-            requests = new LinkedList<>();
-            // you may wish to add statements here.
+    private static int tableOf(Object key) {
+        if (key instanceof PageId) {
+            return ((PageId) key).getTableId();
         }
+        if (key instanceof RecordId) {
+            return ((RecordId) key).getPageId().getTableId();
+        }
+        return ((TableLock) key).tableId;
+    }
+
+    /**
+     * The key under which a whole table is locked.
+     */
+    private static final class TableLock {
+        private final int tableId;
 
-        private boolean lockAsStrongAs(Permissions perm){
-            return lockType != null && this.lockType.permLevel >= perm.permLevel;
+        private TableLock(int tableId) {
+            this.tableId = tableId;
         }
 
-        private boolean isExclusive(){
-            return lockType == Permissions.READ_WRITE;
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableLock && ((TableLock) o).tableId == tableId;
         }
 
-        public boolean isUsed(){
-            return !lockHolders.isEmpty();
+        @Override
+        public int hashCode() {
+            return 31 * tableId + 17;
         }
 
-        public void pollFromQueue(){
-            requests.pollFirst();
+        @Override
+        public String toString() {
+            return "table " + tableId;
         }
+    }
 
-        private boolean atFront(TransactionId tid, Permissions perm){
-            if(requests.isEmpty()){
-                requests.offerFirst(new LockRequest(tid, perm));
-                return true;
+    /**
+     * The objects one transaction holds locks on, with the number of page and record locks per table.
+     */
+    private static class HeldLocks {
+        private final Set<Object> keys = new HashSet<>();
+        private final Map<Integer, Integer> finerCounts = new HashMap<>();
+
+        synchronized void add(Object key) {
+            if (keys.add(key) && !(key instanceof TableLock)) {
+                finerCounts.merge(tableOf(key), 1, Integer::sum);
             }
-            LockRequest head = requests.peekFirst();
-            return head.tid.equals(tid) && head.perm == perm;
         }
 
-        private void addHolder(TransactionId tid){
-            lockHolders.add(tid);
+        synchronized void remove(Object key) {
+            if (keys.remove(key) && !(key instanceof TableLock)) {
+                finerCounts.computeIfPresent(tableOf(key), (t, n) -> n == 1 ? null : n - 1);
+            }
         }
-        private void setLockType(Permissions perm){
-            this.lockType = perm;
+
+        synchronized boolean isEmpty() {
+            return keys.isEmpty();
         }
 
-        private void addToQueue(TransactionId tid, Permissions perm, boolean isUpgrade){
-            LockRequest request = new LockRequest(tid, perm);
-            if(isUpgrade){
+        synchronized int countIn(int tableId) {
+            return finerCounts.getOrDefault(tableId, 0);
+        }
+
+        synchronized List<Object> keys() {
+            return new ArrayList<>(keys);
+        }
+
+        // the page and record locks in a table
+        synchronized List<Object> keysIn(int tableId) {
+            List<Object> result = new ArrayList<>();
+            for (Object key : keys) {
+                if (!(key instanceof TableLock) && tableOf(key) == tableId) {
+                    result.add(key);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * One partition of the lock table; its monitor guards the entries in it.
+     */
+    private static class Stripe {
+        private final Map<Object, LockTableEntry> table = new HashMap<>();
+    }
+
+    /**
+     * The lock state of one table, page or record.  Guarded by the monitor of its stripe.
+     */
+    class LockTableEntry {
+
+        private Map<TransactionId, LockMode> holders;   // the txns currently holding a lock, and in what mode
+        private Deque<LockRequest> requests;             // a queue of outstanding requests
+
+        private LockTableEntry() {
+            holders = new HashMap<>();
+            requests = new LinkedList<>();
+        }
+
+        private boolean holds(TransactionId tid, LockMode mode) {
+            LockMode held = holders.get(tid);
+            return held != null && held.covers(mode);
+        }
+
+        // whether the other holders allow tid to hold the lock in mode
+        private boolean isCompatible(TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(tid) && !holder.getValue().compatibleWith(mode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // whether a new request can be granted without waiting; only an upgrade may pass queued requests
+        private boolean canGrant(TransactionId tid, LockMode mode) {
+            return isCompatible(tid, mode) && (requests.isEmpty() || holders.containsKey(tid));
+        }
+
+        // the transactions that request is waiting for: conflicting holders and the requests ahead of it
+        private List<TransactionId> blockers(LockRequest request) {
+            List<TransactionId> blockers = new ArrayList<>();
+            for (Map.Entry<TransactionId, LockMode> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(request.tid) && !holder.getValue().compatibleWith(request.mode)) {
+                    blockers.add(holder.getKey());
+                }
+            }
+            for (LockRequest ahead : requests) {
+                if (ahead == request) {
+                    break;
+                }
+                if (!blockers.contains(ahead.tid)) {
+                    blockers.add(ahead.tid);
+                }
+            }
+            return blockers;
+        }
+
+        private LockRequest addToQueue(TransactionId tid, LockMode mode){
+            LockRequest request = new LockRequest(tid, mode);
+            if (holders.containsKey(tid)) {   // upgrades cut in line
                 requests.addFirst(request);
             }
             else{
                 requests.addLast(request);
             }
+            return request;
         }
+    }
 
-        /**
-         * A class representing a single lock request.  Simply tracks the txn and the desired lock type.
-         * Feel free to use this, modify it, or not use it at all.
-         */
-        class LockRequest {
-            public final TransactionId tid;
-            private final Permissions perm;
+    /**
+     * A single waiting lock request.  The requesting thread waits on the request's own monitor, so that
+     * granting it wakes only that thread.
+     */
+    static class LockRequest {
+        public final TransactionId tid;
+        private final LockMode mode;
+        private boolean granted = false;   // set under both the stripe's monitor and this one
+        private boolean aborted = false;   // the waiter was chosen to abort
+
+        private LockRequest(TransactionId tid, LockMode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
 
-            private LockRequest(TransactionId tid, Permissions perm) {
-                this.tid = tid;
-                this.perm = perm;
-            }
+        private synchronized void grant() {
+            granted = true;
+            notify();
+        }
 
-            public boolean equals(Object o) {
-                if (!(o instanceof LockRequest)) {
-                    return false;
-                }
-                LockRequest otherLockRequest = (LockRequest) o;
-                return tid.equals(otherLockRequest.tid) && perm.equals(otherLockRequest.perm);
-            }
+        private synchronized void abort() {
+            aborted = true;
+            notify();
+        }
+
+        private synchronized boolean isGranted() {
+            return granted;
+        }
 
-            public String toString() {
-                return "Request[" + tid + "," + perm + "]";
+        // waits until the request is granted or aborted
+        private synchronized void await() {
+            while (!granted && !aborted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) { }
             }
+        }
 
+        public String toString() {
+            return "Request[" + tid + "," + mode + "]";
         }
     }
 
+    /**
+     * Waits-for graph: an edge from t1 to t2 means t1 is waiting for t2.  Only waiting transactions have
+     * outgoing edges, so the graph holds nothing for transactions that are not blocked.
+     */
     static class Graph{
-        HashMap<TransactionId, Node> nodeMap;
         HashMap<TransactionId, Set<TransactionId>> adjList;
-        int timestamp;
 
         Graph (){
-            this.nodeMap = new HashMap<>();
             this.adjList = new HashMap<>();
-            timestamp = 0;
-        }
-
-        void addNode(TransactionId tid){
-            if(nodeMap.putIfAbsent(tid, new Node(tid, timestamp)) == null){
-                timestamp++;
-            }
         }
 
         void addEdge(TransactionId tid1, TransactionId tid2) {
-            addNode(tid1);
-            addNode(tid2);
-            if(adjList.putIfAbsent(tid1, new HashSet<>(Arrays.asList(tid2))) == null){
-                adjList.get(tid1).add(tid2);
-            }
+            adjList.computeIfAbsent(tid1, t -> new HashSet<>()).add(tid2);
         }
 
         void removeEdge(TransactionId tid1, TransactionId tid2){
-            if(nodeMap.containsKey(tid1) && nodeMap.containsKey(tid2)){
-                if(adjList.containsKey(tid1)){
-                    adjList.get(tid1).remove(tid2);
+            Set<TransactionId> children = adjList.get(tid1);
+            if (children != null) {
+                children.remove(tid2);
+                if (children.isEmpty()) {
+                    adjList.remove(tid1);
                 }
             }
-
         }
 
-        void removeNode(TransactionId tid){
-            if(nodeMap.containsKey(tid)){
-                for (Set<TransactionId> nodes: adjList.values()){
-                    nodes.remove(tid);
-                }
-                adjList.remove(tid);
-                nodeMap.remove(tid);
-            }
+        void removeEdgesFrom(TransactionId tid){
+            adjList.remove(tid);
         }
 
-        void recolor(){
-            for(Node n: nodeMap.values()){
-                n.color = 0;
-            }
+        /**
+         * @return the transactions on a path from source to target, including both, or null if target
+         *         cannot be reached
+         */
+        List<TransactionId> findPath(TransactionId source, TransactionId target) {
+            Deque<TransactionId> path = new ArrayDeque<>();
+            return dfs(source, target, new HashSet<>(), path) ? new ArrayList<>(path) : null;
         }
 
-        boolean hasCycle(){
-            recolor();
-            Node n;
-            for(TransactionId tid: adjList.keySet()){
-                n = nodeMap.get(tid);
-                if(n.color == 0){
-                    if(dfs(n)) return true;
-                }
+        private boolean dfs(TransactionId tid, TransactionId target, Set<TransactionId> visited,
+                            Deque<TransactionId> path) {
+            path.addLast(tid);
+            if (tid.equals(target)) {
+                return true;
             }
-            return false;
-        }
-
-        boolean dfs(Node node){
-            Node c;
-            Set<TransactionId> children = adjList.get(node.tid);
-            if(children != null) {
-                node.color = 1;
-                for (TransactionId tid : children) {
-                    c = nodeMap.get(tid);
-                    if (c.color == 0) {
-                        if(dfs(c)){
+            if (visited.add(tid)) {
+                Set<TransactionId> children = adjList.get(tid);
+                if (children != null) {
+                    for (TransactionId child : children) {
+                        if (dfs(child, target, visited, path)) {
                             return true;
                         }
                     }
-                    else if (c.color == 1){
-                        return true;
-                    }
                 }
             }
-            node.color = -1;
+            path.removeLast();
             return false;
         }
-
-        boolean isOlder(TransactionId tid1, TransactionId tid2) {
-            return (nodeMap.get(tid1).ts <= nodeMap.get(tid2).ts);
-        }
-
-
-        class Node {
-            TransactionId tid;
-            int ts;
-            int color; //-1 = black, 0 = white, 1 = grey
-            Node (TransactionId tid, int ts){
-                this.tid = tid;
-                this.ts = ts;
-                this.color = 0;
-            }
-        }
-        class Edge {
-            Node s;
-            Node t;
-            Edge (Node s, Node t){
-                this.s = s;
-                this.t = t;
-            }
-        }
     }
 
 }
@@ -0,0 +1,226 @@
+package colgatedb.transactions;
+
+import colgatedb.page.PageId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Page versions for optimistic transactions.
+ * <p>
+ * An optimistic transaction reads pages without locking them; instead it notes the version of each
+ * page it reads.  Every page has a version number, which goes up when a transaction that may have
+ * changed the page ends, and a set of the running transactions that may be changing it (the ones
+ * holding an exclusive lock on it).  At commit, an optimistic transaction is valid if every page it
+ * read still has the version it noted and nobody else is changing it; then no change it could have
+ * seen half done, or missed, was made between its reads and its commit.
+ * <p>
+ * Writes are deferred: an optimistic transaction buffers its writes (see {@link #bufferWrite}), which
+ * others cannot see, and applies them when it commits.  Each write locks its record like everyone
+ * else's and validates the transaction again under the latch of its page, in the same critical section
+ * as the change, so the page cannot change between the check and the write.  Nothing is written by
+ * a transaction that fails validation before its first write, and an abort just drops the buffer.
+ * <p>
+ * A page is only tracked while some running transaction reads or writes it: once the last one ends,
+ * its entry is dropped.  No running transaction has noted its version then, so the page can start
+ * again from version 0.
+ */
+public class PageVersions {
+
+    private final Map<PageId, PageVersion> pages = new ConcurrentHashMap<>();
+    private final Map<TransactionId, Map<PageId, Long>> readSets = new ConcurrentHashMap<>();   // optimistic txns
+    private final Map<TransactionId, Set<PageId>> writeSets = new ConcurrentHashMap<>();
+    private final Map<TransactionId, List<BufferedWrite>> writeBuffers = new ConcurrentHashMap<>();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    /**
+     * Makes tid optimistic: from now on its reads are recorded instead of locked.
+     */
+    public void beginOptimistic(TransactionId tid) {
+        readSets.putIfAbsent(tid, new ConcurrentHashMap<>());
+    }
+
+    public boolean isOptimistic(TransactionId tid) {
+        return readSets.containsKey(tid);
+    }
+
+    /**
+     * Records that optimistic tid is about to read pid.  The version is taken before the read, so that
+     * a change made while tid reads the page is caught by validation.
+     */
+    public void recordRead(TransactionId tid, PageId pid) {
+        Map<PageId, Long> readSet = readSets.get(tid);
+        if (!readSet.containsKey(pid)) {
+            // the reader is counted atomically with the lookup, so that the entry cannot be dropped under it
+            PageVersion version = pages.compute(pid, (p, v) -> (v == null ? new PageVersion() : v).addReader());
+            readSet.put(pid, version.version());
+        }
+    }
+
+    /**
+     * Records that tid may change pid; caller must hold an exclusive lock on the page, or on the record
+     * it changes and the page's latch.
+     */
+    public void recordWrite(TransactionId tid, PageId pid) {
+        Set<PageId> writeSet = writeSets.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet());
+        if (writeSet.add(pid)) {
+            pages.compute(pid, (p, v) -> (v == null ? new PageVersion() : v).addWriter(tid));
+        }
+    }
+
+    /**
+     * Takes back {@link #recordWrite}: tid gave up its exclusive lock on pid without changing the page,
+     * so the page's version stays as it is.
+     */
+    public void releaseWrite(TransactionId tid, PageId pid) {
+        Set<PageId> writeSet = writeSets.get(tid);
+        if (writeSet != null && writeSet.remove(pid)) {
+            pages.computeIfPresent(pid, (p, v) -> v.dropWriter(tid).orNullIfIdle());
+        }
+    }
+
+    /**
+     * Buffers a write of optimistic tid, to be applied when it commits.
+     */
+    public void bufferWrite(TransactionId tid, BufferedWrite write) {
+        writeBuffers.computeIfAbsent(tid, t -> new ArrayList<>()).add(write);
+    }
+
+    /**
+     * @return the writes tid has buffered, in the order it made them; they are no longer buffered
+     */
+    public List<BufferedWrite> takeWrites(TransactionId tid) {
+        List<BufferedWrite> writes = writeBuffers.remove(tid);
+        return writes == null ? Collections.emptyList() : writes;
+    }
+
+    /**
+     * @return true if no page tid read has changed since, or is being changed by another transaction
+     */
+    public boolean validate(TransactionId tid) {
+        Map<PageId, Long> readSet = readSets.get(tid);
+        if (readSet != null) {
+            for (Map.Entry<PageId, Long> read : readSet.entrySet()) {
+                if (!pages.get(read.getKey()).isUnchanged(read.getValue(), tid)) {
+                    validationFailures.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ends tid, bumping the version of every page it may have changed.  Must be called before its locks
+     * are released and, for an abort, after its pages have been restored.
+     */
+    public void transactionComplete(TransactionId tid) {
+        Map<PageId, Long> readSet = readSets.remove(tid);
+        if (readSet != null) {
+            for (PageId pid : readSet.keySet()) {
+                pages.computeIfPresent(pid, (p, v) -> v.removeReader().orNullIfIdle());
+            }
+        }
+        writeBuffers.remove(tid);
+        Set<PageId> writeSet = writeSets.remove(tid);
+        if (writeSet != null) {
+            for (PageId pid : writeSet) {
+                pages.computeIfPresent(pid, (p, v) -> v.removeWriter(tid).orNullIfIdle());
+            }
+        }
+    }
+
+    /**
+     * @return how many times an optimistic transaction has failed validation
+     */
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    /**
+     * @return number of pages currently tracked
+     */
+    public int getTrackedPages() {
+        return pages.size();
+    }
+
+    /**
+     * A write an optimistic transaction has buffered.  Applying it makes the change, after validating
+     * the transaction under the latch of the page it changes.
+     */
+    public interface BufferedWrite {
+        void apply() throws TransactionAbortedException;
+    }
+
+    /**
+     * The version of one page, the transactions that may be changing it, and how many optimistic
+     * transactions have read it.  Readers and writers are only added and removed inside a compute on
+     * the page's entry, so an entry is never dropped while someone is adding to it.
+     */
+    private static class PageVersion {
+        private long version = 0;
+        private final Set<TransactionId> writers = new HashSet<>();
+        private int readers = 0;
+
+        private synchronized long version() {
+            return version;
+        }
+
+        private synchronized PageVersion addReader() {
+            readers++;
+            return this;
+        }
+
+        private synchronized PageVersion removeReader() {
+            readers--;
+            return this;
+        }
+
+        private synchronized PageVersion addWriter(TransactionId tid) {
+            writers.add(tid);
+            return this;
+        }
+
+        private synchronized PageVersion removeWriter(TransactionId tid) {
+            writers.remove(tid);
+            version++;
+            return this;
+        }
+
+        // unlike removeWriter, for a writer that did not change the page
+        private synchronized PageVersion dropWriter(TransactionId tid) {
+            writers.remove(tid);
+            return this;
+        }
+
+        // null once nobody reads or writes the page, which drops the entry
+        private synchronized PageVersion orNullIfIdle() {
+            return readers == 0 && writers.isEmpty() ? null : this;
+        }
+
+        private synchronized boolean isUnchanged(long readVersion, TransactionId reader) {
+            return version == readVersion && (writers.isEmpty() || (writers.size() == 1 && writers.contains(reader)));
+        }
+    }
+}
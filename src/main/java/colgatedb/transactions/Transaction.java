@@ -1,5 +1,6 @@
 package colgatedb.transactions;
 
+import colgatedb.AccessManager;
 import colgatedb.Database;
 
 import java.io.IOException;
@@ -22,15 +23,28 @@ import java.io.IOException;
  */
 public class Transaction {
     private final TransactionId tid;
+    private final boolean optimistic;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param optimistic if true, the transaction reads without locking and is validated when it commits
+     * @see colgatedb.transactions.PageVersions
+     */
+    public Transaction(boolean optimistic) {
         tid = new TransactionId();
+        this.optimistic = optimistic;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (optimistic) {
+            Database.getAccessManager().beginOptimistic(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -42,8 +56,36 @@ public class Transaction {
         return tid;
     }
 
-    /** Finish the transaction */
+    /**
+     * Finish the transaction
+     * @throws RuntimeException if the transaction is optimistic, since it has to be validated first
+     * @see #commitOptimistic()
+     */
     public void commit() throws IOException {
+        if (optimistic) {
+            throw new RuntimeException("Optimistic txn must commit with commitOptimistic()");
+        }
+        transactionComplete(true);
+    }
+
+    /**
+     * Validate an optimistic transaction, apply the writes it buffered, and finish it
+     * @throws TransactionAbortedException if validation fails, in which case the transaction has been
+     *         aborted
+     */
+    public void commitOptimistic() throws IOException, TransactionAbortedException {
+        if (started) {
+            AccessManager am = Database.getAccessManager();
+            try {
+                if (!am.validate(tid)) {
+                    throw new TransactionAbortedException();
+                }
+                am.applyWrites(tid);   // each write is validated again, under the latch of its page
+            } catch (TransactionAbortedException e) {
+                abort();   // undoes the writes applied so far
+                throw e;
+            }
+        }
         transactionComplete(true);
     }
 
@@ -0,0 +1,338 @@
+package colgatedb.transactions;
+
+import colgatedb.page.PageId;
+import colgatedb.page.SlottedPage;
+import colgatedb.tuple.RecordId;
+import colgatedb.tuple.Tuple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Old tuple versions for snapshot reads.
+ * <p>
+ * A heap page always holds the newest version of each tuple, which may be uncommitted.  Whenever a
+ * tuple is inserted or deleted, the store keeps a version of it that records the transaction that
+ * created it and the one that deleted it.  Each transaction reads from the snapshot of the database
+ * taken when it first used the store: it sees the changes of the transactions that committed before
+ * then, and its own.  A slot with no versions in the store has not changed in a way any running
+ * transaction could miss, so readers take its tuple from the page.
+ * <p>
+ * Readers do not lock anything; they only hold the page's monitor while they copy it, and writers hold
+ * it while they change the page and record the change here.  Writers still lock pages exclusively,
+ * and a writer aborts if the tuple it deletes was changed by a transaction that committed after its
+ * snapshot was taken (first committer wins).
+ * <p>
+ * The versions of each page are kept apart and guarded by their own monitor, so readers and writers of
+ * different pages do not wait for each other.  Only handing out snapshots and end timestamps, and
+ * garbage collection, hold the monitor of the whole store.
+ * <p>
+ * Versions that no running or future snapshot can see are reclaimed by {@link #collectGarbage()},
+ * which runs every {@link #GC_INTERVAL} transactions.
+ */
+public class VersionStore {
+
+    public static final int GC_INTERVAL = 32;
+
+    private final Map<TransactionId, TxnState> active = new ConcurrentHashMap<>(); // txns that used the store
+    private final Map<PageId, PageChains> chains = new ConcurrentHashMap<>();      // versions by page
+    private long clock = 0;          // the last timestamp handed out
+    private int completedSinceGc = 0;
+    private long reclaimed = 0;
+
+    /**
+     * Takes tid's snapshot, unless it already has one.  A reader must have its snapshot before it pins a
+     * page, so that the versions it needs are not reclaimed in between.
+     */
+    public void takeSnapshot(TransactionId tid) {
+        stateOf(tid);
+    }
+
+    /**
+     * Reads a page as of tid's snapshot, without locking it.
+     * @return copies of the tuples on the page that are visible to tid
+     */
+    public List<Tuple> readPage(TransactionId tid, SlottedPage page) {
+        TxnState reader = stateOf(tid);
+        List<Tuple> tuples = new ArrayList<>();
+        synchronized (page) {
+            PageChains pageChains = chains.get(page.getId());
+            if (pageChains == null) {
+                pageChains = PageChains.EMPTY;
+            }
+            synchronized (pageChains) {
+                for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                    List<Version> chain = pageChains.slots.get(slot);
+                    if (chain != null) {
+                        for (Version version : chain) {
+                            if (version.isVisibleTo(reader)) {
+                                tuples.add(version.tuple.copy());
+                            }
+                        }
+                    } else if (page.isSlotUsed(slot)) {
+                        tuples.add(page.getTuple(slot).copy());
+                    }
+                }
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Inserts a tuple into a slot of a page and records the new version.  Caller must hold an exclusive
+     * lock on the record.
+     */
+    public void insertTuple(TransactionId tid, SlottedPage page, int slotno, Tuple t) {
+        TxnState writer = stateOf(tid);
+        synchronized (page) {
+            page.insertTuple(slotno, t);
+            while (true) {
+                PageChains pageChains = chains.computeIfAbsent(page.getId(), p -> new PageChains());
+                synchronized (pageChains) {
+                    if (!pageChains.dropped) {   // otherwise reclaimed since the lookup, so look it up again
+                        pageChains.chain(slotno).add(new Version(t.copy(), writer));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a tuple from a page and marks its version as deleted by tid.  Caller must hold an
+     * exclusive lock on the record.
+     * @throws TransactionAbortedException if the tuple was changed by a transaction that committed
+     *         after tid's snapshot was taken
+     */
+    public void deleteTuple(TransactionId tid, SlottedPage page, Tuple t) throws TransactionAbortedException {
+        TxnState writer = stateOf(tid);
+        RecordId rid = t.getRecordId();
+        synchronized (page) {
+            while (true) {
+                PageChains pageChains = chains.computeIfAbsent(rid.getPageId(), p -> new PageChains());
+                synchronized (pageChains) {
+                    if (pageChains.dropped) {
+                        continue;
+                    }
+                    List<Version> chain = pageChains.chain(rid.tupleno());
+                    Version live = null;
+                    for (Version version : chain) {
+                        if (version.changedAfter(writer)) {
+                            throw new TransactionAbortedException();
+                        }
+                        if (!isAborted(version.creator) && !version.isDeleted()) {
+                            live = version;
+                        }
+                    }
+                    if (live == null) {   // first change since the versions were reclaimed
+                        live = new Version(page.getTuple(rid.tupleno()).copy(), null);
+                        chain.add(live);
+                    }
+                    live.deleter = writer;
+                    break;
+                }
+            }
+            page.deleteTuple(t);
+        }
+    }
+
+    /**
+     * Ends tid, making its changes visible to the snapshots taken from now on if it committed.  Must be
+     * called once an aborted transaction's pages have been restored.
+     */
+    public void transactionComplete(TransactionId tid, boolean commit) {
+        boolean collect;
+        synchronized (this) {
+            TxnState state = active.remove(tid);
+            if (state != null) {
+                state.committed = commit;
+                state.endTs = ++clock;   // last, so whoever sees the end timestamp also sees the outcome
+            }
+            collect = ++completedSinceGc >= GC_INTERVAL;
+        }
+        if (collect) {
+            collectGarbage();
+        }
+    }
+
+    /**
+     * Drops the versions that no snapshot can see, and the version chains of slots whose tuple is the
+     * same in every snapshot, where readers can take it from the page.
+     * @return the number of versions reclaimed
+     */
+    public synchronized int collectGarbage() {
+        completedSinceGc = 0;
+        long horizon = clock;   // the oldest snapshot anyone can still read from
+        for (TxnState state : active.values()) {
+            horizon = Math.min(horizon, state.snapshot);
+        }
+        int count = 0;
+        for (Map.Entry<PageId, PageChains> page : chains.entrySet()) {
+            PageChains pageChains = page.getValue();
+            synchronized (pageChains) {
+                Iterator<List<Version>> slots = pageChains.slots.values().iterator();
+                while (slots.hasNext()) {
+                    List<Version> chain = slots.next();
+                    boolean settled = true;
+                    Iterator<Version> it = chain.iterator();
+                    while (it.hasNext()) {
+                        Version version = it.next();
+                        if (version.isDead(horizon)) {
+                            it.remove();
+                            count++;
+                        } else if (!version.isSettled(horizon)) {
+                            settled = false;
+                        }
+                    }
+                    if (settled) {
+                        count += chain.size();
+                        slots.remove();
+                    }
+                }
+                if (pageChains.slots.isEmpty()) {
+                    pageChains.dropped = true;   // a writer that already looked it up will get a new one
+                    chains.remove(page.getKey(), pageChains);
+                }
+            }
+        }
+        reclaimed += count;
+        return count;
+    }
+
+    /**
+     * @return the number of versions currently kept
+     */
+    public int getVersionCount() {
+        int count = 0;
+        for (PageChains pageChains : chains.values()) {
+            synchronized (pageChains) {
+                for (List<Version> chain : pageChains.slots.values()) {
+                    count += chain.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of versions reclaimed by garbage collection so far
+     */
+    public synchronized long getReclaimed() {
+        return reclaimed;
+    }
+
+    // the state of tid, taking its snapshot if this is the first time it uses the store
+    private TxnState stateOf(TransactionId tid) {
+        TxnState state = active.get(tid);
+        if (state != null) {
+            return state;
+        }
+        synchronized (this) {
+            return active.computeIfAbsent(tid, t -> new TxnState(clock));
+        }
+    }
+
+    private static boolean isAborted(TxnState state) {
+        return state != null && state.endTs != 0 && !state.committed;
+    }
+
+    /**
+     * The versions of the tuples on one page, by slot.  Guarded by its own monitor.
+     */
+    private static class PageChains {
+        private static final PageChains EMPTY = new PageChains();
+
+        private final Map<Integer, List<Version>> slots = new HashMap<>();
+        private boolean dropped = false;   // reclaimed by garbage collection, and no longer in the store
+
+        private List<Version> chain(int slotno) {
+            return slots.computeIfAbsent(slotno, s -> new ArrayList<>());
+        }
+    }
+
+    /**
+     * What the store knows about one transaction.  Only the store's monitor hands out snapshots and end
+     * timestamps, but readers of a page look at the outcome under the page's monitor alone, so the end
+     * timestamp is written after the outcome and always read before it.
+     */
+    private static class TxnState {
+        private final long snapshot;        // sees the txns that ended at or before this time
+        private volatile long endTs = 0;    // 0 while running
+        private volatile boolean committed = false;
+
+        private TxnState(long snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        // whether the changes of other are part of this txn's snapshot
+        private boolean sees(TxnState other) {
+            long end = other.endTs;
+            return other == this || (end != 0 && end <= snapshot && other.committed);
+        }
+    }
+
+    /**
+     * One version of a tuple.  A null creator means the version was created before anyone now running
+     * started.  Guarded by the monitor of its page's versions.
+     */
+    private static class Version {
+        private final Tuple tuple;
+        private final TxnState creator;
+        private TxnState deleter;
+
+        private Version(Tuple tuple, TxnState creator) {
+            this.tuple = tuple;
+            this.creator = creator;
+        }
+
+        private boolean isVisibleTo(TxnState reader) {
+            boolean created = creator == null || reader.sees(creator);
+            boolean deleted = deleter != null && reader.sees(deleter);
+            return created && !deleted;
+        }
+
+        // deleted by a txn that is running or committed
+        private boolean isDeleted() {
+            return deleter != null && !isAborted(deleter);
+        }
+
+        // whether a txn that committed after writer's snapshot created or deleted this version
+        private boolean changedAfter(TxnState writer) {
+            return committedAfter(creator, writer) || committedAfter(deleter, writer);
+        }
+
+        private static boolean committedAfter(TxnState state, TxnState writer) {
+            return state != null && state.endTs > writer.snapshot && state.committed;
+        }
+
+        // no snapshot, now or later, sees this version
+        private boolean isDead(long horizon) {
+            return (isAborted(creator) && endedBy(creator, horizon))
+                    || (deleter != null && deleter.committed && endedBy(deleter, horizon));
+        }
+
+        // every snapshot, now or later, sees the same thing in this version
+        private boolean isSettled(long horizon) {
+            return (creator == null || endedBy(creator, horizon)) && (deleter == null || endedBy(deleter, horizon));
+        }
+
+        private static boolean endedBy(TxnState state, long horizon) {
+            return state.endTs != 0 && state.endTs <= horizon;
+        }
+    }
+}
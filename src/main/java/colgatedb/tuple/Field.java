@@ -1,8 +1,10 @@
 package colgatedb.tuple;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * ColgateDB
@@ -29,6 +31,27 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf starting at the given
+     * absolute offset, using the same format as {@link #serialize(DataOutputStream)}.
+     * The position of buf is not changed.
+     *
+     * @param buf    The buffer to write to.
+     * @param offset The index of the first byte to write.
+     */
+    default void serialize(ByteBuffer buf, int offset) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getType().getLen());
+        try {
+            serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] bytes = baos.toByteArray();
+        for (int i = 0; i < bytes.length; i++) {
+            buf.put(offset + i, bytes[i]);
+        }
+    }
+
     /**
      * Compare the value of this field object to the passed in value.
      *
@@ -2,6 +2,7 @@ package colgatedb.tuple;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * ColgateDB
@@ -53,6 +54,11 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    @Override
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putInt(offset, value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
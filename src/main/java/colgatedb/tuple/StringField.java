@@ -2,6 +2,7 @@ package colgatedb.tuple;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * ColgateDB
@@ -80,6 +81,23 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Same format as {@link #serialize(DataOutputStream)}: the length, then the low byte of each
+     * character (as DataOutputStream.writeBytes does), then zero padding up to maxSize.
+     */
+    @Override
+    public void serialize(ByteBuffer buf, int offset) {
+        int len = Math.min(value.length(), maxSize);
+        buf.putInt(offset, len);
+        int pos = offset + 4;
+        for (int i = 0; i < len; i++) {
+            buf.put(pos++, (byte) value.charAt(i));
+        }
+        for (int i = len; i < maxSize; i++) {
+            buf.put(pos++, (byte) 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
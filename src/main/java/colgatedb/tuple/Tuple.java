@@ -117,4 +117,17 @@ public class Tuple implements Serializable {
     public void setRecordId(RecordId rid) {
          this.rid = rid;
     }
+
+    /**
+     * @return a copy of this tuple, with the same fields and RecordId, that later changes to this tuple
+     *         (such as a page clearing its RecordId on delete) do not affect
+     */
+    public Tuple copy() {
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            copy.setField(i, getField(i));
+        }
+        copy.setRecordId(rid);
+        return copy;
+    }
 }
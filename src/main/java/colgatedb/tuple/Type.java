@@ -3,6 +3,7 @@ package colgatedb.tuple;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -38,6 +39,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -56,6 +62,19 @@ public enum Type implements Serializable {
                 throw new RuntimeException("Error reading from stream", new ParseException("couldn't parse", 0));
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new RuntimeException("Error reading from buffer", new ParseException("couldn't parse", offset));
+            }
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -74,4 +93,12 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis);
 
+    /**
+     * @param buf the buffer to read from
+     * @param offset absolute index of the first byte of the field; the buffer's position is not used
+     * @return a Field object of the same type as this object that has contents
+     * read from the specified buffer, in the same format as {@link #parse(DataInputStream)}.
+     */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
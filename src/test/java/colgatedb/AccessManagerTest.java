@@ -136,6 +136,24 @@ public class AccessManagerTest extends AccessManagerTestBase {
         assertFalse(bm.wasFlushed(pid1));  // pid1 isn't dirty
     }
 
+    /**
+     * Without force, commit only forces the log and leaves the dirty page in the buffer pool.
+     */
+    @Test
+    public void testDirtyPagesNotFlushedWithoutForce() throws TransactionAbortedException {
+        am.setForce(false);
+        am.acquireLock(tid0, pid0, Permissions.READ_WRITE);
+
+        MockPage page0 = (MockPage) am.pinPage(tid0, pid0, pm);
+        am.unpinPage(tid0, page0, true);
+
+        am.transactionComplete(tid0);
+
+        assertFalse(bm.wasFlushed(pid0));
+        assertTrue(bm.isDirty(pid0));
+        assertFalse(am.holdsLock(tid0, pid0, Permissions.READ_ONLY));
+    }
+
     @Test
     @GradedTest(number="23.9", max_score=1.0, visibility="visible")
     public void testDirtyPagesDiscardedOnAbort() throws TransactionAbortedException {
@@ -175,4 +193,31 @@ public class AccessManagerTest extends AccessManagerTestBase {
         assertEquals(0, bm.pinCount(pid0));
     }
 
+    /**
+     * Completing one transaction must only touch that transaction's pages, even when another running
+     * transaction has pinned the same page.
+     */
+    @Test
+    public void testCompleteLeavesOtherTransactionsAlone() throws TransactionAbortedException {
+        am.setForce(true);
+        am.acquireLock(tid0, pid0, Permissions.READ_ONLY);
+        am.acquireLock(tid1, pid0, Permissions.READ_ONLY);
+        am.acquireLock(tid1, pid1, Permissions.READ_WRITE);
+
+        am.pinPage(tid0, pid0, pm);
+        am.pinPage(tid1, pid0, pm);
+        MockPage page1 = (MockPage) am.pinPage(tid1, pid1, pm);
+        am.unpinPage(tid1, page1, true);
+
+        am.transactionComplete(tid0);
+        assertEquals(1, bm.pinCount(pid0));     // tid1 still has it pinned
+        assertFalse(bm.wasFlushed(pid1));
+        assertTrue(am.holdsLock(tid1, pid0, Permissions.READ_ONLY));
+
+        am.transactionComplete(tid1);
+        assertEquals(0, bm.pinCount(pid0));
+        assertTrue(bm.wasFlushed(pid1));
+        assertFalse(am.holdsLock(tid1, pid1, Permissions.READ_ONLY));
+    }
+
 }
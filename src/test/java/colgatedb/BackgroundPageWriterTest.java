@@ -0,0 +1,238 @@
+package colgatedb;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+import colgatedb.page.SimplePageId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class BackgroundPageWriterTest {
+
+    private static final int POOL_SIZE = 4;
+    private RecordingDiskManager dm;
+    private BufferManagerImpl bm;
+
+    @Before
+    public void setUp() {
+        dm = new RecordingDiskManager();
+        bm = new BufferManagerImpl(POOL_SIZE, dm);
+        bm.evictDirty(true);
+    }
+
+    private void dirty(PageId pid) {
+        bm.pinPage(pid, dm);
+        bm.unpinPage(pid, true);
+    }
+
+    @Test
+    public void writesColdDirtyPagesInFileOrder() {
+        PageId a = new SimplePageId(2, 5);
+        PageId b = new SimplePageId(1, 9);
+        PageId c = new SimplePageId(1, 3);
+        dirty(a);
+        dirty(b);
+        dirty(c);
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 1.0, 100, 10);
+        assertEquals(3, writer.cleanOnce(10));
+        assertEquals(Arrays.asList(c, b, a), dm.writes);
+        assertFalse(bm.isDirty(a));
+        assertFalse(bm.isDirty(b));
+        assertFalse(bm.isDirty(c));
+        assertEquals(0, writer.cleanOnce(10));   // nothing left to do
+        assertEquals(3, writer.getPagesWritten());
+    }
+
+    @Test
+    public void onlyColdEndAndUnpinned() {
+        PageId[] pids = new PageId[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pids[i] = new SimplePageId(0, i);
+            dirty(pids[i]);
+        }
+        bm.pinPage(pids[0], dm);   // coldest page is pinned again, and so becomes hot under LRU
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 0.5, 100, 10);
+        assertEquals(2, writer.cleanOnce(10));
+        assertEquals(Arrays.asList(pids[1], pids[2]), dm.writes);
+        assertTrue(bm.isDirty(pids[0]));
+        assertTrue(bm.isDirty(pids[3]));
+    }
+
+    @Test
+    public void respectsWriteBudget() {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            dirty(new SimplePageId(0, i));
+        }
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 1.0, 100, 10);
+        assertEquals(1, writer.cleanOnce(1));
+        assertEquals(Collections.singletonList(new SimplePageId(0, 0)), dm.writes);   // coldest first
+    }
+
+    @Test
+    public void idleUnlessDirtyEvictionAllowed() {
+        dirty(new SimplePageId(0, 0));
+        bm.evictDirty(false);
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 1.0, 100, 10);
+        assertEquals(0, writer.cleanOnce(10));
+        assertTrue(dm.writes.isEmpty());
+    }
+
+    /**
+     * Once the writer has run, a miss on a full pool evicts a clean page without writing.
+     */
+    @Test
+    public void evictionFindsCleanVictim() throws InterruptedException {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            dirty(new SimplePageId(0, i));
+        }
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 0.5, 1000, 5);
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getPagesWritten() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.shutdown();
+        assertEquals(2, writer.getPagesWritten());
+        int writesBefore = dm.writes.size();
+        bm.pinPage(new SimplePageId(0, POOL_SIZE), dm);
+        assertEquals(writesBefore, dm.writes.size());
+    }
+
+    /**
+     * A round that fails is recorded, and the writer keeps going.
+     */
+    @Test
+    public void failuresAreRecorded() throws InterruptedException {
+        PageId pid = new SimplePageId(0, 0);
+        dirty(pid);
+        dm.failWrites = true;
+        BackgroundPageWriter writer = new BackgroundPageWriter(bm, null, 1.0, 1000, 5);
+        writer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getFailures() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.shutdown();
+        assertTrue(writer.getFailures() >= 2);
+        assertTrue(writer.getLastFailure() instanceof DiskManagerException);
+        assertTrue(bm.isDirty(pid));
+        assertEquals(0, writer.getPagesWritten());
+    }
+
+    /**
+     * While a page is being cleaned, other pages can be pinned and unpinned, and the page being
+     * written is not evicted.
+     */
+    @Test
+    public void cleanDoesNotBlockPins() throws InterruptedException {
+        PageId pid = new SimplePageId(0, 0);
+        dirty(pid);
+        dm.writeStarted = new CountDownLatch(1);
+        dm.releaseWrite = new CountDownLatch(1);
+        Thread cleaner = new Thread(() -> bm.cleanPage(pid));
+        cleaner.start();
+        dm.writeStarted.await();
+        for (int i = 1; i <= POOL_SIZE; i++) {   // enough to fill the pool and force evictions
+            PageId other = new SimplePageId(0, i);
+            bm.pinPage(other, dm);
+            bm.unpinPage(other, false);
+        }
+        assertTrue(bm.inBufferPool(pid));
+        dm.releaseWrite.countDown();
+        cleaner.join();
+        assertFalse(bm.isDirty(pid));
+        assertEquals(Collections.singletonList(pid), dm.writes);
+    }
+
+    private static class RecordingDiskManager implements DiskManager, PageMaker {
+        final List<PageId> writes = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean failWrites = false;
+        volatile CountDownLatch writeStarted = null;   // if set, writes wait for releaseWrite
+        volatile CountDownLatch releaseWrite = null;
+
+        @Override
+        public void allocatePage(PageId pid) {
+        }
+
+        @Override
+        public Page readPage(PageId pid, PageMaker pageMaker) {
+            return new EmptyPage(pid);
+        }
+
+        @Override
+        public void writePage(Page page) {
+            if (failWrites) {
+                throw new DiskManagerException("write failed");
+            }
+            if (writeStarted != null) {
+                writeStarted.countDown();
+                try {
+                    releaseWrite.await();
+                } catch (InterruptedException e) {
+                    throw new DiskManagerException(e);
+                }
+            }
+            writes.add(page.getId());
+        }
+
+        @Override
+        public Page makePage(PageId pid, byte[] bytes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page makePage(PageId pid) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class EmptyPage implements Page {
+        private final PageId pid;
+
+        EmptyPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            return new byte[0];
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package colgatedb;
+
+import colgatedb.page.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Runs all of the BufferManagerTest tests against BufferManagerConcurrentImpl, plus a few
+ * multi-threaded tests.
+ */
+public class BufferManagerConcurrentImplTest extends BufferManagerTest {
+
+    @Override
+    protected void initializeBufferManager(int numPages) {
+        buffMgr = new BufferManagerConcurrentImpl(numPages, dm);
+        buffMgr.evictDirty(true);
+    }
+
+    /**
+     * Many threads pin the same missing page at once: only one of them should read it.
+     */
+    @Test
+    public void concurrentMissesCoalesce() throws InterruptedException {
+        BlockingDiskManager bdm = new BlockingDiskManager();
+        BufferManager bm = new BufferManagerConcurrentImpl(4, bdm);
+        PageId pid = new SimplePageId(0, 0);
+        int numThreads = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<Page> pinned = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread t = new Thread(() -> {
+                Page page = bm.pinPage(pid, bdm);
+                synchronized (pinned) {
+                    pinned.add(page);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        assertTrue(bdm.readStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);   // give the other threads time to pile up behind the read
+        bdm.release.countDown();
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+        assertEquals(1, bdm.reads.get());
+        assertEquals(numThreads, pinned.size());
+        for (Page page : pinned) {
+            assertSame(pinned.get(0), page);
+        }
+        for (int i = 0; i < numThreads; i++) {
+            bm.unpinPage(pid, false);
+        }
+        try {
+            bm.unpinPage(pid, false);
+            fail("Should have raised exception!");
+        } catch (BufferManagerException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A hit on one page is not held up by a slow read of another page.
+     */
+    @Test
+    public void hitDuringMiss() throws InterruptedException {
+        PageId pid0 = new SimplePageId(0, 0);
+        PageId pid1 = new SimplePageId(0, 1);
+        BlockingDiskManager slow = new BlockingDiskManager();
+        BufferManager bm = new BufferManagerConcurrentImpl(4, slow);
+        slow.release.countDown();
+        bm.pinPage(pid0, slow);
+        bm.unpinPage(pid0, false);
+        CountDownLatch blocked = new CountDownLatch(1);
+        slow.release = blocked;
+        slow.readStarted = new CountDownLatch(1);
+        Thread reader = new Thread(() -> bm.pinPage(pid1, slow));
+        reader.start();
+        assertTrue(slow.readStarted.await(5, TimeUnit.SECONDS));
+
+        // pid1's read is stuck, but pid0 is a hit
+        Page page = bm.pinPage(pid0, slow);
+        assertEquals(pid0, page.getId());
+        bm.unpinPage(pid0, false);
+
+        blocked.countDown();
+        reader.join(5000);
+        assertTrue(bm.inBufferPool(pid1));
+    }
+
+    /**
+     * Threads hammer a small pool with pins, dirty unpins and evictions; no update may be lost.
+     */
+    @Test
+    public void manyThreadsWithEviction() throws InterruptedException {
+        BlockingDiskManager bdm = new BlockingDiskManager();
+        bdm.release.countDown();
+        int numPagesOnDisk = 16;
+        BufferManager bm = new BufferManagerConcurrentImpl(4, bdm);
+        bm.evictDirty(true);
+        int numThreads = 4;
+        int rounds = 500;
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < numThreads; i++) {
+            int threadNo = i;
+            Thread t = new Thread(() -> {
+                for (int round = 0; round < rounds; round++) {
+                    // each thread owns a disjoint set of pages so that its updates don't race
+                    PageId pid = new SimplePageId(0, threadNo + numThreads * (round % (numPagesOnDisk / numThreads)));
+                    try {
+                        CountingPage page = (CountingPage) bm.pinPage(pid, bdm);
+                        page.count++;
+                        bm.unpinPage(pid, true);
+                    } catch (BufferManagerException e) {
+                        // every frame was pinned at that moment; try again next round
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(30000);
+        }
+        bm.flushAllPages();
+        int total = 0;
+        for (int pageno = 0; pageno < numPagesOnDisk; pageno++) {
+            total += bdm.counts.getOrDefault(new SimplePageId(0, pageno), 0);
+        }
+        assertEquals(numThreads * rounds - failures.get(), total);
+    }
+
+    /**
+     * Writing out a dirty victim fails: the page stays in the pool, still dirty, and can be pinned and
+     * evicted later.
+     */
+    @Test
+    public void failedEvictionKeepsPage() {
+        BlockingDiskManager bdm = new BlockingDiskManager();
+        bdm.release.countDown();
+        BufferManager bm = new BufferManagerConcurrentImpl(1, bdm);
+        bm.evictDirty(true);
+        PageId pid0 = new SimplePageId(0, 0);
+        PageId pid1 = new SimplePageId(0, 1);
+        CountingPage page = (CountingPage) bm.pinPage(pid0, bdm);
+        page.count = 5;
+        bm.unpinPage(pid0, true);
+
+        bdm.failWrites = true;
+        try {
+            bm.pinPage(pid1, bdm);
+            fail("Should have raised exception!");
+        } catch (DiskManagerException e) {
+            // expected
+        }
+        assertTrue(bm.inBufferPool(pid0));
+        assertTrue(bm.isDirty(pid0));
+        assertSame(page, bm.pinPage(pid0, bdm));
+        bm.unpinPage(pid0, false);
+
+        bdm.failWrites = false;
+        bm.pinPage(pid1, bdm);
+        assertFalse(bm.inBufferPool(pid0));
+        assertEquals(5, (int) bdm.counts.get(pid0));
+    }
+
+    /**
+     * A disk manager whose reads wait on a latch, so tests can line up concurrent misses.
+     */
+    private static class BlockingDiskManager implements DiskManager, PageMaker {
+        final AtomicInteger reads = new AtomicInteger();
+        volatile CountDownLatch readStarted = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(1);
+        final ConcurrentHashMap<PageId, Integer> counts = new ConcurrentHashMap<>();
+        volatile boolean failWrites = false;
+
+        @Override
+        public void allocatePage(PageId pid) {
+        }
+
+        @Override
+        public Page readPage(PageId pid, PageMaker pageMaker) {
+            reads.incrementAndGet();
+            readStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new CountingPage(pid, counts.getOrDefault(pid, 0));
+        }
+
+        @Override
+        public void writePage(Page page) {
+            if (failWrites) {
+                throw new DiskManagerException("write failed");
+            }
+            counts.put(page.getId(), ((CountingPage) page).count);
+        }
+
+        @Override
+        public Page makePage(PageId pid, byte[] bytes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page makePage(PageId pid) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class CountingPage implements Page {
+        private final PageId pid;
+        int count;
+
+        CountingPage(PageId pid, int count) {
+            this.pid = pid;
+            this.count = count;
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package colgatedb;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+import colgatedb.page.SimplePageId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests read-ahead in BufferManagerImpl.
+ */
+public class BufferManagerReadAheadTest {
+
+    private static final int NUM_PAGES = 10;
+    private CountingDiskManager dm;
+    private BufferManagerImpl bm;
+
+    @Before
+    public void setUp() {
+        dm = new CountingDiskManager();
+        bm = new BufferManagerImpl(8, dm);
+        bm.setReadAhead(3);
+    }
+
+    private PageId pid(int pageno) {
+        return new SimplePageId(0, pageno);
+    }
+
+    private void touch(int pageno) {
+        bm.pinPage(pid(pageno), dm);
+        bm.unpinPage(pid(pageno), false);
+    }
+
+    private void waitForPrefetches(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bm.getPrefetchCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, bm.getPrefetchCount());
+    }
+
+    @Test
+    public void sequentialPinsTriggerPrefetch() throws InterruptedException {
+        touch(0);
+        assertEquals(0, bm.getPrefetchCount());   // one page is not a run yet
+        touch(1);
+        waitForPrefetches(3);
+        for (int pageno = 2; pageno <= 4; pageno++) {
+            assertTrue(bm.inBufferPool(pid(pageno)));
+        }
+        touch(2);
+        touch(3);
+        assertEquals(2, bm.getMissCount());     // pages 0 and 1
+        assertEquals(1, dm.reads(pid(2)));
+    }
+
+    @Test
+    public void randomPinsDoNotPrefetch() throws InterruptedException {
+        touch(5);
+        touch(2);
+        touch(7);
+        Thread.sleep(50);
+        assertEquals(0, bm.getPrefetchCount());
+    }
+
+    @Test
+    public void hintStopsAtEnd() throws InterruptedException {
+        bm.hintSequential(pid(NUM_PAGES - 2), NUM_PAGES, dm);
+        waitForPrefetches(2);
+        touch(NUM_PAGES - 2);
+        touch(NUM_PAGES - 1);
+        Thread.sleep(50);
+        assertEquals(2, bm.getPrefetchCount());
+        assertEquals(0, bm.getMissCount());
+    }
+
+    /**
+     * A pin of a page that is being prefetched waits for that read instead of doing another one.
+     */
+    @Test
+    public void pinWaitsForInFlightPrefetch() throws InterruptedException {
+        dm.gate = new CountDownLatch(1);
+        bm.hintSequential(pid(0), NUM_PAGES, dm);
+        assertTrue(dm.readStarted.await(5, TimeUnit.SECONDS));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // fall through and release
+            }
+            dm.gate.countDown();
+        });
+        releaser.start();
+        touch(0);
+        releaser.join();
+        assertEquals(1, dm.reads(pid(0)));
+    }
+
+    /**
+     * A page discarded while its prefetch is in flight must not show up in the pool afterwards,
+     * since the copy being read may be stale.
+     */
+    @Test
+    public void discardDuringPrefetch() throws InterruptedException {
+        dm.gate = new CountDownLatch(1);
+        bm.setReadAhead(1);
+        bm.hintSequential(pid(0), NUM_PAGES, dm);
+        assertTrue(dm.readStarted.await(5, TimeUnit.SECONDS));
+        bm.discardPage(pid(0));
+        dm.gate.countDown();
+        Thread.sleep(50);
+        assertFalse(bm.inBufferPool(pid(0)));
+        assertEquals(0, bm.getPrefetchCount());
+    }
+
+    @Test
+    public void prefetchNeverEvicts() throws InterruptedException {
+        bm = new BufferManagerImpl(2, dm);
+        bm.setReadAhead(4);
+        bm.pinPage(pid(0), dm);
+        bm.pinPage(pid(1), dm);     // pool is full of pinned pages
+        Thread.sleep(50);
+        assertEquals(0, bm.getPrefetchCount());
+        bm.unpinPage(pid(0), false);
+        bm.unpinPage(pid(1), false);
+    }
+
+    private static class CountingDiskManager implements DiskManager, PageMaker {
+        private final ConcurrentHashMap<PageId, AtomicInteger> reads = new ConcurrentHashMap<>();
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        int reads(PageId pid) {
+            AtomicInteger count = reads.get(pid);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public void allocatePage(PageId pid) {
+        }
+
+        @Override
+        public Page readPage(PageId pid, PageMaker pageMaker) {
+            if (pid.pageNumber() >= NUM_PAGES) {
+                throw new DiskManagerException("Attempting to read beyond end of file!");
+            }
+            reads.computeIfAbsent(pid, p -> new AtomicInteger()).incrementAndGet();
+            readStarted.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new ReadPage(pid);
+        }
+
+        @Override
+        public void writePage(Page page) {
+        }
+
+        @Override
+        public Page makePage(PageId pid, byte[] bytes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page makePage(PageId pid) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class ReadPage implements Page {
+        private final PageId pid;
+
+        ReadPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -27,9 +27,9 @@ import static org.junit.Assert.*;
  */
 
 public class BufferManagerTest {
-    private MockDiskManager dm;
-    private PageMaker pm;
-    private BufferManager buffMgr;
+    protected MockDiskManager dm;
+    protected PageMaker pm;
+    protected BufferManager buffMgr;
     private int tableid = 0;
     private PageId pid0 = new SimplePageId(tableid, 0);
     private PageId pid1 = new SimplePageId(tableid, 1);
@@ -47,7 +47,7 @@ public class BufferManagerTest {
         }
     }
 
-    private void initializeBufferManager(int numPages) {
+    protected void initializeBufferManager(int numPages) {
         buffMgr = new BufferManagerImpl(numPages, dm);
         buffMgr.evictDirty(true);
     }
@@ -0,0 +1,149 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.page.SlottedPage;
+import colgatedb.page.SlottedPageMaker;
+import colgatedb.tuple.Tuple;
+import colgatedb.tuple.TupleDesc;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class DiskManagerImplTest {
+
+    private final int pageSize = 256;
+    private final int tableid = 0;
+    private final TupleDesc td = TestUtility.getTupleDesc(2);
+    private final SlottedPageMaker pm = new SlottedPageMaker(td, pageSize);
+    private DiskManagerImpl dm;
+
+    private File createFile() throws IOException {
+        File file = File.createTempFile("dmtest", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @After
+    public void tearDown() {
+        if (dm != null) {
+            dm.close();
+        }
+    }
+
+    private void writeAndReadBack(DiskManagerImpl dm) throws IOException {
+        dm.addFileEntry(tableid, createFile().getAbsolutePath());
+        assertEquals(0, dm.getNumPages(tableid));
+        for (int pageno = 0; pageno < 5; pageno++) {
+            PageId pid = new SimplePageId(tableid, pageno);
+            dm.allocatePage(pid);
+            SlottedPage page = (SlottedPage) pm.makePage(pid);
+            page.insertTuple(TestUtility.getIntTuple(new int[]{pageno, pageno * 10}));
+            dm.writePage(page);
+        }
+        assertEquals(5, dm.getNumPages(tableid));
+        for (int pageno = 4; pageno >= 0; pageno--) {
+            SlottedPage page = (SlottedPage) dm.readPage(new SimplePageId(tableid, pageno), pm);
+            Tuple t = page.iterator().next();
+            assertEquals(TestUtility.getIntTuple(new int[]{pageno, pageno * 10}).toString(), t.toString());
+        }
+    }
+
+    @Test
+    public void readWrite() throws IOException {
+        dm = new DiskManagerImpl(pageSize);
+        writeAndReadBack(dm);
+    }
+
+    @Test
+    public void readWriteMapped() throws IOException {
+        dm = new DiskManagerImpl(pageSize, 2);  // small segments so several are mapped
+        assertTrue(dm.isMemoryMapped());
+        writeAndReadBack(dm);
+    }
+
+    /**
+     * A page read through a mapped segment, then the file grows and the page after it is read:
+     * the segment has to be remapped to cover the new page.
+     */
+    @Test
+    public void mappedSegmentRemappedAfterAllocate() throws IOException {
+        dm = new DiskManagerImpl(pageSize, 4);
+        dm.addFileEntry(tableid, createFile().getAbsolutePath());
+        PageId pid0 = new SimplePageId(tableid, 0);
+        PageId pid1 = new SimplePageId(tableid, 1);
+        dm.allocatePage(pid0);
+        SlottedPage empty = (SlottedPage) dm.readPage(pid0, pm);
+        assertEquals(empty.getNumSlots(), empty.getNumEmptySlots());
+
+        dm.allocatePage(pid1);
+        SlottedPage page = (SlottedPage) pm.makePage(pid1);
+        page.insertTuple(TestUtility.getIntTuple(new int[]{7, 8}));
+        dm.writePage(page);
+
+        SlottedPage read = (SlottedPage) dm.readPage(pid1, pm);
+        assertEquals(page.getNumSlots() - 1, read.getNumEmptySlots());
+    }
+
+    /**
+     * A second DiskManager grows the file behind this one's back; the cached page count is refreshed.
+     */
+    @Test
+    public void fileGrownByAnotherDiskManager() throws IOException {
+        File file = createFile();
+        dm = new DiskManagerImpl(pageSize);
+        dm.addFileEntry(tableid, file.getAbsolutePath());
+        DiskManagerImpl other = new DiskManagerImpl(pageSize);
+        other.addFileEntry(tableid, file.getAbsolutePath());
+        other.allocatePage(new SimplePageId(tableid, 0));
+        other.close();
+
+        dm.readPage(new SimplePageId(tableid, 0), pm);
+        assertEquals(1, dm.getNumPages(tableid));
+        dm.allocatePage(new SimplePageId(tableid, 1));
+        assertEquals(2, dm.getNumPages(tableid));
+    }
+
+    /**
+     * An interrupt during a write closes the shared channel; it is reopened, so the write and every
+     * later read still succeed, and the thread is still interrupted afterwards.
+     */
+    @Test
+    public void survivesInterrupt() throws IOException {
+        dm = new DiskManagerImpl(pageSize);
+        dm.addFileEntry(tableid, createFile().getAbsolutePath());
+        PageId pid = new SimplePageId(tableid, 0);
+        dm.allocatePage(pid);
+        SlottedPage page = (SlottedPage) pm.makePage(pid);
+        page.insertTuple(TestUtility.getIntTuple(new int[]{1, 2}));
+        Thread.currentThread().interrupt();
+        try {
+            dm.writePage(page);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+        SlottedPage read = (SlottedPage) dm.readPage(pid, pm);
+        assertEquals(page.getNumSlots() - 1, read.getNumEmptySlots());
+    }
+}
@@ -0,0 +1,122 @@
+package colgatedb;
+
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Runs all of the BufferManagerTest tests against BufferManagerImpl with 2Q replacement, and checks
+ * that 2Q keeps hot pages through a scan that LRU does not survive.
+ */
+public class TwoQueueBufferManagerTest extends BufferManagerTest {
+
+    private static final int POOL_SIZE = 8;
+    private static final int NUM_PAGES = 20;
+
+    @Override
+    protected void initializeBufferManager(int numPages) {
+        buffMgr = new BufferManagerImpl(numPages, dm, new TwoQueueReplacementPolicy(numPages));
+        buffMgr.evictDirty(true);
+    }
+
+    @Test
+    public void hotPagesSurviveScan() {
+        BufferManagerImpl bm = new BufferManagerImpl(POOL_SIZE, dm, new TwoQueueReplacementPolicy(POOL_SIZE));
+        runHotPagesAndScan(bm);
+        assertEquals(2, dm.getReadCount(new SimplePageId(0, 0)));  // second read promoted it to the hot queue
+        assertEquals(2, dm.getReadCount(new SimplePageId(0, 1)));
+        assertEquals(4, bm.getHitCount());
+        assertEquals(NUM_PAGES + 2, bm.getMissCount());
+    }
+
+    @Test
+    public void lruLosesHotPagesToScan() {
+        BufferManagerImpl bm = new BufferManagerImpl(POOL_SIZE, dm, new LruReplacementPolicy());
+        runHotPagesAndScan(bm);
+        assertEquals(3, dm.getReadCount(new SimplePageId(0, 0)));
+        assertEquals(3, dm.getReadCount(new SimplePageId(0, 1)));
+        assertEquals(2, bm.getHitCount());
+        assertEquals(NUM_PAGES + 4, bm.getMissCount());
+    }
+
+    /**
+     * LRU orders pages by when they were unpinned, not when they were pinned.
+     */
+    @Test
+    public void lruEvictsLeastRecentlyUnpinned() {
+        BufferManagerImpl bm = new BufferManagerImpl(2, dm, new LruReplacementPolicy());
+        PageId pid0 = new SimplePageId(0, 0);
+        PageId pid1 = new SimplePageId(0, 1);
+        bm.pinPage(pid0, pm);
+        bm.pinPage(pid1, pm);
+        bm.unpinPage(pid1, false);
+        bm.unpinPage(pid0, false);
+        bm.pinPage(new SimplePageId(0, 2), pm);
+        assertTrue(bm.inBufferPool(pid0));
+        assertFalse(bm.inBufferPool(pid1));
+    }
+
+    @Test
+    public void hitRatio() {
+        BufferManagerImpl bm = new BufferManagerImpl(2, dm, new TwoQueueReplacementPolicy(2));
+        PageId pid = new SimplePageId(0, 0);
+        assertEquals(0.0, bm.getHitRatio(), 0.0);
+        for (int i = 0; i < 4; i++) {
+            bm.pinPage(pid, pm);
+            bm.unpinPage(pid, false);
+        }
+        assertEquals(0.75, bm.getHitRatio(), 0.0);
+        bm.resetStats();
+        assertEquals(0, bm.getHitCount());
+        assertEquals(0, bm.getMissCount());
+    }
+
+    /**
+     * Touches pages 0 and 1, scans enough pages to push them out, touches them again (twice), then
+     * scans the rest of the table and touches them a final time.
+     */
+    private void runHotPagesAndScan(BufferManager bm) {
+        for (int pageno = 3; pageno < NUM_PAGES; pageno++) {
+            dm.allocatePage(new SimplePageId(0, pageno));
+        }
+        touch(bm, 0);
+        touch(bm, 1);
+        for (int pageno = 2; pageno < POOL_SIZE + 2; pageno++) {
+            touch(bm, pageno);
+        }
+        touch(bm, 0);
+        touch(bm, 1);
+        touch(bm, 0);
+        touch(bm, 1);
+        for (int pageno = POOL_SIZE + 2; pageno < NUM_PAGES; pageno++) {
+            touch(bm, pageno);
+        }
+        touch(bm, 0);
+        touch(bm, 1);
+    }
+
+    private void touch(BufferManager bm, int pageno) {
+        PageId pid = new SimplePageId(0, pageno);
+        bm.pinPage(pid, pm);
+        bm.unpinPage(pid, false);
+    }
+}
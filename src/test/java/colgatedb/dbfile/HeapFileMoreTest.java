@@ -2,6 +2,7 @@ package colgatedb.dbfile;
 
 import colgatedb.*;
 import colgatedb.page.*;
+import colgatedb.transactions.Permissions;
 import colgatedb.transactions.TransactionAbortedException;
 import colgatedb.transactions.TransactionId;
 import colgatedb.tuple.RecordId;
@@ -114,6 +115,111 @@ public class HeapFileMoreTest {
         assertEquals(2, t.getRecordId().getPageId().pageNumber());
     }
 
+    /**
+     * Full pages discovered during an insert are recorded in the free-space map file; deleting a tuple
+     * makes its page a candidate again.
+     */
+    @Test
+    public void testFreeSpaceMap() throws IOException, TransactionAbortedException {
+        List<Tuple> tups = new LinkedList<Tuple>();
+        HeapFile hf = initializeHeapFile(new int[]{-1,-1,0}, tups); // first two pages full
+        File fsmFile = FreeSpaceMap.fileFor(Database.getCatalog().getFile(hf.getId()));
+        fsmFile.deleteOnExit();
+        hf.insertTuple(tid, TestUtility.getIntTuple(new int[]{10, 10}));
+        Database.getAccessManager().transactionComplete(tid);  // only one frame, so let the dirty page go
+
+        FreeSpaceMap fsm = new FreeSpaceMap(fsmFile);
+        assertTrue(fsm.isFull(0));
+        assertTrue(fsm.isFull(1));
+        assertFalse(fsm.isFull(2));
+        assertEquals(2, fsm.nextPageWithRoom(0, hf.numPages()));
+
+        Tuple t = tups.get(0);
+        t.setRecordId(new RecordId(new SimplePageId(hf.getId(), 0), 0));
+        TransactionId tid2 = new TransactionId();
+        hf.deleteTuple(tid2, t);
+        Tuple t2 = TestUtility.getIntTuple(new int[]{20, 20});
+        hf.insertTuple(tid2, t2);
+        assertEquals(0, t2.getRecordId().getPageId().pageNumber());
+        assertTrue(new FreeSpaceMap(fsmFile).isFull(0));
+    }
+
+    /**
+     * A page filled by a transaction that aborts is not left marked full, so its slots are reused.
+     */
+    @Test
+    public void testAbortedInsertLeavesRoom() throws IOException, TransactionAbortedException {
+        List<Tuple> tups = new LinkedList<Tuple>();
+        HeapFile hf = initializeHeapFile(new int[]{-1, -1}, tups);
+        File fsmFile = FreeSpaceMap.fileFor(Database.getCatalog().getFile(hf.getId()));
+        fsmFile.deleteOnExit();
+        int slots = ((SlottedPage) pm.makePage(new SimplePageId(hf.getId(), 0))).getNumSlots();
+        for (int i = 0; i < slots; i++) {
+            hf.insertTuple(tid, TestUtility.getIntTuple(new int[]{2, i}));
+        }
+        assertEquals(3, hf.numPages());
+        assertTrue(new FreeSpaceMap(fsmFile).isFull(2));
+        Database.getLogFile().logAbort(tid);   // undoes the inserts, as Transaction.abort does
+        Database.getAccessManager().transactionComplete(tid, false);
+        assertFalse(new FreeSpaceMap(fsmFile).isFull(2));
+
+        Tuple t = TestUtility.getIntTuple(new int[]{10, 10});
+        hf.insertTuple(new TransactionId(), t);
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * An insert does not wait for a slot another writer has locked (it may be empty only because of a
+     * delete that is not committed yet), but takes the next one.
+     */
+    @Test(timeout = 10000)
+    public void testInsertSkipsLockedSlot() throws Exception {
+        HeapFile hf = TestUtilHeapFile.createHeapFile(2, 1);
+        PageId pid = new SimplePageId(hf.getId(), 0);
+        AccessManager am = Database.getAccessManager();
+        TransactionId other = new TransactionId();
+        am.acquireLock(other, new RecordId(pid, 0), Permissions.READ_WRITE);
+
+        Tuple t = TestUtility.getIntTuple(new int[]{1, 2});
+        hf.insertTuple(tid, t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+        assertTrue(am.holdsLock(tid, t.getRecordId(), Permissions.READ_WRITE));
+        assertFalse(am.holdsLock(tid, new RecordId(pid, 0), Permissions.READ_ONLY));
+        am.transactionComplete(other);
+        am.transactionComplete(tid);
+    }
+
+    /**
+     * Writers lock records, not pages, so two of them can change one page at the same time, and an
+     * abort only undoes the changes of the transaction that aborts.
+     */
+    @Test(timeout = 10000)
+    public void testWritersSharePage() throws Exception {
+        List<Tuple> tups = new LinkedList<Tuple>();
+        HeapFile hf = initializeHeapFile(new int[]{2}, tups);
+        TransactionId other = new TransactionId();
+        Tuple mine = TestUtility.getIntTuple(new int[]{10, 10});
+        Tuple theirs = TestUtility.getIntTuple(new int[]{20, 20});
+        hf.insertTuple(tid, mine);
+        hf.insertTuple(other, theirs);
+        assertEquals(0, mine.getRecordId().getPageId().pageNumber());
+        assertEquals(0, theirs.getRecordId().getPageId().pageNumber());
+        Tuple first = tups.get(0);
+        first.setRecordId(new RecordId(new SimplePageId(hf.getId(), 0), 0));
+        hf.deleteTuple(other, first);
+
+        Database.getLogFile().logAbort(other);
+        Database.getAccessManager().transactionComplete(other, false);
+        Database.getAccessManager().transactionComplete(tid);
+
+        List<Tuple> expected = new LinkedList<Tuple>(tups);
+        expected.add(mine);
+        DbFileIterator iterator = hf.iterator(new TransactionId());
+        iterator.open();
+        assertIteratorsMatch(expected, iterator);
+    }
+
     @Test
     @GradedTest(number="10.6", max_score=1.0, visibility="visible")
     public void testDeleteOnMultiplePages() throws IOException, TransactionAbortedException {
@@ -7,6 +7,8 @@ import colgatedb.page.PageMaker;
 import colgatedb.page.SimplePageId;
 import colgatedb.page.SlottedPage;
 import colgatedb.page.SlottedPageMaker;
+import colgatedb.transactions.TransactionAbortedException;
+import colgatedb.transactions.TransactionId;
 import colgatedb.tuple.IntField;
 import colgatedb.tuple.Tuple;
 import colgatedb.tuple.TupleDesc;
@@ -240,4 +242,43 @@ public class TestUtilHeapFile {
         HeapFile hf = Catalog.addHeapFile(tableName, td, f);
         return hf;
     }
+
+    /**
+     * Scans hf for the first tuple whose first field is value, failing the test if there is none.
+     * @return the tuple, with its RecordId set
+     */
+    public static Tuple findTuple(HeapFile hf, TransactionId tid, int value) throws TransactionAbortedException {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() == value) {
+                    return t;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        fail("no tuple " + value);
+        return null;
+    }
+
+    /**
+     * @return true if hf has a tuple whose first field is value
+     */
+    public static boolean containsTuple(HeapFile hf, TransactionId tid, int value) throws TransactionAbortedException {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                if (((IntField) it.next().getField(0)).getValue() == value) {
+                    return true;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        return false;
+    }
 }
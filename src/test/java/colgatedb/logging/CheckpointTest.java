@@ -0,0 +1,144 @@
+package colgatedb.logging;
+
+import colgatedb.Database;
+import colgatedb.transactions.TransactionId;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests fuzzy checkpoints and the CheckpointScheduler.
+ */
+public class CheckpointTest extends DiskLogTestUtility {
+
+    @Override
+    protected void configureLog(LogFileImpl lf) {
+        lf.setFuzzyCheckpoints(true);
+    }
+
+    /**
+     * A fuzzy checkpoint does not need the access manager, so it does not wait for other work.
+     */
+    @Test(timeout = 5000)
+    public void fuzzyCheckpointDoesNotBlock() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (Database.getAccessManager()) {
+                locked.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    // fall through and release the lock
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            lf.logCheckpoint();
+            assertEquals(1, lf.getCheckpointCount());
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void recoverAfterFuzzyCheckpoint() throws IOException {
+        TransactionId tid0 = new TransactionId();
+        TransactionId tid1 = new TransactionId();
+        lf.logXactionBegin(tid0);
+        lf.logWrite(tid0, new LsnPage(pid0, 0), new LsnPage(pid0, 1));   // never reaches disk
+        lf.logCommit(tid0);
+        lf.logXactionBegin(tid1);
+        LsnPage p1 = new LsnPage(pid1, 1);
+        lf.logWrite(tid1, new LsnPage(pid1, 0), p1);
+        dm.writePage(p1);
+        lf.logCheckpoint();
+        assertTrue(lf.getDirtyPages().containsKey(pid0));
+
+        crash();
+        assertEquals(new LsnPage(pid0, 1), dm.readPage(pid0, pm));   // redone from before the checkpoint
+        assertEquals(new LsnPage(pid1, 0), dm.readPage(pid1, pm));   // loser that was active at the checkpoint
+    }
+
+    @Test
+    public void schedulerCheckpointsByLogSize() throws IOException {
+        CheckpointScheduler scheduler = new CheckpointScheduler(lf, 1, CheckpointScheduler.DEFAULT_INTERVAL_MILLIS);
+        assertFalse(scheduler.checkOnce());
+        lf.logXactionBegin(new TransactionId());
+        assertTrue(scheduler.checkOnce());
+        assertFalse("nothing was logged since the checkpoint", scheduler.checkOnce());
+        assertEquals(1, scheduler.getCheckpoints());
+        assertEquals(1, lf.getCheckpointCount());
+    }
+
+    @Test(timeout = 10000)
+    public void schedulerThread() throws Exception {
+        CheckpointScheduler scheduler = new CheckpointScheduler(lf, 100, 5);
+        scheduler.start();
+        try {
+            while (scheduler.getCheckpoints() < 2) {
+                TransactionId tid = new TransactionId();
+                lf.logXactionBegin(tid);
+                lf.logCommit(tid);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+        assertEquals(scheduler.getCheckpoints(), lf.getCheckpointCount());
+    }
+
+    /**
+     * A checkpoint that fails is recorded, and the scheduler keeps running and checkpoints later.
+     */
+    @Test(timeout = 10000)
+    public void schedulerSurvivesFailedCheckpoint() throws Exception {
+        lf = new LogFileImpl(logFile) {
+            private boolean failed = false;
+
+            @Override
+            public synchronized void logCheckpoint() throws IOException {
+                if (!failed) {
+                    failed = true;
+                    throw new IOException("checkpoint failed");
+                }
+                super.logCheckpoint();
+            }
+        };
+        lf.setFuzzyCheckpoints(true);
+        Database.setLogFile(lf);
+        CheckpointScheduler scheduler = new CheckpointScheduler(lf, 1, 5);
+        lf.logXactionBegin(new TransactionId());
+        scheduler.start();
+        try {
+            while (scheduler.getCheckpoints() < 1) {
+                Thread.sleep(5);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+        assertEquals(1, scheduler.getFailures());
+        assertTrue(scheduler.getLastFailure() instanceof LogManagerException);
+        assertEquals(1, lf.getCheckpointCount());
+    }
+}
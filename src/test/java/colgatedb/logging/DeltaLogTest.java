@@ -0,0 +1,218 @@
+package colgatedb.logging;
+
+import colgatedb.BufferManager;
+import colgatedb.Database;
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+import colgatedb.transactions.TransactionId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests logging, rollback and recovery of changes that are logged as byte-range deltas.
+ */
+public class DeltaLogTest extends DiskLogTestUtility {
+
+    private static final int PAGE_SIZE = 64;
+    private final PageId pid = pid0;
+    private final TransactionId tid = new TransactionId();
+
+    public DeltaLogTest() {
+        super(PAGE_SIZE, new BytePageMaker());
+    }
+
+    @Before
+    public void registerBytePage() {
+        PageTypeRegistry.registerPageType(202, BytePage.class, BytePage::new);
+    }
+
+    // a page whose bytes are all zero except for the given (offset, value) pairs
+    private BytePage page(int... changes) {
+        byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < changes.length; i += 2) {
+            data[changes[i]] = (byte) changes[i + 1];
+        }
+        return new BytePage(pid, data);
+    }
+
+    @Test
+    public void changedRanges() {
+        byte[] before = new byte[PAGE_SIZE];
+        byte[] after = before.clone();
+        after[0] = 1;
+        after[3] = 1;     // close enough to be merged with offset 0
+        after[40] = 1;
+        List<int[]> ranges = LogFileImpl.changedRanges(before, after);
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[]{0, 4}, ranges.get(0));
+        assertArrayEquals(new int[]{40, 1}, ranges.get(1));
+        assertTrue(LogFileImpl.changedRanges(before, before).isEmpty());
+    }
+
+    @Test
+    public void smallChangeLoggedAsDelta() throws IOException {
+        lf.logXactionBegin(tid);
+        lf.force();
+        long start = lf.getLogSize();
+        lf.logWrite(tid, page(), page(10, 7));
+        lf.force();
+        assertTrue("delta record should be much smaller than the two page images",
+                lf.getLogSize() - start < PAGE_SIZE);
+    }
+
+    @Test
+    public void largeChangeLoggedAsImages() throws IOException {
+        byte[] data = new byte[PAGE_SIZE];
+        Arrays.fill(data, (byte) 1);
+        lf.logXactionBegin(tid);
+        lf.force();
+        long start = lf.getLogSize();
+        lf.logWrite(tid, page(), new BytePage(pid, data));
+        lf.force();
+        assertTrue(lf.getLogSize() - start > 2 * PAGE_SIZE);
+    }
+
+    @Test
+    public void redoDelta() throws IOException {
+        dm.writePage(page(5, 1));
+        lf.logXactionBegin(tid);
+        lf.logWrite(tid, page(5, 1), page(5, 1, 20, 2));
+        lf.logWrite(tid, page(5, 1, 20, 2), page(5, 3, 20, 2));
+        lf.logCommit(tid);
+
+        crash();
+        assertEquals(page(5, 3, 20, 2), dm.readPage(pid, pm));
+    }
+
+    @Test
+    public void undoDeltaOnRecovery() throws IOException {
+        dm.writePage(page(5, 1));
+        lf.logXactionBegin(tid);
+        lf.logWrite(tid, page(5, 1), page(5, 2, 30, 4));
+        dm.writePage(page(5, 2, 30, 4));    // steal: uncommitted change reaches disk
+
+        crash();
+        assertEquals(page(5, 1), dm.readPage(pid, pm));
+    }
+
+    @Test
+    public void rollbackDelta() throws IOException {
+        dm.writePage(page(5, 1));
+        lf.logXactionBegin(tid);
+        lf.logWrite(tid, page(5, 1), page(5, 2));
+        lf.logWrite(tid, page(5, 2), page(5, 2, 6, 9));
+        dm.writePage(page(5, 2, 6, 9));
+        lf.logAbort(tid);
+        assertEquals(page(5, 1), dm.readPage(pid, pm));
+    }
+
+    /**
+     * No force, no steal: an earlier commit lives only in the buffer pool when a later transaction's
+     * change to the same page is rolled back.  The rollback must not put back the page on disk.
+     */
+    @Test
+    public void rollbackDeltaKeepsCommitInBufferPool() throws IOException {
+        BufferManager bm = Database.getBufferManager();
+        TransactionId tid2 = new TransactionId();
+        lf.logXactionBegin(tid);
+        BytePage p = (BytePage) bm.pinPage(pid, pm);
+        p.set(5, 1);
+        lf.logWrite(tid, page(), page(5, 1));
+        bm.unpinPage(pid, true);
+        lf.logCommit(tid);
+
+        lf.logXactionBegin(tid2);
+        p = (BytePage) bm.pinPage(pid, pm);
+        p.set(20, 2);
+        lf.logWrite(tid2, page(5, 1), page(5, 1, 20, 2));
+        bm.unpinPage(pid, true);
+        lf.logAbort(tid2);
+        assertEquals(page(5, 1), dm.readPage(pid, pm));
+
+        crash();
+        assertEquals(page(5, 1), dm.readPage(pid, pm));
+    }
+
+    public static class BytePage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        public BytePage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data.clone();
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            return data.clone();
+        }
+
+        void set(int offset, int value) {
+            data[offset] = (byte) value;
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BytePage && ((BytePage) o).pid.equals(pid) && Arrays.equals(((BytePage) o).data, data);
+        }
+
+        @Override
+        public int hashCode() {
+            return pid.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "BytePage(" + pid + ", " + Arrays.toString(data) + ")";
+        }
+    }
+
+    private static class BytePageMaker implements PageMaker {
+        @Override
+        public Page makePage(PageId pid, byte[] bytes) {
+            return new BytePage(pid, bytes);
+        }
+
+        @Override
+        public Page makePage(PageId pid) {
+            return new BytePage(pid, new byte[PAGE_SIZE]);
+        }
+    }
+}
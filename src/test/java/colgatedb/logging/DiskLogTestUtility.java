@@ -0,0 +1,185 @@
+package colgatedb.logging;
+
+import colgatedb.AccessManagerImpl;
+import colgatedb.BufferManagerImpl;
+import colgatedb.Database;
+import colgatedb.DiskManagerImpl;
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.PageMaker;
+import colgatedb.page.SimplePageId;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Fixture for tests that log pages to a real log file and write them to a real table file: a fresh
+ * LogFileImpl and a one-table database with two allocated pages, and {@link #crash()} to throw away
+ * the in-memory state and recover.  Unlike {@link LogTestUtility}, pages keep their LSNs, so by default
+ * the table holds {@link LsnPage}s.
+ */
+public class DiskLogTestUtility {
+
+    protected final PageId pid0 = new SimplePageId(0, 0);
+    protected final PageId pid1 = new SimplePageId(0, 1);
+    protected final PageMaker pm;
+    private final int pageSize;
+    protected File logFile;
+    protected File dbFile;
+    protected DiskManagerImpl dm;
+    protected LogFileImpl lf;
+
+    protected DiskLogTestUtility() {
+        this(LsnPage.PAGE_SIZE, new LsnPageMaker());
+    }
+
+    /**
+     * @param pageSize size of the table's pages
+     * @param pm page maker for the table's pages
+     */
+    protected DiskLogTestUtility(int pageSize, PageMaker pm) {
+        this.pageSize = pageSize;
+        this.pm = pm;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        PageTypeRegistry.registerPageType(203, LsnPage.class, LsnPage::new);
+        logFile = File.createTempFile("testLog", ".dat");
+        dbFile = File.createTempFile("testFile", ".dat");
+        resetDatabase();
+        dm.allocatePage(pid0);
+        dm.allocatePage(pid1);
+    }
+
+    @After
+    public void tearDown() {
+        Database.reset();
+        LogFileImpl.deleteLogFiles(logFile);
+        dbFile.delete();
+        new File(dbFile.getPath() + DiskManagerImpl.LSN_FILE_SUFFIX).delete();
+    }
+
+    /**
+     * Sets up the log before it is used; the default does nothing.  Called for every new log,
+     * including the one recovery runs on after {@link #crash()}.
+     */
+    protected void configureLog(LogFileImpl lf) {
+    }
+
+    /**
+     * Replaces the log, disk manager, buffer manager and access manager with new ones over the same files.
+     */
+    protected void resetDatabase() throws IOException {
+        lf = new LogFileImpl(logFile);
+        configureLog(lf);
+        dm = new DiskManagerImpl(pageSize);
+        dm.addFileEntry(0, dbFile.getAbsolutePath());
+        BufferManagerImpl bm = new BufferManagerImpl(10, dm);
+        Database.setDiskManager(dm);
+        Database.setBufferManager(bm);
+        Database.setAccessManager(new AccessManagerImpl(bm));
+        Database.setLogFile(lf);
+    }
+
+    /**
+     * Destroys in-memory state of database and initiate recovery protocol
+     */
+    protected void crash() throws IOException {
+        resetDatabase();
+        lf.recover();
+    }
+
+    /**
+     * A one-byte page that, unlike {@link LogTestUtility.MockPage}, keeps its page LSN.
+     */
+    public static class LsnPage implements Page {
+        static final int PAGE_SIZE = 1;
+        private final PageId pid;
+        private final byte datum;
+        private long lsn = NO_LSN;
+
+        public LsnPage(PageId pid, int datum) {
+            this.pid = pid;
+            this.datum = (byte) datum;
+        }
+
+        public LsnPage(PageId pid, byte[] data) {
+            this(pid, data[0]);
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            return new byte[]{datum};
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getPageLSN() {
+            return lsn;
+        }
+
+        @Override
+        public void setPageLSN(long lsn) {
+            this.lsn = lsn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LsnPage && ((LsnPage) o).pid.equals(pid) && ((LsnPage) o).datum == datum;
+        }
+
+        @Override
+        public int hashCode() {
+            return pid.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "LsnPage(" + pid + ", " + datum + ")";
+        }
+    }
+
+    public static class LsnPageMaker implements PageMaker {
+        @Override
+        public Page makePage(PageId pid, byte[] bytes) {
+            return new LsnPage(pid, bytes);
+        }
+
+        @Override
+        public Page makePage(PageId pid) {
+            return new LsnPage(pid, 0);
+        }
+    }
+}
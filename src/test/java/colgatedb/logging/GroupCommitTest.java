@@ -0,0 +1,141 @@
+package colgatedb.logging;
+
+import colgatedb.transactions.TransactionId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class GroupCommitTest {
+
+    private static final int NUM_THREADS = 8;
+    private File logFile;
+    private LogFileImpl lf;
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("testLog", ".dat");
+        lf = new LogFileImpl(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        LogFileImpl.deleteLogFiles(logFile);
+    }
+
+    @Test
+    public void oneFsyncPerCommitByDefault() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            TransactionId tid = new TransactionId();
+            lf.logXactionBegin(tid);
+            lf.logCommit(tid);
+        }
+        assertEquals(3, lf.getCommitCount());
+        assertEquals(3, lf.getFsyncCount());
+        assertEquals(1.0, lf.getFsyncsPerCommit(), 0.0);
+    }
+
+    @Test
+    public void concurrentCommitsShareFsyncs() throws Exception {
+        lf.setGroupCommit(true);
+        lf.setGroupCommitDelay(20000);
+        List<TransactionId> tids = commitConcurrently();
+        assertEquals(NUM_THREADS, lf.getCommitCount());
+        assertTrue("expected fewer fsyncs than commits but got " + lf.getFsyncCount(),
+                lf.getFsyncCount() < NUM_THREADS);
+        Set<Long> expected = new HashSet<>();
+        for (TransactionId tid : tids) {
+            expected.add(tid.getId());
+        }
+        assertEquals(expected, committedOnDisk());
+    }
+
+    /**
+     * Once a commit has returned its records are on disk, so forcing again does not need another fsync.
+     */
+    @Test
+    public void forceAfterCommitIsFree() throws IOException {
+        lf.setGroupCommit(true);
+        lf.setGroupCommitDelay(0);
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        lf.logCommit(tid);
+        long fsyncs = lf.getFsyncCount();
+        lf.force();
+        assertEquals(fsyncs, lf.getFsyncCount());
+    }
+
+    private List<TransactionId> commitConcurrently() throws InterruptedException {
+        List<TransactionId> tids = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            TransactionId tid = new TransactionId();
+            tids.add(tid);
+            Thread t = new Thread(() -> {
+                try {
+                    lf.logXactionBegin(tid);
+                    go.await();
+                    lf.logCommit(tid);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        return tids;
+    }
+
+    private Set<Long> committedOnDisk() throws IOException {
+        Set<Long> ids = new HashSet<>();
+        LogSegments segments = new LogSegments(logFile);
+        LogSegments.Reader in = segments.reader();
+        try {
+            while (in.getFilePointer() < in.length()) {
+                int type = in.readInt();
+                long tid = in.readLong();
+                in.readLong();   // previous LSN
+                in.readLong();
+                if (type == LogType.COMMIT_RECORD) {
+                    ids.add(tid);
+                }
+            }
+        } finally {
+            in.close();
+            segments.close();
+        }
+        return ids;
+    }
+}
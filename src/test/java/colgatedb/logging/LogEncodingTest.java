@@ -0,0 +1,150 @@
+package colgatedb.logging;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.transactions.TransactionId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class LogEncodingTest {
+
+    private File logFile;
+    private LogFileImpl lf;
+    private PageId pid = new SimplePageId(3, 7);
+
+    @Before
+    public void setUp() throws IOException {
+        logFile = File.createTempFile("testLog", ".dat");
+        lf = new LogFileImpl(logFile);
+    }
+
+    @After
+    public void tearDown() {
+        LogFileImpl.deleteLogFiles(logFile);
+    }
+
+    private byte[] encode(Page page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LogFileImpl.writePageData(new DataOutputStream(bytes), page);
+        return bytes.toByteArray();
+    }
+
+    private Page decode(byte[] bytes) throws IOException {
+        return LogFileImpl.readPageData(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void registeredTypeRoundTrip() throws IOException {
+        PageTypeRegistry.registerPageType(200, RegisteredPage.class, RegisteredPage::new);
+        Page page = new RegisteredPage(pid, new byte[]{1, 2, 3});
+        byte[] bytes = encode(page);
+        // two type bytes, id length byte, two ints, data length int, data
+        assertEquals(1 + 1 + 1 + 8 + 4 + 3, bytes.length);
+        assertEquals(page, decode(bytes));
+    }
+
+    /**
+     * Types that are not registered fall back to class names and reflection.
+     */
+    @Test
+    public void unregisteredTypeRoundTrip() throws IOException {
+        Page page = new UnregisteredPage(pid, new byte[]{4, 5});
+        byte[] bytes = encode(page);
+        assertTrue(bytes.length > 1 + 1 + 1 + 8 + 4 + 2);
+        assertEquals(page, decode(bytes));
+    }
+
+    @Test
+    public void duplicateIdRejected() {
+        PageTypeRegistry.registerPageType(200, RegisteredPage.class, RegisteredPage::new);   // re-registering is fine
+        try {
+            PageTypeRegistry.registerPageType(200, UnregisteredPage.class, UnregisteredPage::new);
+            fail("id 200 is already taken");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void recordsBufferedUntilForce() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        lf.logWrite(tid, new UnregisteredPage(pid, new byte[]{0}), new UnregisteredPage(pid, new byte[]{1}));
+        long lengthBefore = lf.getLogSize();
+        lf.force();
+        assertTrue(lf.getLogSize() > lengthBefore);
+    }
+
+    public static class RegisteredPage extends UnregisteredPage {
+        public RegisteredPage(PageId pid, byte[] data) {
+            super(pid, data);
+        }
+    }
+
+    public static class UnregisteredPage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        public UnregisteredPage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        @Override
+        public PageId getId() {
+            return pid;
+        }
+
+        @Override
+        public byte[] getPageData() {
+            return data.clone();
+        }
+
+        @Override
+        public Page getBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setBeforeImage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && o.getClass() == getClass() && ((UnregisteredPage) o).pid.equals(pid)
+                    && Arrays.equals(((UnregisteredPage) o).data, data);
+        }
+
+        @Override
+        public int hashCode() {
+            return pid.hashCode();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package colgatedb.logging;
+
+import colgatedb.page.PageId;
+import colgatedb.transactions.TransactionId;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests log segments and truncation after a checkpoint.
+ */
+public class LogSegmentTest extends DiskLogTestUtility {
+
+    private static final int SEGMENT_SIZE = 64;   // a few records per segment
+
+    @Override
+    protected void configureLog(LogFileImpl lf) {
+        lf.setSegmentSize(SEGMENT_SIZE);
+        lf.setFuzzyCheckpoints(true);
+    }
+
+    // commits one change to the page, writing the page to disk if asked to
+    private void commitChange(PageId pid, int from, int to, boolean write) throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        LsnPage after = new LsnPage(pid, to);
+        lf.logWrite(tid, new LsnPage(pid, from), after);
+        if (write) {
+            dm.writePage(after);
+        }
+        lf.logCommit(tid);
+    }
+
+    @Test
+    public void recordsSpanSegments() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            commitChange(pid0, i, i + 1, false);
+        }
+        assertTrue(lf.getSegmentCount() > 1);
+        assertEquals(lf.getLogSize(), (long) lf.getSegmentCount() * SEGMENT_SIZE, SEGMENT_SIZE);
+
+        crash();
+        assertEquals(20, lf.getRedoApplied());
+        assertEquals(new LsnPage(pid0, 20), dm.readPage(pid0, pm));
+    }
+
+    @Test
+    public void checkpointDeletesOldSegments() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            commitChange(pid0, i, i + 1, true);
+        }
+        int segments = lf.getSegmentCount();
+        lf.logCheckpoint();
+        assertTrue("expected old segments to be deleted, still have " + lf.getSegmentCount(),
+                lf.getSegmentCount() < segments);
+        assertTrue(lf.getLogSize() <= 2 * SEGMENT_SIZE);
+
+        commitChange(pid1, 0, 1, false);
+        crash();
+        assertEquals(1, lf.getRedoApplied());
+        assertEquals(new LsnPage(pid0, 20), dm.readPage(pid0, pm));
+        assertEquals(new LsnPage(pid1, 1), dm.readPage(pid1, pm));
+    }
+
+    /**
+     * A page that is still dirty at the checkpoint keeps the log from its first unwritten change.
+     */
+    @Test
+    public void dirtyPageKeepsLog() throws IOException {
+        commitChange(pid1, 0, 1, false);
+        for (int i = 0; i < 20; i++) {
+            commitChange(pid0, i, i + 1, true);
+        }
+        long size = lf.getLogSize();
+        lf.logCheckpoint();
+        assertTrue(lf.getLogSize() >= size);
+
+        crash();
+        assertEquals(new LsnPage(pid1, 1), dm.readPage(pid1, pm));
+    }
+
+    /**
+     * An active transaction keeps the log from its first record, so that it can still be rolled back.
+     */
+    @Test
+    public void activeTransactionKeepsLog() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        LsnPage after = new LsnPage(pid1, 1);
+        lf.logWrite(tid, new LsnPage(pid1, 0), after);
+        dm.writePage(after);
+        for (int i = 0; i < 20; i++) {
+            commitChange(pid0, i, i + 1, true);
+        }
+        long size = lf.getLogSize();
+        lf.logCheckpoint();
+        assertTrue(lf.getLogSize() >= size);
+
+        lf.logAbort(tid);
+        assertEquals(new LsnPage(pid1, 0), dm.readPage(pid1, pm));
+        lf.logCheckpoint();
+        assertTrue(lf.getLogSize() < size);
+    }
+
+    @Test
+    public void newLogDeletesOldSegments() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            commitChange(pid0, i, i + 1, true);
+        }
+        int segments = lf.getSegmentCount();
+        long lsn = lf.getNextLSN();
+
+        resetDatabase();      // the new log throws the old one away on its first append
+        commitChange(pid1, 0, 1, false);
+        assertTrue(lf.getSegmentCount() < segments);
+        assertTrue(lf.getNextLSN() > lsn);
+        LogSegments old = new LogSegments(logFile);
+        try {
+            long firstOld = (lsn - 1) / SEGMENT_SIZE - segments + 1;
+            for (long segment = firstOld; segment < firstOld + segments; segment++) {
+                assertFalse(old.segmentFile(segment).exists());
+            }
+        } finally {
+            old.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package colgatedb.logging;
+
+import colgatedb.AccessManager;
+import colgatedb.Database;
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.transactions.Permissions;
+import colgatedb.transactions.Transaction;
+import colgatedb.transactions.TransactionAbortedException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests the no-force / steal policy: commit only forces the log, and dirty pages (committed or not)
+ * reach the disk whenever the buffer manager decides to write them.
+ */
+public class NoForceTest extends LogTestUtility {
+
+    @Before
+    public void setUpNoForce() {
+        Database.getAccessManager().setForce(false);
+        bm.evictDirty(true);
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    // sets the page to value through the access manager, leaving it dirty in the buffer pool
+    private void update(Transaction t, PageId pid, int value) throws TransactionAbortedException {
+        AccessManager am = Database.getAccessManager();
+        am.acquireLock(t.getId(), pid, Permissions.READ_WRITE);
+        MockPage page = (MockPage) am.pinPage(t.getId(), pid, pm);
+        page.datum = (byte) value;
+        am.unpinPage(t.getId(), page, true);
+    }
+
+    @Test
+    public void commitLeavesPageInBufferPool() throws IOException, TransactionAbortedException {
+        MockPage original = (MockPage) dm.readPage(pid0, pm);
+        Transaction t = begin();
+        update(t, pid0, 5);
+        t.commit();
+        assertTrue(bm.isDirty(pid0));
+        assertEquals(original, dm.readPage(pid0, pm));
+
+        crash();     // the committed change was only in the log
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+    }
+
+    @Test
+    public void stolenPageForcesLog() throws IOException, TransactionAbortedException {
+        Transaction t = begin();
+        update(t, pid0, 5);
+        long fsyncs = lf.getFsyncCount();
+        bm.flushPage(pid0);     // steal: the uncommitted page goes to disk
+        assertTrue(lf.getFsyncCount() > fsyncs);
+        bm.flushPage(pid0);     // already durable up to the page's LSN
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+    }
+
+    @Test
+    public void stolenPageUndoneAfterCrash() throws IOException, TransactionAbortedException {
+        MockPage original = (MockPage) dm.readPage(pid0, pm);
+        Transaction t = begin();
+        update(t, pid0, 5);
+        bm.flushPage(pid0);
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+
+        crash();
+        assertEquals(original, dm.readPage(pid0, pm));
+        assertTrue(lf.abortedTxns.contains(t.getId().getId()));
+    }
+
+    @Test
+    public void abortKeepsEarlierCommit() throws IOException, TransactionAbortedException {
+        Transaction t1 = begin();
+        update(t1, pid0, 5);
+        t1.commit();            // page stays dirty in the buffer pool
+
+        Transaction t2 = begin();
+        update(t2, pid0, 6);
+        bm.flushPage(pid0);     // steal
+        t2.abort();
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+
+        Transaction t3 = begin();
+        Database.getAccessManager().acquireLock(t3.getId(), pid0, Permissions.READ_ONLY);
+        assertEquals(new MockPage(pid0, 5), Database.getAccessManager().pinPage(t3.getId(), pid0, pm));
+        t3.commit();
+
+        crash();
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+    }
+
+    @Test
+    public void evictionWritesCommittedPages() throws IOException, TransactionAbortedException {
+        Transaction t = begin();
+        update(t, pid0, 5);
+        update(t, pid1, 7);
+        t.commit();
+        for (int i = 2; i < 20; i++) {       // fill the pool so the dirty pages are evicted
+            PageId pid = new SimplePageId(0, i);
+            dm.allocatePage(pid);
+            Transaction reader = begin();
+            Database.getAccessManager().acquireLock(reader.getId(), pid, Permissions.READ_ONLY);
+            Database.getAccessManager().pinPage(reader.getId(), pid, pm);
+            reader.commit();
+        }
+        assertFalse(bm.inBufferPool(pid0));
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+        assertEquals(new MockPage(pid1, 7), dm.readPage(pid1, pm));
+
+        crash();
+        assertEquals(new MockPage(pid0, 5), dm.readPage(pid0, pm));
+        assertEquals(new MockPage(pid1, 7), dm.readPage(pid1, pm));
+    }
+}
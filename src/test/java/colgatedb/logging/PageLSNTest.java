@@ -0,0 +1,165 @@
+package colgatedb.logging;
+
+import colgatedb.page.Page;
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.transactions.TransactionId;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests page LSNs, the dirty page table, and how recovery uses them to skip redo.
+ */
+public class PageLSNTest extends DiskLogTestUtility {
+
+    @Test
+    public void logWriteStampsPage() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        long lsn = lf.getNextLSN();
+        LsnPage after = new LsnPage(pid0, 1);
+        lf.logWrite(tid, new LsnPage(pid0, 0), after);
+        assertEquals(lsn, after.getPageLSN());
+        assertEquals(Long.valueOf(lsn), lf.getDirtyPages().get(pid0));
+
+        LsnPage after2 = new LsnPage(pid0, 2);
+        lf.logWrite(tid, after, after2);
+        assertTrue(after2.getPageLSN() > lsn);
+        assertEquals(Long.valueOf(lsn), lf.getDirtyPages().get(pid0));   // recLSN is the first change
+
+        dm.writePage(after);
+        assertTrue("page on disk is missing a change", lf.getDirtyPages().containsKey(pid0));
+        dm.writePage(after2);
+        assertFalse(lf.getDirtyPages().containsKey(pid0));
+        assertEquals(after2.getPageLSN(), dm.getPageLSN(pid0));
+        assertEquals(after2.getPageLSN(), dm.readPage(pid0, pm).getPageLSN());
+    }
+
+    /**
+     * Page LSNs are kept in memory once the sidecar has been read; a new DiskManager reads them back.
+     */
+    @Test
+    public void lsnsReadBackFromSidecar() throws IOException {
+        PageId pid2 = new SimplePageId(0, 2);
+        dm.allocatePage(pid2);
+        assertEquals(Page.NO_LSN, dm.getPageLSN(pid0));   // no sidecar yet
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        LsnPage p2 = new LsnPage(pid2, 1);
+        LsnPage p0 = new LsnPage(pid0, 1);
+        lf.logWrite(tid, new LsnPage(pid2, 0), p2);
+        lf.logWrite(tid, new LsnPage(pid0, 0), p0);
+        dm.writePage(p0);
+        dm.writePage(p2);
+        assertEquals(p0.getPageLSN(), dm.getPageLSN(pid0));
+        assertEquals(Page.NO_LSN, dm.getPageLSN(pid1));
+        assertEquals(p2.getPageLSN(), dm.getPageLSN(pid2));
+
+        dm.close();
+        resetDatabase();
+        assertEquals(p0.getPageLSN(), dm.getPageLSN(pid0));
+        assertEquals(Page.NO_LSN, dm.getPageLSN(pid1));
+        assertEquals(p2.getPageLSN(), dm.readPage(pid2, pm).getPageLSN());
+    }
+
+    @Test
+    public void redoSkipsPagesAlreadyOnDisk() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        LsnPage p0 = new LsnPage(pid0, 1);
+        LsnPage p1 = new LsnPage(pid1, 1);
+        lf.logWrite(tid, new LsnPage(pid0, 0), p0);
+        lf.logWrite(tid, new LsnPage(pid1, 0), p1);
+        dm.writePage(p0);     // only p0 reaches disk before the crash
+        lf.logCommit(tid);
+
+        crash();
+        assertEquals(1, lf.getRedoSkipped());
+        assertEquals(1, lf.getRedoApplied());
+        assertEquals(p0, dm.readPage(pid0, pm));
+        assertEquals(p1, dm.readPage(pid1, pm));
+        assertEquals(p1.getPageLSN(), dm.getPageLSN(pid1));
+    }
+
+    /**
+     * Changes before the checkpoint are only redone for pages in the checkpoint's dirty page table.
+     */
+    @Test
+    public void redoStartsAtOldestDirtyPage() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        LsnPage p0 = new LsnPage(pid0, 1);
+        LsnPage p1 = new LsnPage(pid1, 1);
+        lf.logWrite(tid, new LsnPage(pid1, 0), p1);
+        dm.writePage(p1);
+        lf.logWrite(tid, new LsnPage(pid0, 0), p0);   // never written, so still dirty at the checkpoint
+        lf.logCommit(tid);
+        lf.logCheckpoint();
+
+        crash();
+        assertEquals(1, lf.getRedoApplied());
+        assertEquals(0, lf.getRedoSkipped());   // p1's record comes before the oldest recLSN
+        assertEquals(p0, dm.readPage(pid0, pm));
+        assertEquals(p1, dm.readPage(pid1, pm));
+    }
+
+    @Test
+    public void parallelRedoKeepsPageOrder() throws IOException {
+        int numPages = 8;
+        for (int i = 2; i < numPages; i++) {
+            dm.allocatePage(new SimplePageId(0, i));
+        }
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        for (int round = 1; round <= 20; round++) {
+            for (int i = 0; i < numPages; i++) {
+                PageId pid = new SimplePageId(0, i);
+                lf.logWrite(tid, new LsnPage(pid, round - 1), new LsnPage(pid, round));
+            }
+        }
+        lf.logCommit(tid);
+
+        resetDatabase();
+        lf.setRedoThreads(4);
+        lf.recover();
+        assertEquals(20 * numPages, lf.getRedoApplied());
+        for (int i = 0; i < numPages; i++) {
+            PageId pid = new SimplePageId(0, i);
+            assertEquals(new LsnPage(pid, 20), dm.readPage(pid, pm));
+        }
+    }
+
+    @Test
+    public void lsnsIncreaseAcrossTruncation() throws IOException {
+        TransactionId tid = new TransactionId();
+        lf.logXactionBegin(tid);
+        lf.logCommit(tid);
+        long lsn = lf.getNextLSN();
+
+        resetDatabase();      // the new log truncates the file on its first append
+        TransactionId tid2 = new TransactionId();
+        lf.logXactionBegin(tid2);
+        LsnPage page = new LsnPage(pid0, 1);
+        lf.logWrite(tid2, new LsnPage(pid0, 0), page);
+        assertTrue(page.getPageLSN() > lsn);
+        assertTrue(lf.getLogSize() < lsn);
+    }
+}
@@ -0,0 +1,133 @@
+package colgatedb.logging;
+
+import colgatedb.BufferManager;
+import colgatedb.Database;
+import colgatedb.TestUtility;
+import colgatedb.dbfile.HeapFile;
+import colgatedb.page.SlottedPage;
+import colgatedb.page.SlottedPageMaker;
+import colgatedb.transactions.TransactionId;
+import colgatedb.tuple.TupleDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static colgatedb.page.PageTestUtility.assertEqualTuples;
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests logging, rollback and recovery of changes that are logged slot by slot, where several
+ * transactions change one page.
+ */
+public class SlotLogTest extends DiskLogTestUtility {
+
+    private static final int PAGE_SIZE = 64;
+    private static final TupleDesc td = TestUtility.getTupleDesc(2);
+    private final TransactionId tid1 = new TransactionId();
+    private final TransactionId tid2 = new TransactionId();
+
+    public SlotLogTest() {
+        super(PAGE_SIZE, new SlottedPageMaker(td, PAGE_SIZE));
+    }
+
+    @Before
+    public void addTable() {
+        // slotted pages read from the log look up their schema in the catalog
+        Database.getCatalog().addTable("slots", new HeapFile(td, PAGE_SIZE, pid0.getTableId(), 2), "", dbFile);
+    }
+
+    // inserts a tuple into a slot of the buffered page and logs it, as HeapFile does
+    private void insert(TransactionId tid, int slotno) {
+        BufferManager bm = Database.getBufferManager();
+        SlottedPage page = (SlottedPage) bm.pinPage(pid0, pm);
+        synchronized (page) {
+            page.insertTuple(slotno, TestUtility.getIntTuple(new int[]{slotno, slotno}));
+            lf.logSlotWrite(tid, page, slotno, null);
+        }
+        bm.unpinPage(pid0, true);
+    }
+
+    private SlottedPage pageOnDisk() {
+        return (SlottedPage) dm.readPage(pid0, pm);
+    }
+
+    @Test
+    public void rollbackUndoesOnlyItsSlots() throws IOException {
+        lf.logXactionBegin(tid1);
+        lf.logXactionBegin(tid2);
+        insert(tid1, 0);
+        insert(tid2, 1);
+        insert(tid1, 2);
+        lf.logAbort(tid2);
+
+        SlottedPage page = (SlottedPage) Database.getBufferManager().getPage(pid0);
+        assertTrue(page.isSlotUsed(0));
+        assertTrue(page.isSlotEmpty(1));
+        assertTrue(page.isSlotUsed(2));
+    }
+
+    @Test
+    public void redoSlots() throws IOException {
+        lf.logXactionBegin(tid1);
+        insert(tid1, 0);
+        insert(tid1, 3);
+        lf.logCommit(tid1);
+
+        crash();
+        SlottedPage page = pageOnDisk();
+        assertEquals(2, page.getNumSlots() - page.getNumEmptySlots());
+        assertEqualTuples(TestUtility.getIntTuple(new int[]{3, 3}), page.getTuple(3));
+    }
+
+    /**
+     * Steal: the page reaches disk holding a loser's slot next to a winner's, and recovery only takes
+     * out the loser's.
+     */
+    @Test
+    public void undoLoserSlotOnRecovery() throws IOException {
+        lf.logXactionBegin(tid1);
+        lf.logXactionBegin(tid2);
+        insert(tid1, 0);
+        insert(tid2, 1);
+        lf.logCommit(tid1);
+        Database.getBufferManager().flushPage(pid0);
+        assertTrue(pageOnDisk().isSlotUsed(1));
+
+        crash();
+        Database.getBufferManager().flushAllPages();   // undo changes the buffered page, like a rollback
+        SlottedPage page = pageOnDisk();
+        assertTrue(page.isSlotUsed(0));
+        assertTrue(page.isSlotEmpty(1));
+    }
+
+    /**
+     * The CLR of an undone slot is redone, so an abort that only reached the log is not lost.
+     */
+    @Test
+    public void redoSlotCLR() throws IOException {
+        lf.logXactionBegin(tid1);
+        insert(tid1, 0);
+        Database.getBufferManager().flushPage(pid0);
+        lf.logAbort(tid1);
+
+        crash();
+        SlottedPage page = pageOnDisk();
+        assertEquals(page.getNumSlots(), page.getNumEmptySlots());
+    }
+}
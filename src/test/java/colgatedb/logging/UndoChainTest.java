@@ -0,0 +1,74 @@
+package colgatedb.logging;
+
+import colgatedb.transactions.TransactionId;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests that rollback and recovery undo follow each transaction's chain of previous LSNs instead of
+ * reading the whole log.
+ */
+public class UndoChainTest extends LogTestUtility {
+
+    // logs many records for other transactions
+    private void otherTraffic() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            TransactionId tid = new TransactionId();
+            lf.logXactionBegin(tid);
+            lf.logWrite(tid, new MockPage(pid1, i), new MockPage(pid1, i + 1));
+            lf.logCommit(tid);
+        }
+    }
+
+    @Test
+    public void rollbackReadsOnlyItsOwnRecords() throws IOException {
+        lf.logXactionBegin(tid0);
+        otherTraffic();
+        MockPage after = new MockPage(pid0, 2);
+        lf.logWrite(tid0, new MockPage(pid0, 1), after);
+        dm.writePage(after);
+        otherTraffic();
+
+        lf.logAbort(tid0);
+        assertEquals(2, lf.getUndoRead());     // the update and the BEGIN record
+        assertEquals(new MockPage(pid0, 1), dm.readPage(pid0, pm));
+        assertTrue(lf.abortedTxns.contains(tid0.getId()));
+    }
+
+    @Test
+    public void recoveryUndoReadsOnlyLosers() throws IOException {
+        lf.logXactionBegin(tid0);
+        MockPage after = new MockPage(pid0, 2);
+        lf.logWrite(tid0, new MockPage(pid0, 1), after);
+        otherTraffic();
+        lf.logCheckpoint();     // tid0 is active at the checkpoint
+        MockPage after2 = new MockPage(pid0, 3);
+        lf.logWrite(tid0, after, after2);
+        dm.writePage(after2);
+        otherTraffic();
+        lf.force();
+
+        crash();
+        assertEquals(3, lf.getUndoRead());
+        assertEquals(new MockPage(pid0, 1), dm.readPage(pid0, pm));
+        assertTrue(lf.abortedTxns.contains(tid0.getId()));
+    }
+}
@@ -0,0 +1,183 @@
+package colgatedb.operators;
+
+import colgatedb.Database;
+import colgatedb.DbException;
+import colgatedb.TestUtility;
+import colgatedb.tuple.Op;
+import colgatedb.tuple.TupleDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class GraceHashJoinTest {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    @Before
+    public void createTupleLists() throws Exception {
+        Database.reset();
+        this.scan1 = OperatorTestUtility.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = OperatorTestUtility.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7});
+        this.eqJoin = OperatorTestUtility.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+    }
+
+    // a large input: value i goes with i % mod in the second column
+    private static TupleIterator createList(int n, int mod) {
+        int[] values = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            values[2 * i] = i % mod;
+            values[2 * i + 1] = i;
+        }
+        return OperatorTestUtility.createTupleList(2, values);
+    }
+
+    private static List<String> drain(DbIterator op) throws Exception {
+        List<String> tuples = new ArrayList<>();
+        while (op.hasNext()) {
+            tuples.add(op.next().toString());
+        }
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    @Test
+    public void getTupleDesc() {
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2, 1);
+        TupleDesc expected = TestUtility.getTupleDesc(width1 + width2);
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    @Test
+    public void badArguments() {
+        try {
+            new GraceHashJoin(new JoinPredicate(0, Op.GREATER_THAN, 0), scan1, scan2, 1);
+            fail("should have raised an exception!");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2, 0);
+            fail("should have raised an exception!");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void eqJoinInMemory() throws Exception {
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2, 1);
+        op.open();
+        eqJoin.open();
+        OperatorTestUtility.matchAllTuples(eqJoin, op);
+        assertTrue(OperatorTestUtility.checkExhausted(op));
+        assertEquals(0, op.getSpilledPartitions());
+        assertEquals(0, op.getSpillPagesWritten());
+    }
+
+    @Test
+    public void spills() throws Exception {
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0),
+                createList(3000, 2500), createList(2000, 2000), 1);
+        op.open();
+        List<String> actual = drain(op);
+        HashJoin expected = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0),
+                createList(3000, 2500), createList(2000, 2000));
+        expected.open();
+        assertEquals(2000 + 500, actual.size());
+        assertEquals(drain(expected), actual);
+        assertTrue(op.getSpilledPartitions() > 0);
+        assertTrue(op.getSpillPagesWritten() > 0);
+        assertTrue(op.getSpillPagesRead() > 0);
+        op.close();
+    }
+
+    @Test
+    public void partitionLargerThanMemory() throws Exception {
+        // with two partitions, each spilled partition holds about twice the budget and is built in chunks
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0),
+                createList(3000, 2500), createList(2000, 2000), 1, 2);
+        op.open();
+        List<String> actual = drain(op);
+        HashJoin expected = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0),
+                createList(3000, 2500), createList(2000, 2000));
+        expected.open();
+        assertEquals(drain(expected), actual);
+        assertEquals(2, op.getSpilledPartitions());
+        op.close();
+    }
+
+    @Test
+    public void rewind() throws Exception {
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0),
+                createList(1000, 800), createList(1000, 1000), 1);
+        op.open();
+        List<String> first = drain(op);
+        assertEquals(1000, first.size());
+        long written = op.getSpillPagesWritten();
+        assertTrue(written > 0);
+        op.rewind();
+        assertEquals(first, drain(op));
+        assertEquals(2 * written, op.getSpillPagesWritten());
+        op.close();
+    }
+
+    @Test
+    public void moreThanOneMatch() throws Exception {
+        TupleIterator left = OperatorTestUtility.createTupleList(1,
+                new int[]{1, 3, 5, 7, 3});
+        TupleIterator right = OperatorTestUtility.createTupleList(2,
+                new int[]{1, 10,
+                        5, 20,
+                        1, 30,
+                        6, -1,
+                        3, 50,
+                        3, 60});
+        TupleIterator result = OperatorTestUtility.createTupleList(3,
+                new int[]{1, 1, 10,
+                        5, 5, 20,
+                        1, 1, 30,
+                        3, 3, 50,
+                        3, 3, 60,
+                        3, 3, 50,
+                        3, 3, 60});
+        GraceHashJoin op = new GraceHashJoin(new JoinPredicate(0, Op.EQUALS, 0), left, right, 1);
+        op.open();
+        result.open();
+        OperatorTestUtility.matchAllTuples(result, op);
+    }
+}
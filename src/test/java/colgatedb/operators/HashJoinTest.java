@@ -0,0 +1,141 @@
+package colgatedb.operators;
+
+import colgatedb.DbException;
+import colgatedb.TestUtility;
+import colgatedb.tuple.Op;
+import colgatedb.tuple.TupleDesc;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+public class HashJoinTest {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = OperatorTestUtility.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = OperatorTestUtility.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7});
+        this.eqJoin = OperatorTestUtility.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+    }
+
+    @Test
+    public void getTupleDesc() {
+        HashJoin op = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2);
+        TupleDesc expected = TestUtility.getTupleDesc(width1 + width2);
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    @Test
+    public void onlyEquality() {
+        try {
+            new HashJoin(new JoinPredicate(0, Op.GREATER_THAN, 0), scan1, scan2);
+            fail("should have raised an exception!");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void eqJoin() throws Exception {
+        HashJoin op = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2);
+        op.open();
+        assertTrue(op.isBuildLeft());          // the left input is smaller
+        eqJoin.open();
+        OperatorTestUtility.matchAllTuples(eqJoin, op);
+        assertTrue(OperatorTestUtility.checkExhausted(op));
+    }
+
+    @Test
+    public void buildOnRight() throws Exception {
+        TupleIterator small = OperatorTestUtility.createTupleList(1, new int[]{5, 3});
+        TupleIterator result = OperatorTestUtility.createTupleList(width1 + 1,
+                new int[]{3, 4, 3,
+                        5, 6, 5});
+        HashJoin op = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, small);
+        op.open();
+        assertFalse(op.isBuildLeft());
+        result.open();
+        OperatorTestUtility.matchAllTuples(result, op);
+    }
+
+    @Test
+    public void rewind() throws Exception {
+        HashJoin op = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0), scan1, scan2);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+            count++;
+        }
+        assertEquals(3, count);
+        op.rewind();
+        while (op.hasNext()) {
+            op.next();
+            count--;
+        }
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void moreThanOneMatch() throws Exception {
+        TupleIterator left = OperatorTestUtility.createTupleList(1,
+                new int[]{1, 3, 5, 7, 3});
+        TupleIterator right = OperatorTestUtility.createTupleList(2,
+                new int[]{1, 10,
+                        5, 20,
+                        1, 30,
+                        6, -1,
+                        3, 50,
+                        3, 60});
+        TupleIterator result = OperatorTestUtility.createTupleList(3,
+                new int[]{1, 1, 10,
+                        5, 5, 20,
+                        1, 1, 30,
+                        3, 3, 50,
+                        3, 3, 60,
+                        3, 3, 50,
+                        3, 3, 60});
+        HashJoin op = new HashJoin(new JoinPredicate(0, Op.EQUALS, 0), left, right);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(7, count);
+        result.open();
+        OperatorTestUtility.matchAllTuples(result, op);
+    }
+}
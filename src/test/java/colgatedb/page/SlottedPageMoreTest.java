@@ -170,4 +170,26 @@ public class SlottedPageMoreTest {
         }
     }
 
+    /**
+     * Slot data taken from one page puts the same tuple, or an empty slot, into another.
+     */
+    @Test
+    public void testSetSlotData() {
+        int numColumns = 2;
+        SlottedPage page = makePage(numColumns);
+        Tuple t = TestUtility.getIntTuple(7, numColumns);
+        page.insertTuple(3, t);
+        byte[] used = page.getSlotData(3);
+        assertNull(page.getSlotData(4));
+
+        SlottedPage copy = makePage(numColumns);
+        copy.insertTuple(4, TestUtility.getIntTuple(8, numColumns));
+        copy.setSlotData(3, used);
+        copy.setSlotData(4, null);
+        PageTestUtility.assertEqualTuples(t, copy.getTuple(3));
+        assertTrue(copy.isSlotEmpty(4));
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
 }
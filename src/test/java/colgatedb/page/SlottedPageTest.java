@@ -8,6 +8,7 @@ import colgatedb.tuple.TupleDesc;
 import colgatedb.tuple.Type;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -310,4 +311,50 @@ public class SlottedPageTest {
         }
     }
 
+    /**
+     * A page built over a read-only buffer (as with a memory-mapped file) decodes tuples from it
+     * and copies the bytes before the first modification, leaving the buffer untouched.
+     */
+    @Test
+    public void readOnlyBufferCopiedOnWrite() {
+        int numColumns = 2;
+        SlottedPage page = makePage(numColumns);
+        page.insertTuple(1, TestUtility.getIntTuple(7, numColumns));
+        byte[] bytes = page.getPageData();
+        ByteBuffer view = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+
+        SlottedPage fromView = new SlottedPage(pid, page.getTupleDesc(), DEFAULT_PAGE_SIZE, view);
+        assertEquals(page.getNumEmptySlots(), fromView.getNumEmptySlots());
+        Tuple t = fromView.getTuple(1);
+        assertEquals(TestUtility.getIntTuple(7, numColumns).toString(), t.toString());
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+
+        fromView.deleteTuple(t);
+        fromView.insertTuple(0, TestUtility.getIntTuple(8, numColumns));
+        assertArrayEquals(page.getPageData(), bytes);
+        assertTrue(fromView.isSlotUsed(0));
+        assertTrue(fromView.isSlotEmpty(1));
+    }
+
+    /**
+     * The before image is taken at the first change after it was set, not when the page is built.
+     */
+    @Test
+    public void beforeImageCapturedOnFirstChange() {
+        int numColumns = 2;
+        SlottedPage page = makePage(numColumns);
+        byte[] empty = page.getPageData();
+        page.insertTuple(0, TestUtility.getIntTuple(1, numColumns));
+        byte[] original = page.getPageData();
+        assertArrayEquals(empty, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+        page.insertTuple(1, TestUtility.getIntTuple(2, numColumns));
+        page.deleteTuple(page.getTuple(0));
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
 }
@@ -1,5 +1,6 @@
 package colgatedb.transactions;
 
+import colgatedb.page.PageId;
 import colgatedb.page.SimplePageId;
 import com.gradescope.jh61b.grader.GradedTest;
 import org.junit.Before;
@@ -54,6 +55,51 @@ public class ConcurrencyControlTest {
         executeConcurrentThreads(numThreads, numAdds);
     }
 
+    /**
+     * A release should only wake the threads waiting on that page.
+     */
+    @Test
+    public void releaseWakesOnlyWaitersOnThatPage() throws TransactionAbortedException, InterruptedException {
+        LockManagerImpl impl = (LockManagerImpl) lm;
+        SimplePageId pid2 = new SimplePageId(0, 2);
+        TransactionId holder1 = new TransactionId();
+        TransactionId holder2 = new TransactionId();
+        lm.acquireLock(holder1, pid, Permissions.READ_WRITE);
+        lm.acquireLock(holder2, pid2, Permissions.READ_WRITE);
+
+        TransactionId waiter1 = new TransactionId();
+        TransactionId waiter2 = new TransactionId();
+        Thread thread1 = startWaiter(waiter1, pid);
+        Thread thread2 = startWaiter(waiter2, pid2);
+
+        lm.releaseLock(holder2, pid2);
+        thread2.join(5000);
+        assertTrue(lm.holdsLock(waiter2, pid2, Permissions.READ_WRITE));
+        assertEquals(1, impl.getWakeups());
+        assertTrue(thread1.isAlive());     // still waiting, and never woken
+
+        lm.releaseLock(holder1, pid);
+        thread1.join(5000);
+        assertTrue(lm.holdsLock(waiter1, pid, Permissions.READ_WRITE));
+        assertEquals(2, impl.getWakeups());
+    }
+
+    // starts a thread that requests an exclusive lock, and returns once it is blocked
+    private Thread startWaiter(TransactionId tid, PageId pid) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, pid, Permissions.READ_WRITE);
+            } catch (TransactionAbortedException e) {
+                fail("Should not abort");
+            }
+        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
     private void executeConcurrentThreads(int numThreads, int numAdds) throws InterruptedException {
         Counter counter = new Counter();
         Thread[] threads = new Thread[numThreads];
@@ -6,6 +6,8 @@ import com.gradescope.jh61b.grader.GradedTest;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -125,6 +127,74 @@ public class DeadlockTest {
         assertTrue(t1.txnCompleted() && t2.txnCompleted());
     }
 
+    @Test
+    public void exclusiveDeadlockWaitDie() throws InterruptedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        exclusiveDeadlock();
+    }
+
+    @Test
+    public void longCycleWaitDie() throws InterruptedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        longCycle();
+    }
+
+    @Test
+    public void exclusiveDeadlockWoundWait() throws InterruptedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        exclusiveDeadlock();
+    }
+
+    @Test
+    public void upgradeDeadlockWoundWait() throws InterruptedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        updgradeDeadlock();
+    }
+
+    /**
+     * Under wait-die a younger transaction never waits for an older one.
+     */
+    @Test
+    public void waitDieYoungerDies() throws TransactionAbortedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        lm.acquireLock(tid0, pid0, Permissions.READ_WRITE);
+        try {
+            lm.acquireLock(tid1, pid0, Permissions.READ_ONLY);
+            fail("younger transaction should abort instead of waiting");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(Collections.singletonList(tid0), lm.getTidsForPage(pid0));
+        lm.releaseLock(tid0, pid0);
+        lm.acquireLock(tid1, pid0, Permissions.READ_ONLY);    // no stale request left behind
+    }
+
+    /**
+     * Under wound-wait an older transaction that waits for a younger one wounds it: the younger one
+     * aborts at its next lock request.
+     */
+    @Test
+    public void woundWaitWoundsHolder() throws TransactionAbortedException, InterruptedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        lm.acquireLock(tid1, pid0, Permissions.READ_WRITE);
+        LockGrabber older = new LockGrabber(tid0, pid0, pid0, Permissions.READ_WRITE, Permissions.READ_WRITE);
+        Thread thread = new Thread(older);
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        try {
+            lm.acquireLock(tid1, pid1, Permissions.READ_ONLY);
+            fail("wounded transaction should abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseLock(tid1, pid0);
+        thread.join();
+        assertTrue(older.txnCompleted());
+        lm.acquireLock(tid1, pid1, Permissions.READ_ONLY);    // the wound is forgotten once tid1 holds nothing
+    }
+
     private void executeTxns(LockGrabber[] grabbers) throws InterruptedException {
         Thread[] threads = new Thread[grabbers.length];
         for (int i = 0; i < grabbers.length; i++) {
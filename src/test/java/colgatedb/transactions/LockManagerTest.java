@@ -2,10 +2,12 @@ package colgatedb.transactions;
 
 import colgatedb.page.PageId;
 import colgatedb.page.SimplePageId;
+import colgatedb.tuple.RecordId;
 import com.gradescope.jh61b.grader.GradedTest;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -102,6 +104,19 @@ public class LockManagerTest {
         assertEquals(expectedPages, pages);
     }
 
+    @Test
+    public void getLockedPagesAfterRelease() throws TransactionAbortedException {
+        lm.acquireLock(tid1, pid1, Permissions.READ_ONLY);
+        lm.acquireLock(tid1, pid2, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid1, Permissions.READ_ONLY);
+        lm.releaseLock(tid1, pid1);
+        assertEquals(Collections.singletonList(pid2), lm.getPagesForTid(tid1));
+        assertEquals(Collections.singletonList(pid1), lm.getPagesForTid(tid2));
+        lm.releaseLock(tid1, pid2);
+        assertTrue(lm.getPagesForTid(tid1).isEmpty());
+        assertTrue(lm.getPagesForTid(tid3).isEmpty());   // never locked anything
+    }
+
     @Test
     @GradedTest(number="17.6", max_score=1.0, visibility="visible")
     public void getTidsForPage() throws TransactionAbortedException {
@@ -119,4 +134,114 @@ public class LockManagerTest {
         expectedTids.add(tid3);
         assertEquals(expectedTids, new HashSet<>(lm.getTidsForPage(pid2)));
     }
+
+    // under wait-die a younger txn dies instead of waiting, so conflicts show up without threads
+    private void assertConflicts(Runnable request) {
+        try {
+            request.run();
+            fail("expected the request to conflict");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+    }
+
+    private void lockRecord(TransactionId tid, RecordId rid, Permissions perm) {
+        try {
+            lm.acquireLock(tid, rid, perm);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void lockTable(TransactionId tid, int tableId, Permissions perm) {
+        try {
+            lm.acquireTableLock(tid, tableId, perm);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void recordLocksOnSamePage() throws TransactionAbortedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        RecordId rid1 = new RecordId(pid1, 0);
+        RecordId rid2 = new RecordId(pid1, 1);
+        lm.acquireLock(tid1, rid1, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, rid2, Permissions.READ_WRITE);   // different records do not conflict
+        assertTrue(lm.holdsLock(tid1, rid1, Permissions.READ_WRITE));
+        assertFalse(lm.holdsLock(tid1, rid2, Permissions.READ_ONLY));
+        assertConflicts(() -> lockRecord(tid2, rid1, Permissions.READ_ONLY));
+    }
+
+    @Test
+    public void tableLockCoversPages() throws TransactionAbortedException {
+        lm.acquireTableLock(tid1, 0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(tid1, pid1, Permissions.READ_WRITE));
+        assertTrue(lm.holdsLock(tid1, new RecordId(pid2, 3), Permissions.READ_WRITE));
+        lm.acquireLock(tid1, pid1, Permissions.READ_WRITE);
+        assertTrue(lm.getPagesForTid(tid1).isEmpty());   // no page lock is needed under the table lock
+        assertFalse(lm.holdsLock(tid1, new SimplePageId(1, 1), Permissions.READ_ONLY));
+    }
+
+    @Test
+    public void intentionLocksConflictWithTableLocks() throws TransactionAbortedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        lm.acquireLock(tid1, pid1, Permissions.READ_WRITE);    // IX on the table
+        lm.acquireLock(tid2, pid2, Permissions.READ_ONLY);     // IS is compatible with IX
+        assertConflicts(() -> lockTable(tid2, 0, Permissions.READ_ONLY));
+        lm.acquireTableLock(tid3, 1, Permissions.READ_WRITE);  // another table is unaffected
+
+        lm.releaseAllLocks(tid1);
+        lm.acquireTableLock(tid3, 0, Permissions.READ_ONLY);   // S is compatible with IS
+        assertTrue(lm.holdsTableLock(tid3, 0, Permissions.READ_ONLY));
+        assertFalse(lm.holdsTableLock(tid3, 0, Permissions.READ_WRITE));
+    }
+
+    @Test
+    public void intentionLockDroppedWithLastPage() throws TransactionAbortedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        lm.acquireLock(tid2, pid1, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid2, Permissions.READ_ONLY);
+        lm.releaseLock(tid2, pid1);
+        assertConflicts(() -> lockTable(tid3, 0, Permissions.READ_ONLY));   // still IS from pid2
+        lm.releaseLock(tid2, pid2);
+        lm.acquireTableLock(tid3, 0, Permissions.READ_WRITE);
+    }
+
+    @Test
+    public void escalation() throws TransactionAbortedException {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        lm.setEscalationThreshold(3);
+        for (int i = 0; i < 3; i++) {
+            lm.acquireLock(tid2, new RecordId(pid1, i), Permissions.READ_ONLY);
+        }
+        assertEquals(0, ((LockManagerImpl) lm).getEscalations());
+        lm.acquireLock(tid2, pid2, Permissions.READ_ONLY);
+        assertEquals(1, ((LockManagerImpl) lm).getEscalations());
+        assertTrue(lm.holdsTableLock(tid2, 0, Permissions.READ_ONLY));
+        assertFalse(lm.holdsTableLock(tid2, 0, Permissions.READ_WRITE));
+        assertTrue(lm.getPagesForTid(tid2).isEmpty());
+        assertTrue(lm.holdsLock(tid2, new RecordId(pid1, 0), Permissions.READ_ONLY));
+        lm.releaseLock(tid2, pid2);                               // covered by the table lock
+        assertConflicts(() -> lockRecord(tid3, new RecordId(pid1, 5), Permissions.READ_WRITE));
+
+        // a writer escalates to an exclusive table lock
+        for (int i = 0; i < 4; i++) {
+            lm.acquireLock(tid1, new RecordId(new SimplePageId(1, 0), i), Permissions.READ_WRITE);
+        }
+        assertTrue(lm.holdsTableLock(tid1, 1, Permissions.READ_WRITE));
+    }
+
+    @Test
+    public void releaseAllLocks() throws TransactionAbortedException {
+        lm.acquireLock(tid1, pid1, Permissions.READ_WRITE);
+        lm.acquireLock(tid1, new RecordId(pid2, 0), Permissions.READ_ONLY);
+        lm.acquireTableLock(tid1, 1, Permissions.READ_ONLY);
+        lm.releaseAllLocks(tid1);
+        assertFalse(lm.holdsLock(tid1, pid1, Permissions.READ_ONLY));
+        assertFalse(lm.holdsTableLock(tid1, 1, Permissions.READ_ONLY));
+        assertNull(lm.getTidsForPage(pid1));
+        lm.acquireTableLock(tid2, 0, Permissions.READ_WRITE);
+        lm.acquireTableLock(tid2, 1, Permissions.READ_WRITE);
+    }
 }
@@ -0,0 +1,162 @@
+package colgatedb.transactions;
+
+import colgatedb.AccessManager;
+import colgatedb.Database;
+import colgatedb.TestUtility;
+import colgatedb.dbfile.DbFileIterator;
+import colgatedb.dbfile.HeapFile;
+import colgatedb.dbfile.TestUtilHeapFile;
+import colgatedb.page.SimplePageId;
+import colgatedb.tuple.IntField;
+import colgatedb.tuple.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static colgatedb.dbfile.TestUtilHeapFile.findTuple;
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests snapshot reads from the version store.
+ */
+public class MultiVersionTest {
+    private TransactionId writer;
+    private TransactionId reader;
+    private HeapFile hf;
+    private AccessManager am;
+    private VersionStore versions;
+
+    @Before
+    public void setUp() {
+        Database.reset();
+        Database.setMultiVersion(true);
+        hf = TestUtilHeapFile.createHeapFile(2, new int[]{1, 1, 2, 2, 3, 3});
+        am = Database.getAccessManager();
+        versions = am.getVersionStore();
+        writer = new TransactionId();
+        reader = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.reset();
+    }
+
+    // the first field of each tuple tid sees, sorted, since freed slots are reused
+    private List<Integer> scan(TransactionId tid) throws TransactionAbortedException {
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    @Test
+    public void scanDoesNotWaitForWriter() throws TransactionAbortedException {
+        hf.deleteTuple(writer, findTuple(hf, writer, 2));
+        hf.insertTuple(writer, TestUtility.getIntTuple(new int[]{4, 4}));
+        assertEquals(Arrays.asList(1, 3, 4), scan(writer));        // a writer sees its own changes
+
+        // the writer holds an exclusive lock on the page, but the reader takes no locks at all
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));
+        assertFalse(am.holdsLock(reader, new SimplePageId(hf.getId(), 0), Permissions.READ_ONLY));
+
+        am.transactionComplete(writer, true);
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));        // the reader keeps its snapshot
+        assertEquals(Arrays.asList(1, 3, 4), scan(new TransactionId()));
+    }
+
+    @Test
+    public void abortedChangesAreNeverSeen() throws TransactionAbortedException {
+        hf.deleteTuple(writer, findTuple(hf, writer, 1));
+        hf.insertTuple(writer, TestUtility.getIntTuple(new int[]{4, 4}));
+        am.transactionComplete(writer, false);
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));
+    }
+
+    @Test
+    public void firstCommitterWins() throws TransactionAbortedException {
+        Tuple t = findTuple(hf, reader, 3);     // the reader's snapshot is taken here
+        hf.deleteTuple(writer, findTuple(hf, writer, 3));
+        am.transactionComplete(writer, true);
+        try {
+            hf.deleteTuple(reader, t);
+            fail("expected a write-write conflict");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        am.transactionComplete(reader, false);
+
+        TransactionId later = new TransactionId();
+        hf.deleteTuple(later, findTuple(hf, later, 2));   // a snapshot taken after the commit has no conflict
+        am.transactionComplete(later, true);
+        assertEquals(Arrays.asList(1), scan(new TransactionId()));
+    }
+
+    @Test
+    public void garbageCollection() throws TransactionAbortedException {
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));
+        hf.deleteTuple(writer, findTuple(hf, writer, 1));
+        hf.insertTuple(writer, TestUtility.getIntTuple(new int[]{4, 4}));
+        am.transactionComplete(writer, true);
+
+        // the reader's snapshot still needs the deleted version
+        versions.collectGarbage();
+        assertEquals(2, versions.getVersionCount());
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));
+
+        am.transactionComplete(reader, true);
+        assertEquals(2, versions.collectGarbage());
+        assertEquals(0, versions.getVersionCount());
+        assertEquals(Arrays.asList(2, 3, 4), scan(new TransactionId()));
+    }
+
+    /**
+     * Once they have their snapshots, readers and writers only lock the pages they use, not the whole store.
+     */
+    @Test
+    public void pagesDoNotWaitForTheStore() throws Exception {
+        assertEquals(Arrays.asList(1, 2, 3), scan(reader));
+        assertEquals(Arrays.asList(1, 2, 3), scan(writer));
+        AtomicReference<List<Integer>> seen = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                hf.deleteTuple(writer, findTuple(hf, writer, 2));
+                seen.set(scan(reader));
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (versions) {      // e.g. a long garbage collection
+            thread.start();
+            thread.join(5000);
+            assertFalse("waited for the store", thread.isAlive());
+        }
+        assertEquals(Arrays.asList(1, 2, 3), seen.get());
+    }
+}
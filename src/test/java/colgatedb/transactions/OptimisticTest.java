@@ -0,0 +1,227 @@
+package colgatedb.transactions;
+
+import colgatedb.AccessManagerImpl;
+import colgatedb.Database;
+import colgatedb.TestUtility;
+import colgatedb.dbfile.DbFileIterator;
+import colgatedb.dbfile.HeapFile;
+import colgatedb.dbfile.TestUtilHeapFile;
+import colgatedb.page.PageId;
+import colgatedb.page.SimplePageId;
+import colgatedb.tuple.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static colgatedb.dbfile.TestUtilHeapFile.containsTuple;
+import static colgatedb.dbfile.TestUtilHeapFile.findTuple;
+import static org.junit.Assert.*;
+
+/**
+ * ColgateDB
+ * @author Michael Hay mhay@colgate.edu
+ * <p>
+ * ColgateDB was developed by Michael Hay but borrows considerably from past
+ * efforts including SimpleDB (developed by Sam Madden at MIT) and its predecessor
+ * Minibase (developed at U. of Wisconsin by Raghu Ramakrishnan).
+ * <p>
+ * The contents of this file are either wholly the creation of Michael Hay or are
+ * a significant adaptation of code from the SimpleDB project.  A number of
+ * substantive changes have been made to meet the pedagogical goals of the cosc460
+ * course at Colgate.  If this file contains remnants from SimpleDB, we are
+ * grateful for Sam's permission to use and adapt his materials.
+ */
+
+/**
+ * Tests optimistic transactions, which read without locks and are validated at commit.
+ */
+public class OptimisticTest {
+    private HeapFile hf;
+    private AccessManagerImpl am;
+    private PageId p0;
+
+    @Before
+    public void setUp() {
+        Database.reset();
+        hf = TestUtilHeapFile.createHeapFile(2, new int[]{1, 1, 2, 2, 3, 3});
+        am = (AccessManagerImpl) Database.getAccessManager();
+        p0 = new SimplePageId(hf.getId(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        Database.reset();
+    }
+
+    private Transaction begin(boolean optimistic) {
+        Transaction t = new Transaction(optimistic);
+        t.start();
+        return t;
+    }
+
+    private int count(Transaction t) throws TransactionAbortedException {
+        int count = 0;
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private void assertCommitFails(Transaction t) throws IOException {
+        try {
+            t.commitOptimistic();
+            fail("expected validation to fail");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void readsTakeNoLocks() throws Exception {
+        Transaction reader = begin(true);
+        assertEquals(3, count(reader));
+        assertFalse(am.holdsLock(reader.getId(), p0, Permissions.READ_ONLY));
+
+        reader.commitOptimistic();
+        assertEquals(0, am.getPageVersions().getValidationFailures());
+
+        reader = begin(true);
+        assertEquals(3, count(reader));
+        Transaction writer = begin(false);
+        am.acquireLock(writer.getId(), p0, Permissions.READ_WRITE);   // does not wait for the reader
+        writer.commit();
+        assertCommitFails(reader);   // the writer may have changed the page
+    }
+
+    /**
+     * A page is tracked only while a running transaction reads or writes it.
+     */
+    @Test
+    public void finishedPagesAreDropped() throws Exception {
+        Transaction reader = begin(true);
+        assertEquals(3, count(reader));
+        Transaction writer = begin(false);
+        hf.deleteTuple(writer.getId(), findTuple(hf, writer.getId(), 2));
+        assertTrue(am.getPageVersions().getTrackedPages() > 0);
+        writer.commit();
+        assertTrue("the reader still needs the page's version", am.getPageVersions().getTrackedPages() > 0);
+        assertCommitFails(reader);
+        assertEquals(0, am.getPageVersions().getTrackedPages());
+
+        writer = begin(false);
+        hf.insertTuple(writer.getId(), TestUtility.getIntTuple(new int[]{4, 4}));
+        writer.abort();
+        assertEquals(0, am.getPageVersions().getTrackedPages());
+    }
+
+    /**
+     * An insert that locks a page only to find it full has not written it.
+     */
+    @Test
+    public void fullPageIsNotWritten() throws Exception {
+        hf = TestUtilHeapFile.createFullHeapFile(2, 2);
+        PageId full = new SimplePageId(hf.getId(), 0);
+        Transaction reader = begin(true);
+        am.acquireLock(reader.getId(), full, Permissions.READ_ONLY);
+        Transaction writer = begin(false);
+        hf.insertTuple(writer.getId(), TestUtility.getIntTuple(new int[]{4, 4}));   // tries page 0 first
+        assertTrue(am.validate(reader.getId()));
+        writer.commit();
+        reader.commitOptimistic();
+        assertEquals(0, am.getPageVersions().getValidationFailures());
+    }
+
+    @Test
+    public void committedWriteFailsValidation() throws Exception {
+        Transaction reader = begin(true);
+        assertEquals(3, count(reader));
+        Transaction writer = begin(false);
+        hf.deleteTuple(writer.getId(), findTuple(hf, writer.getId(), 2));
+        writer.commit();
+        assertCommitFails(reader);
+        assertEquals(1, am.getPageVersions().getValidationFailures());
+    }
+
+    @Test
+    public void runningWriterFailsValidation() throws Exception {
+        Transaction writer = begin(false);
+        hf.insertTuple(writer.getId(), TestUtility.getIntTuple(new int[]{4, 4}));
+        Transaction reader = begin(true);
+        assertEquals(4, count(reader));       // an uncommitted insert, which validation must catch
+        assertCommitFails(reader);
+        writer.abort();
+    }
+
+    @Test
+    public void optimisticWriter() throws Exception {
+        Transaction t = begin(true);
+        hf.deleteTuple(t.getId(), findTuple(hf, t.getId(), 1));
+        hf.insertTuple(t.getId(), TestUtility.getIntTuple(new int[]{4, 4}));
+        t.commitOptimistic();   // its own writes do not invalidate its reads
+        assertEquals(3, count(begin(false)));
+    }
+
+    /**
+     * Buffered writes are not seen, or waited for, by anyone until the optimistic transaction commits.
+     */
+    @Test(timeout = 10000)
+    public void writesAreBufferedUntilCommit() throws Exception {
+        Transaction t = begin(true);
+        hf.deleteTuple(t.getId(), findTuple(hf, t.getId(), 1));
+        Tuple inserted = TestUtility.getIntTuple(new int[]{4, 4});
+        hf.insertTuple(t.getId(), inserted);
+        assertNull(inserted.getRecordId());
+        Transaction other = begin(false);
+        assertTrue(containsTuple(hf, other.getId(), 1));   // does not wait for t
+        assertFalse(containsTuple(hf, other.getId(), 4));
+        other.commit();
+
+        t.commitOptimistic();
+        assertNotNull(inserted.getRecordId());
+        Transaction after = begin(false);
+        assertFalse(containsTuple(hf, after.getId(), 1));
+        assertTrue(containsTuple(hf, after.getId(), 4));
+    }
+
+    /**
+     * A conflict found when the buffered writes are applied aborts the transaction before any of them
+     * is written.
+     */
+    @Test(timeout = 10000)
+    public void conflictAtCommitWritesNothing() throws Exception {
+        Transaction t = begin(true);
+        assertEquals(3, count(t));
+        Tuple inserted = TestUtility.getIntTuple(new int[]{4, 4});
+        hf.insertTuple(t.getId(), inserted);
+        Transaction writer = begin(false);
+        hf.deleteTuple(writer.getId(), findTuple(hf, writer.getId(), 2));
+        writer.commit();
+        assertCommitFails(t);
+        assertNull(inserted.getRecordId());
+        Transaction after = begin(false);
+        assertEquals(2, count(after));
+        assertFalse(containsTuple(hf, after.getId(), 4));
+    }
+
+    @Test
+    public void deleteAfterConflictAborts() throws Exception {
+        Transaction t = begin(true);
+        Tuple tuple = findTuple(hf, t.getId(), 3);
+        Transaction writer = begin(false);
+        hf.deleteTuple(writer.getId(), findTuple(hf, writer.getId(), 3));
+        writer.commit();
+        try {
+            hf.deleteTuple(t.getId(), tuple);
+            fail("expected the delete to abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        t.abort();
+    }
+}